@@ -0,0 +1,13 @@
+package org.p2p.bench;
+import java.io.OutputStream;
+import java.io.PrintStream;
+public final class BenchmarkSupport {
+    private static final PrintStream CONSOLE = System.out;
+    private BenchmarkSupport() {}
+    public static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    public static void restoreConsole() {
+        System.setOut(CONSOLE);
+    }
+}
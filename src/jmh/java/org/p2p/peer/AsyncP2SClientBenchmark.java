@@ -0,0 +1,87 @@
+package org.p2p.peer;
+import org.p2p.bench.BenchmarkSupport;
+import org.p2p.common.RfcRecord;
+import org.p2p.server.ClientHandler;
+import org.p2p.server.PeerRegistry;
+import org.p2p.server.RfcIndex;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncP2SClientBenchmark {
+    private static final int INDEX_SIZE = 10_000;
+    @Param({"1", "64"})
+    public int batch;
+    private ServerSocket serverSocket;
+    private P2SClient blocking;
+    private AsyncP2SClient async;
+    private int next;
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        RfcIndex rfcIndex = new RfcIndex();
+        PeerRegistry peerRegistry = new PeerRegistry();
+        for (int rfc = 0; rfc < INDEX_SIZE; rfc++) {
+            rfcIndex.addRfc(rfc, "Title of RFC " + rfc, "host" + (rfc & 7), 5000 + (rfc & 7));
+        }
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    Thread handler = new Thread(new ClientHandler(socket, peerRegistry, rfcIndex));
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        blocking = new P2SClient("127.0.0.1", serverSocket.getLocalPort(), "bench", 6000, "bench");
+        async = new AsyncP2SClient("127.0.0.1", serverSocket.getLocalPort(), "bench", 6001);
+        if (!blocking.connect() || !async.connect()) {
+            throw new IOException("Could not connect to the benchmark server");
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        blocking.disconnect();
+        async.close();
+        serverSocket.close();
+        BenchmarkSupport.restoreConsole();
+    }
+    @Benchmark
+    public int blockingLookups() {
+        int found = 0;
+        for (int i = 0; i < batch; i++) {
+            found += blocking.lookupRfc(nextRfc(), "P2P-CI/1.0").size();
+        }
+        return found;
+    }
+    @Benchmark
+    public int pipelinedLookups() {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<List<RfcRecord>>[] futures = new CompletableFuture[batch];
+        for (int i = 0; i < batch; i++) {
+            futures[i] = async.lookupRfc(nextRfc(), "P2P-CI/1.0");
+        }
+        int found = 0;
+        for (CompletableFuture<List<RfcRecord>> f : futures) {
+            found += f.join().size();
+        }
+        return found;
+    }
+    private int nextRfc() {
+        return ((next++ & 1023) * 7919) % INDEX_SIZE;
+    }
+}
@@ -0,0 +1,75 @@
+package org.p2p.peer;
+import org.p2p.bench.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadServerBenchmark {
+    @Param({"4096", "1048576"})
+    public int fileSize;
+    @Param({"10", "1000"})
+    public int filesInDirectory;
+    @Param({"thread", "nio"})
+    public String engine;
+    private File rfcDirectory;
+    private UploadServer uploadServer;
+    private int port;
+    private byte[] request;
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        rfcDirectory = Files.createTempDirectory("p2p-bench-rfc").toFile();
+        byte[] content = new byte[fileSize];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        for (int rfc = 1; rfc <= filesInDirectory; rfc++) {
+            Files.write(new File(rfcDirectory, "RFC_" + rfc + "_Bench.txt").toPath(), content);
+        }
+        uploadServer = new UploadServer(0, rfcDirectory, "bench");
+        uploadServer.setEngine(engine, 1);
+        Thread t = new Thread(uploadServer, "BenchUploadServer");
+        t.setDaemon(true);
+        t.start();
+        port = uploadServer.waitForBoundPort();
+        int target = filesInDirectory / 2 + 1;
+        request = ("GET RFC " + target + " P2P-CI/1.0\r\nHost: localhost\r\nOS: bench\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        uploadServer.shutdown();
+        File[] files = rfcDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        rfcDirectory.delete();
+        BenchmarkSupport.restoreConsole();
+    }
+    @Benchmark
+    public long get() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[65536];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+}
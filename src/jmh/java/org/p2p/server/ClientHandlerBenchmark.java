@@ -0,0 +1,70 @@
+package org.p2p.server;
+import org.p2p.bench.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientHandlerBenchmark {
+    private static final int INDEX_SIZE = 10_000;
+    @Param({"1", "8"})
+    public int peersPerRfc;
+    private ClientHandler handler;
+    private RfcIndex rfcIndex;
+    private String[] lookupRequests;
+    private int next;
+    private int addCounter;
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceConsole();
+        rfcIndex = new RfcIndex();
+        for (int rfc = 0; rfc < INDEX_SIZE; rfc++) {
+            for (int p = 0; p < peersPerRfc; p++) {
+                rfcIndex.addRfc(rfc, "Title of RFC " + rfc, "host" + p, 5000 + p);
+            }
+        }
+        handler = new ClientHandler(new Socket(), new PeerRegistry(), rfcIndex);
+        lookupRequests = new String[1024];
+        for (int i = 0; i < lookupRequests.length; i++) {
+            int rfc = (i * 7919) % INDEX_SIZE;
+            lookupRequests[i] = "Host: bench\r\nPort: 6000\r\nTitle: Title of RFC " + rfc + "\r\n\r\n";
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.restoreConsole();
+    }
+    @Benchmark
+    public int lookup() throws IOException {
+        int i = next++ & (lookupRequests.length - 1);
+        StringWriter response = new StringWriter();
+        BufferedWriter out = new BufferedWriter(response);
+        handler.handleLookUp(new BufferedReader(new StringReader(lookupRequests[i])), out,
+                "RFC", Integer.toString((i * 7919) % INDEX_SIZE), "P2P-CI/1.0", "127.0.0.1");
+        return response.getBuffer().length();
+    }
+    @Benchmark
+    public int addThenRemove() throws IOException {
+        int rfc = INDEX_SIZE + (addCounter++ & 1023);
+        StringWriter response = new StringWriter();
+        BufferedWriter out = new BufferedWriter(response);
+        handler.handleAdd(new BufferedReader(new StringReader(
+                "Host: bench\r\nPort: 6000\r\nTitle: Bench RFC " + rfc + "\r\n\r\n")), out,
+                "RFC", Integer.toString(rfc), "P2P-CI/1.0", "127.0.0.1");
+        rfcIndex.removeRfc(rfc, "bench", 6000);
+        return response.getBuffer().length();
+    }
+    @Benchmark
+    public int malformed() throws IOException {
+        StringWriter response = new StringWriter();
+        BufferedWriter out = new BufferedWriter(response);
+        handler.handleLookUp(new BufferedReader(new StringReader("Host: bench\r\nPort: notaport\r\nTitle: x\r\n\r\n")), out,
+                "RFC", "1", "P2P-CI/1.0", "127.0.0.1");
+        return response.getBuffer().length();
+    }
+}
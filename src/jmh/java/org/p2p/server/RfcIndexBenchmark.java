@@ -0,0 +1,81 @@
+package org.p2p.server;
+import org.p2p.bench.BenchmarkSupport;
+import org.p2p.common.RfcRanges;
+import org.p2p.common.RfcRecord;
+import org.openjdk.jmh.annotations.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RfcIndexBenchmark {
+    @Param({"1000", "50000"})
+    public int indexSize;
+    @Param({"1", "8"})
+    public int peersPerRfc;
+    @Param({"1", "8"})
+    public int shards;
+    private RfcIndex rfcIndex;
+    private SplittableRandom random;
+    private int churnPort;
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceConsole();
+        rfcIndex = new RfcIndex(shards, false, null, 0);
+        for (int rfc = 0; rfc < indexSize; rfc++) {
+            for (int p = 0; p < peersPerRfc; p++) {
+                rfcIndex.addRfc(rfc, "Title " + rfc, "host" + p, 5000 + p);
+            }
+        }
+        random = new SplittableRandom(42);
+        churnPort = 20000;
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.restoreConsole();
+    }
+    @Benchmark
+    public List<RfcRecord> lookup() {
+        return rfcIndex.lookup(random.nextInt(indexSize));
+    }
+    @Benchmark
+    public List<RfcRecord> lookupHundredOneByOne() {
+        int base = random.nextInt(Math.max(1, indexSize - 100));
+        List<RfcRecord> found = new ArrayList<>();
+        for (int rfc = base; rfc < base + 100; rfc++) {
+            found.addAll(rfcIndex.lookup(rfc));
+        }
+        return found;
+    }
+    @Benchmark
+    public List<RfcRecord> lookupHundredBatch() {
+        int base = random.nextInt(Math.max(1, indexSize - 100));
+        return rfcIndex.lookupAll(RfcRanges.parse(base + "-" + (base + 99)));
+    }
+    @Benchmark
+    public boolean addThenRemove() {
+        int rfc = random.nextInt(indexSize);
+        rfcIndex.addRfc(rfc, "Churn " + rfc, "churn", churnPort);
+        return rfcIndex.removeRfc(rfc, "churn", churnPort);
+    }
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<RfcRecord> listAll() {
+        return rfcIndex.listAll();
+    }
+    @Benchmark
+    public void registerThenRemovePeer() {
+        int port = ++churnPort;
+        int base = random.nextInt(indexSize);
+        for (int i = 0; i < 16; i++) {
+            int rfc = (base + i * 7919) % indexSize;
+            rfcIndex.addRfc(rfc, "Churn " + rfc, "churn", port);
+        }
+        rfcIndex.removePeer("churn", port);
+    }
+}
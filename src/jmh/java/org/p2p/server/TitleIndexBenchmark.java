@@ -0,0 +1,54 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TitleIndexBenchmark {
+    private static final String[] WORDS = {
+            "internet", "protocol", "transmission", "control", "datagram", "domain", "names", "routing",
+            "security", "authentication", "transport", "layer", "hypertext", "transfer", "message", "format",
+            "extensions", "mail", "simple", "network", "management", "address", "allocation", "multicast",
+            "encapsulation", "congestion", "avoidance", "framework", "requirements", "architecture", "session", "media"};
+    @Param({"100000", "1000000"})
+    public int indexSize;
+    private TitleIndex titleIndex;
+    private SplittableRandom random;
+    private int churn;
+    @Setup(Level.Trial)
+    public void setUp() {
+        titleIndex = new TitleIndex();
+        random = new SplittableRandom(42);
+        for (int rfc = 0; rfc < indexSize; rfc++) {
+            titleIndex.rfcAdded(new RfcRecord(rfc, title(rfc), "host", 5000));
+        }
+    }
+    @Benchmark
+    public List<TitleIndex.Hit> exactTerm() {
+        return titleIndex.search("rfc" + random.nextInt(indexSize), 20);
+    }
+    @Benchmark
+    public List<TitleIndex.Hit> twoWords() {
+        return titleIndex.search(WORDS[random.nextInt(WORDS.length)] + " rfc" + random.nextInt(indexSize), 20);
+    }
+    @Benchmark
+    public List<TitleIndex.Hit> prefix() {
+        return titleIndex.search("rfc" + random.nextInt(indexSize / 100), 20);
+    }
+    @Benchmark
+    public void addThenRemove() {
+        RfcRecord record = new RfcRecord(indexSize + (churn++ & 1023), "Churn Title " + churn, "churn", 6000);
+        titleIndex.rfcAdded(record);
+        titleIndex.rfcRemoved(record);
+    }
+    private static String title(int rfc) {
+        return WORDS[rfc % WORDS.length] + " " + WORDS[(rfc / WORDS.length) % WORDS.length] + " " + WORDS[(rfc * 7) % WORDS.length]
+                + " rfc" + rfc;
+    }
+}
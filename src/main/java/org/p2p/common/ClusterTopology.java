@@ -0,0 +1,69 @@
+package org.p2p.common;
+import java.util.ArrayList;
+import java.util.List;
+public class ClusterTopology {
+    private final List<String> hosts;
+    private final List<Integer> ports;
+    private final int replicationFactor;
+    public ClusterTopology(List<String> hosts, List<Integer> ports, int replicationFactor) {
+        this.hosts = List.copyOf(hosts);
+        this.ports = List.copyOf(ports);
+        this.replicationFactor = Math.max(1, Math.min(replicationFactor, hosts.size()));
+    }
+    public static ClusterTopology parse(String spec, int replicationFactor) {
+        List<String> hosts = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        for (String node : spec.split(",")) {
+            String trimmed = node.trim();
+            int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0 || colon == trimmed.length() - 1) {
+                throw new IllegalArgumentException("Invalid cluster node (expected host:port): " + trimmed);
+            }
+            hosts.add(trimmed.substring(0, colon));
+            ports.add(Integer.parseInt(trimmed.substring(colon + 1)));
+        }
+        return new ClusterTopology(hosts, ports, replicationFactor);
+    }
+    public int size() {
+        return hosts.size();
+    }
+    public String hostOf(int node) {
+        return hosts.get(node);
+    }
+    public int portOf(int node) {
+        return ports.get(node);
+    }
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+    public int ownerOf(int rfcNumber) {
+        int h = rfcNumber;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, hosts.size());
+    }
+    public int[] replicasOf(int rfcNumber) {
+        int owner = ownerOf(rfcNumber);
+        int[] replicas = new int[replicationFactor];
+        for (int i = 0; i < replicationFactor; i++) {
+            replicas[i] = (owner + i) % hosts.size();
+        }
+        return replicas;
+    }
+    public boolean isReplica(int node, int rfcNumber) {
+        int owner = ownerOf(rfcNumber);
+        return Math.floorMod(node - owner, hosts.size()) < replicationFactor;
+    }
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < hosts.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(hosts.get(i)).append(":").append(ports.get(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package org.p2p.common;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+public class ConnectionDeadline {
+    private final TimerWheel timerWheel;
+    private final Closeable connection;
+    private final String label;
+    private final Consumer<String> onExpire;
+    private TimerWheel.Timeout timeout;
+    private long generation;
+    private volatile String expiredReason;
+    public ConnectionDeadline(TimerWheel timerWheel, Closeable connection, String label, Consumer<String> onExpire) {
+        this.timerWheel = timerWheel;
+        this.connection = connection;
+        this.label = label;
+        this.onExpire = onExpire;
+    }
+    public synchronized void arm(long millis, String reason) {
+        if (timerWheel == null) {
+            return;
+        }
+        long armed = ++generation;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        timeout = millis > 0 ? timerWheel.schedule(millis, () -> expire(armed, reason)) : null;
+    }
+    public synchronized void disarm() {
+        generation++;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+    public String expiredReason() {
+        return expiredReason;
+    }
+    public static long earliest(long a, long b) {
+        if (a <= 0) {
+            return b;
+        }
+        if (b <= 0) {
+            return a;
+        }
+        return Math.min(a, b);
+    }
+    private void expire(long armed, String reason) {
+        synchronized (this) {
+            if (armed != generation) {
+                return;
+            }
+            timeout = null;
+            expiredReason = reason;
+        }
+        System.out.println("[Deadline] Closing " + label + ": " + reason + " timeout");
+        if (onExpire != null) {
+            onExpire.accept(reason);
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.p2p.common;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+public class MetricsRegistry {
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+    public String render() {
+        Map<String, String> lines = new TreeMap<>();
+        lines.put("uptime.seconds", Long.toString((System.currentTimeMillis() - startMillis) / 1000));
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            lines.put(e.getKey(), Long.toString(e.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            lines.put(e.getKey(), Long.toString(e.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            lines.put(e.getKey(), e.getValue().summary());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            sb.append(line.getKey()).append(' ').append(line.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
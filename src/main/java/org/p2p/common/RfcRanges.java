@@ -0,0 +1,159 @@
+package org.p2p.common;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+public final class RfcRanges {
+    public static final RfcRanges NONE = new RfcRanges(new int[0], new int[0]);
+    public static final RfcRanges ALL = new RfcRanges(new int[] { 0 }, new int[] { Integer.MAX_VALUE });
+    private final int[] starts;
+    private final int[] ends;
+    private RfcRanges(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+    public static RfcRanges parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.equalsIgnoreCase("ALL")) {
+            return ALL;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (String part : trimmed.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) {
+                continue;
+            }
+            int dash = p.indexOf('-', 1);
+            int start = Integer.parseInt((dash == -1 ? p : p.substring(0, dash)).trim());
+            int end = dash == -1 ? start : Integer.parseInt(p.substring(dash + 1).trim());
+            if (start < 0 || end < start) {
+                throw new IllegalArgumentException("Invalid RFC range: " + p);
+            }
+            ranges.add(new int[] { start, end });
+        }
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("Empty RFC range list");
+        }
+        return normalize(ranges);
+    }
+    public static RfcRanges of(int[] sorted, int count) {
+        if (count == 0) {
+            return NONE;
+        }
+        int runs = 1;
+        for (int i = 1; i < count; i++) {
+            if ((long) sorted[i] > (long) sorted[i - 1] + 1) {
+                runs++;
+            }
+        }
+        int[] starts = new int[runs];
+        int[] ends = new int[runs];
+        int r = 0;
+        starts[0] = sorted[0];
+        for (int i = 1; i < count; i++) {
+            if ((long) sorted[i] > (long) sorted[i - 1] + 1) {
+                ends[r++] = sorted[i - 1];
+                starts[r] = sorted[i];
+            }
+        }
+        ends[r] = sorted[count - 1];
+        return new RfcRanges(starts, ends);
+    }
+    public boolean contains(int rfcNumber) {
+        int i = Arrays.binarySearch(starts, rfcNumber);
+        if (i >= 0) {
+            return true;
+        }
+        int before = -i - 2;
+        return before >= 0 && rfcNumber <= ends[before];
+    }
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+    public long size() {
+        long size = 0;
+        for (int i = 0; i < starts.length; i++) {
+            size += (long) ends[i] - starts[i] + 1;
+        }
+        return size;
+    }
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < starts.length; i++) {
+            for (long rfc = starts[i]; rfc <= ends[i]; rfc++) {
+                action.accept((int) rfc);
+            }
+        }
+    }
+    public RfcRanges union(RfcRanges other) {
+        List<int[]> ranges = new ArrayList<>();
+        addTo(ranges);
+        other.addTo(ranges);
+        return normalize(ranges);
+    }
+    public RfcRanges minus(RfcRanges other) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < starts.length; i++) {
+            long start = starts[i];
+            long end = ends[i];
+            for (int j = 0; j < other.starts.length && start <= end; j++) {
+                if (other.ends[j] < start || other.starts[j] > end) {
+                    continue;
+                }
+                if (other.starts[j] > start) {
+                    ranges.add(new int[] { (int) start, other.starts[j] - 1 });
+                }
+                start = (long) other.ends[j] + 1;
+            }
+            if (start <= end) {
+                ranges.add(new int[] { (int) start, (int) end });
+            }
+        }
+        return normalize(ranges);
+    }
+    private void addTo(List<int[]> ranges) {
+        for (int i = 0; i < starts.length; i++) {
+            ranges.add(new int[] { starts[i], ends[i] });
+        }
+    }
+    private static RfcRanges normalize(List<int[]> ranges) {
+        if (ranges.isEmpty()) {
+            return NONE;
+        }
+        ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        int[] current = ranges.get(0).clone();
+        for (int[] r : ranges.subList(1, ranges.size())) {
+            if ((long) r[0] <= (long) current[1] + 1) {
+                current[1] = Math.max(current[1], r[1]);
+            } else {
+                merged.add(current);
+                current = r.clone();
+            }
+        }
+        merged.add(current);
+        int[] starts = new int[merged.size()];
+        int[] ends = new int[merged.size()];
+        for (int i = 0; i < merged.size(); i++) {
+            starts[i] = merged.get(i)[0];
+            ends[i] = merged.get(i)[1];
+        }
+        return new RfcRanges(starts, ends);
+    }
+    @Override
+    public String toString() {
+        if (starts.length == 1 && starts[0] == 0 && ends[0] == Integer.MAX_VALUE) {
+            return "ALL";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(starts[i]);
+            if (ends[i] != starts[i]) {
+                sb.append('-').append(ends[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package org.p2p.common;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+public class StatsEndpoint implements Runnable {
+    private final int port;
+    private final MetricsRegistry metrics;
+    public StatsEndpoint(int port, MetricsRegistry metrics) {
+        this.port = port;
+        this.metrics = metrics;
+    }
+    public void start() {
+        Thread t = new Thread(this, "StatsEndpoint");
+        t.setDaemon(true);
+        t.start();
+    }
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress())) {
+            System.out.println("[Stats] Serving metrics on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                try (Socket client = serverSocket.accept()) {
+                    serve(client);
+                } catch (IOException e) {
+                    System.err.println("[Stats] Error serving metrics: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[Stats] Failed to open stats port " + port + ": " + e.getMessage());
+        }
+    }
+    private void serve(Socket client) throws IOException {
+        client.setSoTimeout(200);
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        String requestLine = null;
+        try {
+            requestLine = in.readLine();
+        } catch (SocketTimeoutException e) {
+        }
+        byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+        OutputStream out = client.getOutputStream();
+        if (requestLine != null && requestLine.startsWith("GET ")) {
+            out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + body.length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        out.write(body);
+        out.flush();
+    }
+}
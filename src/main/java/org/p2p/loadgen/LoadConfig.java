@@ -0,0 +1,134 @@
+package org.p2p.loadgen;
+public class LoadConfig {
+    private final String serverHost;
+    private final int serverPort;
+    private final int peers;
+    private final int threads;
+    private final int durationSeconds;
+    private final int reportIntervalSeconds;
+    private final int rfcSpace;
+    private final int rfcsPerPeer;
+    private final int uploadServers;
+    private final int fileSize;
+    private final int[] mix;
+    public LoadConfig(String serverHost, int serverPort, int peers, int threads, int durationSeconds, int reportIntervalSeconds,
+                      int rfcSpace, int rfcsPerPeer, int uploadServers, int fileSize, int[] mix) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.peers = peers;
+        this.threads = threads;
+        this.durationSeconds = durationSeconds;
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.rfcSpace = rfcSpace;
+        this.rfcsPerPeer = rfcsPerPeer;
+        this.uploadServers = uploadServers;
+        this.fileSize = fileSize;
+        this.mix = mix;
+    }
+    public String getServerHost() {
+        return serverHost;
+    }
+    public int getServerPort() {
+        return serverPort;
+    }
+    public int getPeers() {
+        return peers;
+    }
+    public int getThreads() {
+        return threads;
+    }
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+    public int getRfcSpace() {
+        return rfcSpace;
+    }
+    public int getRfcsPerPeer() {
+        return rfcsPerPeer;
+    }
+    public int getUploadServers() {
+        return uploadServers;
+    }
+    public int getFileSize() {
+        return fileSize;
+    }
+    public int weightOf(Operation op) {
+        return mix[op.ordinal()];
+    }
+    public String describeMix() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation op : Operation.values()) {
+            if (sb.length() > 0) sb.append(",");
+            sb.append(op.name().toLowerCase()).append("=").append(mix[op.ordinal()]);
+        }
+        return sb.toString();
+    }
+    public static LoadConfig fromArgs(String[] args) {
+        String serverHost = "localhost";
+        int serverPort = 7734;
+        int peers = 1000;
+        int threads = 32;
+        int duration = 30;
+        int reportInterval = 5;
+        int rfcSpace = 1000;
+        int rfcsPerPeer = 5;
+        int uploadServers = 4;
+        int fileSize = 4096;
+        String mixSpec = "add=10,lookup=60,list=2,get=20,exit=8";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--serverHost":
+                    if (i + 1 < args.length) serverHost = args[++i];
+                    break;
+                case "--serverPort":
+                    if (i + 1 < args.length) serverPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--peers":
+                    if (i + 1 < args.length) peers = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--threads":
+                    if (i + 1 < args.length) threads = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--duration":
+                    if (i + 1 < args.length) duration = Integer.parseInt(args[++i]);
+                    break;
+                case "--reportInterval":
+                    if (i + 1 < args.length) reportInterval = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--rfcSpace":
+                    if (i + 1 < args.length) rfcSpace = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--rfcsPerPeer":
+                    if (i + 1 < args.length) rfcsPerPeer = Math.max(0, Integer.parseInt(args[++i]));
+                    break;
+                case "--uploadServers":
+                    if (i + 1 < args.length) uploadServers = Math.max(0, Integer.parseInt(args[++i]));
+                    break;
+                case "--fileSize":
+                    if (i + 1 < args.length) fileSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--mix":
+                    if (i + 1 < args.length) mixSpec = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+            }
+        }
+        int[] mix = new int[Operation.values().length];
+        for (String entry : mixSpec.split(",")) {
+            String[] kv = entry.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Invalid --mix entry (expected op=weight): " + entry);
+            }
+            mix[Operation.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        if (uploadServers == 0) {
+            mix[Operation.GET.ordinal()] = 0;
+        }
+        return new LoadConfig(serverHost, serverPort, peers, Math.min(threads, peers), duration, reportInterval,
+                rfcSpace, rfcsPerPeer, uploadServers, fileSize, mix);
+    }
+}
@@ -0,0 +1,241 @@
+package org.p2p.loadgen;
+import org.p2p.common.LatencyHistogram;
+import org.p2p.common.RfcRecord;
+import org.p2p.peer.UploadServer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+public class LoadGenerator {
+    private final LoadConfig config;
+    private final Operation[] operations = Operation.values();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[operations.length];
+    private final LongAdder[] errors = new LongAdder[operations.length];
+    private final LatencyHistogram getLookups = new LatencyHistogram();
+    private final List<UploadServer> uploadServers = new ArrayList<>();
+    private int[] uploadPorts = new int[0];
+    private File rfcDirectory;
+    private volatile boolean running = true;
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        for (int i = 0; i < operations.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.fromArgs(args);
+        System.out.println("Load generator configuration:");
+        System.out.println("  Server        : " + config.getServerHost() + ":" + config.getServerPort());
+        System.out.println("  Virtual peers : " + config.getPeers() + " on " + config.getThreads() + " threads");
+        System.out.println("  Duration      : " + config.getDurationSeconds() + "s");
+        System.out.println("  RFC space     : " + config.getRfcSpace() + " (" + config.getRfcsPerPeer() + " per peer)");
+        System.out.println("  Upload servers: " + config.getUploadServers() + " (" + config.getFileSize() + " byte files)");
+        System.out.println("  Mix           : " + config.describeMix());
+        new LoadGenerator(config).run();
+    }
+    public void run() throws IOException, InterruptedException {
+        startUploadServers();
+        List<VirtualPeer> peers = new ArrayList<>();
+        for (int i = 0; i < config.getPeers(); i++) {
+            int port = uploadPorts.length > 0 ? uploadPorts[i % uploadPorts.length] : 40000 + i % 20000;
+            peers.add(new VirtualPeer(config.getServerHost(), config.getServerPort(), i, port));
+        }
+        Thread[] workers = new Thread[config.getThreads()];
+        for (int t = 0; t < workers.length; t++) {
+            List<VirtualPeer> owned = new ArrayList<>();
+            for (int i = t; i < peers.size(); i += workers.length) {
+                owned.add(peers.get(i));
+            }
+            long seed = 0x5DEECE66DL * (t + 1);
+            workers[t] = new Thread(() -> drive(owned, new SplittableRandom(seed)), "LoadWorker-" + t);
+            workers[t].start();
+        }
+        long start = System.nanoTime();
+        long deadline = start + config.getDurationSeconds() * 1_000_000_000L;
+        long[] lastCounts = new long[operations.length];
+        long lastReport = start;
+        while (System.nanoTime() < deadline) {
+            long sleepNanos = Math.min(config.getReportIntervalSeconds() * 1_000_000_000L, deadline - System.nanoTime());
+            Thread.sleep(Math.max(1, sleepNanos / 1_000_000));
+            long now = System.nanoTime();
+            StringBuilder line = new StringBuilder(String.format("[%5.1fs]", (now - start) / 1e9));
+            for (int i = 0; i < operations.length; i++) {
+                long count = latencies[i].count();
+                line.append(String.format(" %s=%.0f/s", operations[i].name().toLowerCase(),
+                        (count - lastCounts[i]) / ((now - lastReport) / 1e9)));
+                lastCounts[i] = count;
+            }
+            lastReport = now;
+            System.out.println(line);
+        }
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (VirtualPeer peer : peers) {
+            if (peer.isConnected()) {
+                try {
+                    peer.exit();
+                } catch (IOException e) {
+                    peer.close();
+                }
+            }
+        }
+        report(elapsed);
+        stopUploadServers();
+    }
+    private void drive(List<VirtualPeer> owned, SplittableRandom random) {
+        int totalWeight = 0;
+        for (Operation op : operations) {
+            totalWeight += config.weightOf(op);
+        }
+        int next = 0;
+        while (running) {
+            VirtualPeer peer = owned.get(next);
+            next = (next + 1) % owned.size();
+            if (!peer.isConnected()) {
+                join(peer, random);
+                continue;
+            }
+            Operation op = pick(random, totalWeight);
+            long begin = System.nanoTime();
+            try {
+                boolean ok = perform(peer, op, random);
+                if (op != Operation.GET) {
+                    latencies[op.ordinal()].record(System.nanoTime() - begin);
+                }
+                if (!ok) {
+                    errors[op.ordinal()].increment();
+                }
+                if (op == Operation.EXIT) {
+                    join(peer, random);
+                }
+            } catch (IOException e) {
+                errors[op.ordinal()].increment();
+                peer.close();
+            }
+        }
+    }
+    private void join(VirtualPeer peer, SplittableRandom random) {
+        try {
+            peer.connect();
+            for (int i = 0; i < config.getRfcsPerPeer() && running; i++) {
+                timedAdd(peer, random.nextInt(config.getRfcSpace()));
+            }
+        } catch (IOException e) {
+            errors[Operation.ADD.ordinal()].increment();
+            peer.close();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    private boolean perform(VirtualPeer peer, Operation op, SplittableRandom random) throws IOException {
+        switch (op) {
+            case ADD: {
+                int rfcNumber = random.nextInt(config.getRfcSpace());
+                return peer.held().contains(rfcNumber) || peer.add(rfcNumber);
+            }
+            case LOOKUP:
+                peer.lookup(random.nextInt(config.getRfcSpace()));
+                return true;
+            case LIST:
+                peer.listAll();
+                return true;
+            case GET: {
+                long begin = System.nanoTime();
+                List<RfcRecord> holders = peer.lookup(random.nextInt(config.getRfcSpace()));
+                getLookups.record(System.nanoTime() - begin);
+                if (holders.isEmpty()) {
+                    return true;
+                }
+                RfcRecord holder = holders.get(random.nextInt(holders.size()));
+                begin = System.nanoTime();
+                long received = VirtualPeer.get("127.0.0.1", holder.getUploadPort(), holder.getRfcNumber());
+                latencies[Operation.GET.ordinal()].record(System.nanoTime() - begin);
+                return received > config.getFileSize();
+            }
+            case EXIT:
+                return peer.exit();
+            default:
+                return false;
+        }
+    }
+    private void timedAdd(VirtualPeer peer, int rfcNumber) throws IOException {
+        long begin = System.nanoTime();
+        boolean ok = peer.add(rfcNumber);
+        latencies[Operation.ADD.ordinal()].record(System.nanoTime() - begin);
+        if (!ok && !peer.held().contains(rfcNumber)) {
+            errors[Operation.ADD.ordinal()].increment();
+        }
+    }
+    private Operation pick(SplittableRandom random, int totalWeight) {
+        int roll = random.nextInt(Math.max(1, totalWeight));
+        for (Operation op : operations) {
+            roll -= config.weightOf(op);
+            if (roll < 0) {
+                return op;
+            }
+        }
+        return Operation.LOOKUP;
+    }
+    private void report(double elapsedSeconds) {
+        System.out.println();
+        System.out.println(String.format("Results after %.1fs:", elapsedSeconds));
+        for (int i = 0; i < operations.length; i++) {
+            LatencyHistogram h = latencies[i];
+            if (h.count() == 0 && errors[i].sum() == 0) {
+                continue;
+            }
+            System.out.println(String.format("  %-10s %9.1f ops/s  errors=%-6d %s", operations[i].name(),
+                    h.count() / elapsedSeconds, errors[i].sum(), h.summary()));
+            if (operations[i] == Operation.GET && getLookups.count() > 0) {
+                System.out.println(String.format("  %-10s %9.1f ops/s  errors=%-6s %s", "GET-LOOKUP",
+                        getLookups.count() / elapsedSeconds, "-", getLookups.summary()));
+            }
+        }
+    }
+    private void startUploadServers() throws IOException {
+        if (config.getUploadServers() == 0) {
+            return;
+        }
+        rfcDirectory = Files.createTempDirectory("p2p-loadgen").toFile();
+        byte[] content = new byte[config.getFileSize()];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + i % 26);
+        }
+        for (int rfc = 0; rfc < config.getRfcSpace(); rfc++) {
+            Files.write(new File(rfcDirectory, "RFC_" + rfc + "_Load.txt").toPath(), content);
+        }
+        uploadPorts = new int[config.getUploadServers()];
+        for (int i = 0; i < uploadPorts.length; i++) {
+            UploadServer server = new UploadServer(0, rfcDirectory, "loadgen");
+            Thread t = new Thread(server, "LoadUploadServer-" + i);
+            t.setDaemon(true);
+            t.start();
+            uploadPorts[i] = server.waitForBoundPort();
+            uploadServers.add(server);
+        }
+    }
+    private void stopUploadServers() {
+        for (UploadServer server : uploadServers) {
+            server.shutdown();
+        }
+        if (rfcDirectory != null) {
+            File[] files = rfcDirectory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            rfcDirectory.delete();
+        }
+    }
+}
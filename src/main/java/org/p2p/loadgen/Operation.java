@@ -0,0 +1,8 @@
+package org.p2p.loadgen;
+public enum Operation {
+    ADD,
+    LOOKUP,
+    LIST,
+    GET,
+    EXIT
+}
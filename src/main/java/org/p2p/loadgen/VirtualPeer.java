@@ -0,0 +1,145 @@
+package org.p2p.loadgen;
+import org.p2p.common.RfcRecord;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+class VirtualPeer {
+    private final String serverHost;
+    private final int serverPort;
+    private final String host;
+    private final int uploadPort;
+    private final Set<Integer> held = new HashSet<>();
+    private Socket socket;
+    private BufferedReader in;
+    private BufferedWriter out;
+    VirtualPeer(String serverHost, int serverPort, int id, int uploadPort) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.host = "vpeer-" + id;
+        this.uploadPort = uploadPort;
+    }
+    boolean isConnected() {
+        return socket != null && !socket.isClosed();
+    }
+    Set<Integer> held() {
+        return held;
+    }
+    void connect() throws IOException {
+        close();
+        socket = new Socket(serverHost, serverPort);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+    boolean add(int rfcNumber) throws IOException {
+        out.write("ADD RFC " + rfcNumber + " P2P-CI/1.0\r\n");
+        out.write("Host: " + host + "\r\n");
+        out.write("Port: " + uploadPort + "\r\n");
+        out.write("Title: Load RFC " + rfcNumber + "\r\n");
+        out.write("\r\n");
+        out.flush();
+        String statusLine = readStatus();
+        skipBlock();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            held.add(rfcNumber);
+            return true;
+        }
+        return false;
+    }
+    List<RfcRecord> lookup(int rfcNumber) throws IOException {
+        out.write("LOOKUP RFC " + rfcNumber + " P2P-CI/1.0\r\n");
+        out.write("Host: " + host + "\r\n");
+        out.write("Port: " + uploadPort + "\r\n");
+        out.write("Title: Load RFC " + rfcNumber + "\r\n");
+        out.write("\r\n");
+        out.flush();
+        return readRecords(readStatus());
+    }
+    List<RfcRecord> listAll() throws IOException {
+        out.write("LIST ALL P2P-CI/1.0\r\n");
+        out.write("Host: " + host + "\r\n");
+        out.write("Port: " + uploadPort + "\r\n");
+        out.write("\r\n");
+        out.flush();
+        return readRecords(readStatus());
+    }
+    boolean exit() throws IOException {
+        out.write("EXIT P2P-CI/1.0\r\n");
+        out.write("Host: " + host + "\r\n");
+        out.write("Port: " + uploadPort + "\r\n");
+        out.write("\r\n");
+        out.flush();
+        String statusLine = readStatus();
+        skipBlock();
+        close();
+        held.clear();
+        return statusLine.startsWith("P2P-CI/1.0 200");
+    }
+    void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            socket = null;
+        }
+    }
+    static long get(String uploadHost, int port, int rfcNumber) throws IOException {
+        try (Socket s = new Socket(uploadHost, port)) {
+            OutputStream rawOut = s.getOutputStream();
+            rawOut.write(("GET RFC " + rfcNumber + " P2P-CI/1.0\r\nHost: loadgen\r\nOS: loadgen\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            rawOut.flush();
+            InputStream rawIn = s.getInputStream();
+            byte[] buffer = new byte[65536];
+            int read = rawIn.read(buffer);
+            if (read < 15 || !new String(buffer, 0, 15, StandardCharsets.UTF_8).equals("P2P-CI/1.0 200 ")) {
+                return -1;
+            }
+            long total = read;
+            while ((read = rawIn.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+    private String readStatus() throws IOException {
+        String statusLine = in.readLine();
+        if (statusLine == null) {
+            throw new EOFException("Server closed connection");
+        }
+        return statusLine;
+    }
+    private List<RfcRecord> readRecords(String statusLine) throws IOException {
+        if (!statusLine.startsWith("P2P-CI/1.0 200")) {
+            skipBlock();
+            if (statusLine.startsWith("P2P-CI/1.0 404")) {
+                return new ArrayList<>();
+            }
+            throw new IOException("Unexpected response: " + statusLine);
+        }
+        in.readLine();
+        List<RfcRecord> records = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            String[] parts = line.split(" ");
+            if (parts.length >= 5) {
+                try {
+                    records.add(new RfcRecord(Integer.parseInt(parts[1]), "",
+                            parts[parts.length - 2], Integer.parseInt(parts[parts.length - 1])));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return records;
+    }
+    private void skipBlock() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+        }
+    }
+}
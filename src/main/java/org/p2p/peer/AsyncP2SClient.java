@@ -0,0 +1,335 @@
+package org.p2p.peer;
+
+import org.p2p.common.RfcRecord;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class AsyncP2SClient {
+    private static final int MAX_BUSY_ATTEMPTS = 4;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private final String serverHost;
+    private final int serverPort;
+    private final String peerHost;
+    private final int uploadPort;
+    private final Object writeLock = new Object();
+    private volatile Connection connection;
+    public AsyncP2SClient(String serverHost, int serverPort, String peerHost, int uploadPort) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.peerHost = peerHost;
+        this.uploadPort = uploadPort;
+    }
+    public synchronized boolean connect() {
+        if (isConnected()) {
+            return true;
+        }
+        try {
+            SocketChannel ch = SocketChannel.open();
+            ch.socket().connect(new InetSocketAddress(serverHost, serverPort), CONNECT_TIMEOUT_MILLIS);
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Selector sel = Selector.open();
+            SelectionKey k = ch.register(sel, SelectionKey.OP_READ);
+            Connection conn = new Connection(ch, sel, k);
+            connection = conn;
+            Thread t = new Thread(() -> ioLoop(conn), "AsyncP2S-" + serverHost + ":" + serverPort);
+            t.setDaemon(true);
+            t.start();
+            System.out.println("[AsyncP2SClient] Connected to server at " + serverHost + ":" + serverPort);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[AsyncP2SClient] Failed to connect to server " + serverHost + ":" + serverPort + ": " + e.getMessage());
+            return false;
+        }
+    }
+    public CompletableFuture<Boolean> addRfc(int rfcNumber, String title, String version) {
+        String request = "ADD RFC " + rfcNumber + " " + version + "\r\n"
+                + "Host: " + peerHost + "\r\n"
+                + "Port: " + uploadPort + "\r\n"
+                + "Title: " + title + "\r\n"
+                + "\r\n";
+        return submit(request, false, call -> {
+            if (call.isOk()) {
+                return true;
+            }
+            System.err.println("[AsyncP2SClient] ADD RFC " + rfcNumber + " failed: " + call.status);
+            return false;
+        });
+    }
+    public CompletableFuture<List<RfcRecord>> lookupRfc(int rfcNumber, String version) {
+        String request = "LOOKUP RFC " + rfcNumber + " " + version + "\r\n"
+                + "Host: " + peerHost + "\r\n"
+                + "Port: " + uploadPort + "\r\n"
+                + "Title: RFC " + rfcNumber + "\r\n"
+                + "\r\n";
+        return submit(request, true, call -> call.records("LOOKUP"));
+    }
+    public CompletableFuture<List<RfcRecord>> listAll(String version) {
+        String request = "LIST ALL " + version + "\r\n"
+                + "Host: " + peerHost + "\r\n"
+                + "Port: " + uploadPort + "\r\n"
+                + "\r\n";
+        return submit(request, true, call -> call.records("LIST"));
+    }
+    public CompletableFuture<Boolean> exit() {
+        String request = "EXIT P2P-CI/1.0\r\n"
+                + "Host: " + peerHost + "\r\n"
+                + "Port: " + uploadPort + "\r\n"
+                + "\r\n";
+        return submit(request, false, call -> {
+            if (!call.isOk()) {
+                System.err.println("[AsyncP2SClient] EXIT failed: " + call.status);
+                return false;
+            }
+            close();
+            return true;
+        });
+    }
+    public boolean isConnected() {
+        Connection conn = connection;
+        return conn != null && !conn.closed;
+    }
+    public int pendingCount() {
+        Connection conn = connection;
+        return conn == null ? 0 : conn.inFlight.size();
+    }
+    public void close() {
+        Connection conn = connection;
+        if (conn != null) {
+            fail(conn, new IOException("Connection to " + serverHost + ":" + serverPort + " closed"));
+        }
+    }
+    private <T> CompletableFuture<T> submit(String request, boolean hasBody, Function<Call<T>, T> parser) {
+        Call<T> call = new Call<>(StandardCharsets.UTF_8.encode(request), hasBody, parser, new CompletableFuture<>(), 1);
+        send(call);
+        return call.future;
+    }
+    private void send(Call<?> call) {
+        Connection conn = connection;
+        synchronized (writeLock) {
+            if (conn == null || conn.closed) {
+                call.future.completeExceptionally(new IOException("Not connected to server " + serverHost + ":" + serverPort));
+                return;
+            }
+            conn.writes.add(call.request.duplicate());
+            conn.inFlight.add(call);
+        }
+        conn.selector.wakeup();
+    }
+    private void ioLoop(Connection conn) {
+        SelectionKey key = conn.key;
+        try {
+            while (!conn.closed) {
+                boolean pendingWrites;
+                synchronized (writeLock) {
+                    pendingWrites = !conn.writes.isEmpty();
+                }
+                key.interestOps(pendingWrites ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                conn.selector.select();
+                if (!conn.selector.selectedKeys().remove(key) || !key.isValid()) {
+                    continue;
+                }
+                if (key.isWritable()) {
+                    flushWrites(conn);
+                }
+                if (key.isReadable()) {
+                    readResponses(conn);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (conn.closed) {
+                return;
+            }
+            System.err.println("[AsyncP2SClient] Connection to " + serverHost + ":" + serverPort + " failed: " + e.getMessage());
+            fail(conn, e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+    private void flushWrites(Connection conn) throws IOException {
+        synchronized (writeLock) {
+            ByteBuffer head;
+            while ((head = conn.writes.peek()) != null) {
+                conn.channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                conn.writes.poll();
+            }
+        }
+    }
+    private void readResponses(Connection conn) throws IOException {
+        ByteBuffer readBuffer = conn.readBuffer;
+        int n = conn.channel.read(readBuffer);
+        if (n == -1) {
+            throw new EOFException("Server closed the connection");
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && !conn.closed) {
+            byte b = readBuffer.get();
+            if (b != '\n') {
+                if (conn.lineLength == conn.lineBytes.length) {
+                    conn.lineBytes = Arrays.copyOf(conn.lineBytes, conn.lineLength * 2);
+                }
+                conn.lineBytes[conn.lineLength++] = b;
+                continue;
+            }
+            int length = conn.lineLength > 0 && conn.lineBytes[conn.lineLength - 1] == '\r' ? conn.lineLength - 1 : conn.lineLength;
+            String line = new String(conn.lineBytes, 0, length, StandardCharsets.UTF_8);
+            conn.lineLength = 0;
+            onLine(conn, line);
+        }
+        readBuffer.clear();
+    }
+    private void onLine(Connection conn, String line) {
+        Call<?> call = conn.inFlight.peek();
+        if (call == null || (call.status == null && line.startsWith("NOTIFY "))) {
+            return;
+        }
+        if (call.accept(line)) {
+            conn.inFlight.poll();
+            call.finish();
+        }
+    }
+    private void fail(Connection conn, IOException cause) {
+        List<Call<?>> failed = new ArrayList<>();
+        synchronized (writeLock) {
+            if (conn.closed) {
+                return;
+            }
+            conn.closed = true;
+            conn.writes.clear();
+            Call<?> call;
+            while ((call = conn.inFlight.poll()) != null) {
+                failed.add(call);
+            }
+        }
+        try {
+            conn.channel.close();
+            conn.selector.wakeup();
+            conn.selector.close();
+        } catch (IOException e) {
+        }
+        for (Call<?> call : failed) {
+            call.future.completeExceptionally(cause);
+        }
+    }
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+        private final Queue<Call<?>> inFlight = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private byte[] lineBytes = new byte[256];
+        private int lineLength;
+        private volatile boolean closed;
+        Connection(SocketChannel channel, Selector selector, SelectionKey key) {
+            this.channel = channel;
+            this.selector = selector;
+            this.key = key;
+        }
+    }
+    private final class Call<T> {
+        private final ByteBuffer request;
+        private final boolean hasBody;
+        private final Function<Call<T>, T> parser;
+        private final CompletableFuture<T> future;
+        private final int attempt;
+        private String status;
+        private final List<String> headers = new ArrayList<>();
+        private final List<String> body = new ArrayList<>();
+        private boolean inBody;
+        Call(ByteBuffer request, boolean hasBody, Function<Call<T>, T> parser, CompletableFuture<T> future, int attempt) {
+            this.request = request;
+            this.hasBody = hasBody;
+            this.parser = parser;
+            this.future = future;
+            this.attempt = attempt;
+        }
+        boolean accept(String line) {
+            if (status == null) {
+                status = line;
+                return false;
+            }
+            if (!line.isEmpty()) {
+                (inBody ? body : headers).add(line);
+                return false;
+            }
+            if (!inBody && hasBody && isOk()) {
+                inBody = true;
+                return false;
+            }
+            return true;
+        }
+        boolean isOk() {
+            return status.startsWith("P2P-CI/1.0 200");
+        }
+        void finish() {
+            if (status.startsWith("P2P-CI/1.0 503")) {
+                int retryAfterSeconds = retryAfterSeconds();
+                if (retryAfterSeconds >= 0 && attempt < MAX_BUSY_ATTEMPTS) {
+                    long delayMillis = retryAfterSeconds * 1000L + ThreadLocalRandom.current().nextLong(250);
+                    Call<T> retry = new Call<>(request, hasBody, parser, future, attempt + 1);
+                    CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> send(retry));
+                    return;
+                }
+                future.completeExceptionally(new IOException("Server " + serverHost + ":" + serverPort + " unavailable: " + status));
+                return;
+            }
+            try {
+                future.complete(parser.apply(this));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+        List<RfcRecord> records(String method) {
+            List<RfcRecord> records = new ArrayList<>();
+            if (!isOk()) {
+                if (!status.startsWith("P2P-CI/1.0 404")) {
+                    System.err.println("[AsyncP2SClient] " + method + " failed: " + status);
+                }
+                return records;
+            }
+            for (String line : body) {
+                try {
+                    RfcRecord record = P2SClient.parseRecord(line);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("[AsyncP2SClient] Error parsing " + method + " response line: " + line);
+                }
+            }
+            return records;
+        }
+        private int retryAfterSeconds() {
+            for (String header : headers) {
+                if (header.startsWith("Retry-After:")) {
+                    try {
+                        return Integer.parseInt(header.substring(12).trim());
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+}
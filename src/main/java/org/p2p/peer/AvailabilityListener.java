@@ -0,0 +1,9 @@
+package org.p2p.peer;
+
+import org.p2p.common.RfcRecord;
+
+public interface AvailabilityListener {
+    void holderAdded(RfcRecord record);
+    void holderRemoved(RfcRecord record);
+    void resync();
+}
@@ -0,0 +1,128 @@
+package org.p2p.peer;
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+public class BlobStore {
+    public static final String DIR_NAME = ".blobs";
+    private final File root;
+    private final LongAdder savedBytes = new LongAdder();
+    private volatile boolean linksSupported = true;
+    public BlobStore(File rfcDirectory) {
+        this.root = new File(rfcDirectory, DIR_NAME);
+    }
+    public File blobFor(String digest) {
+        return new File(new File(root, digest.substring(0, 2)), digest);
+    }
+    public boolean intern(File alias, String digest) {
+        if (!linksSupported) {
+            return false;
+        }
+        File blob = blobFor(digest);
+        try {
+            if (blob.isFile() && !Files.isSameFile(blob.toPath(), alias.toPath())
+                    && (blob.length() != alias.length() || Files.mismatch(blob.toPath(), alias.toPath()) != -1)) {
+                System.err.println("[BlobStore] Blob " + digest.substring(0, 12) + " no longer matches its digest, replacing it");
+                Files.delete(blob.toPath());
+            }
+            if (!blob.isFile()) {
+                blob.getParentFile().mkdirs();
+                Files.createLink(blob.toPath(), alias.toPath());
+                blob.setReadOnly();
+                return false;
+            }
+            if (Files.isSameFile(blob.toPath(), alias.toPath())) {
+                blob.setReadOnly();
+                return false;
+            }
+            long size = alias.length();
+            relink(alias, blob);
+            savedBytes.add(size);
+            System.out.println("[BlobStore] " + alias.getName() + " now shares blob " + digest.substring(0, 12));
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            linksSupported = false;
+            System.err.println("[BlobStore] Hard links unavailable in " + root + ", storing files as-is: " + e.getMessage());
+            return false;
+        } catch (IOException e) {
+            System.err.println("[BlobStore] Failed to intern " + alias.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+    public boolean write(File alias, byte[] body) throws IOException {
+        String digest = HexFormat.of().formatHex(digest(body));
+        File blob = blobFor(digest);
+        if (linksSupported && blob.isFile() && blob.length() == body.length
+                && HexFormat.of().formatHex(digest(blob)).equals(digest)) {
+            try {
+                relink(alias, blob);
+                savedBytes.add(body.length);
+                System.out.println("[BlobStore] " + alias.getName() + " already stored as blob " + digest.substring(0, 12));
+                return true;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                linksSupported = false;
+            }
+        }
+        File tmp = new File(alias.getParentFile(), alias.getName() + ".part");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(body);
+        }
+        Files.move(tmp.toPath(), alias.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        intern(alias, digest);
+        return false;
+    }
+    public int collectGarbage(Set<String> liveDigests) {
+        File[] buckets = root.listFiles(File::isDirectory);
+        if (buckets == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File bucket : buckets) {
+            File[] blobs = bucket.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            for (File blob : blobs) {
+                if (!liveDigests.contains(blob.getName()) && blob.delete()) {
+                    removed++;
+                }
+            }
+            bucket.delete();
+        }
+        return removed;
+    }
+    public long savedBytes() {
+        return savedBytes.sum();
+    }
+    private static void relink(File alias, File blob) throws IOException {
+        Path tmp = alias.toPath().resolveSibling(alias.getName() + ".link");
+        Files.deleteIfExists(tmp);
+        Files.createLink(tmp, blob.toPath());
+        Files.move(tmp, alias.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    static byte[] digest(byte[] body) {
+        MessageDigest sha = sha256();
+        return sha.digest(body);
+    }
+    static byte[] digest(File file) throws IOException {
+        MessageDigest sha = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                sha.update(buffer, 0, n);
+            }
+        }
+        return sha.digest();
+    }
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.p2p.peer;
+import org.p2p.common.RfcRecord;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+public class CatalogMirror {
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    public synchronized long versionOf(String source) {
+        Source s = sources.get(source);
+        return s == null ? -1 : s.version;
+    }
+    synchronized void replace(String source, long version, List<RfcRecord> records) {
+        Source s = new Source(version);
+        for (RfcRecord r : records) {
+            s.records.put(key(r), r);
+        }
+        sources.put(source, s);
+    }
+    synchronized void apply(String source, long version, List<RfcRecord> added, List<RfcRecord> removed) {
+        Source s = sources.computeIfAbsent(source, k -> new Source(version));
+        for (RfcRecord r : removed) {
+            s.records.remove(key(r));
+        }
+        for (RfcRecord r : added) {
+            s.records.put(key(r), r);
+        }
+        s.version = version;
+    }
+    public synchronized List<RfcRecord> records() {
+        Map<String, RfcRecord> merged = new LinkedHashMap<>();
+        for (Source s : sources.values()) {
+            for (Map.Entry<String, RfcRecord> e : s.records.entrySet()) {
+                merged.putIfAbsent(e.getKey(), e.getValue());
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+    public synchronized int size() {
+        int size = 0;
+        for (Source s : sources.values()) {
+            size += s.records.size();
+        }
+        return size;
+    }
+    private static String key(RfcRecord r) {
+        return r.getRfcNumber() + " " + r.getHost() + " " + r.getUploadPort();
+    }
+    private static class Source {
+        private long version;
+        private final Map<String, RfcRecord> records = new LinkedHashMap<>();
+        Source(long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.p2p.peer;
+import org.p2p.common.RfcRecord;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+public class LookupCache {
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Map<Integer, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    public LookupCache(int ttlSeconds, int negativeTtlSeconds, int maxEntries) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+    public synchronized List<RfcRecord> get(int rfcNumber) {
+        Entry entry = entries.get(rfcNumber);
+        if (entry == null || System.nanoTime() - entry.expiresAt >= 0) {
+            if (entry != null) {
+                entries.remove(rfcNumber);
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        List<RfcRecord> holders = new ArrayList<>(entry.holders);
+        Collections.rotate(entry.holders, -1);
+        return holders;
+    }
+    public synchronized void put(int rfcNumber, List<RfcRecord> holders) {
+        long ttl = holders.isEmpty() ? negativeTtlNanos : ttlNanos;
+        if (ttl <= 0) {
+            entries.remove(rfcNumber);
+            return;
+        }
+        entries.put(rfcNumber, new Entry(new ArrayList<>(holders), System.nanoTime() + ttl));
+    }
+    public synchronized void invalidate(int rfcNumber) {
+        entries.remove(rfcNumber);
+    }
+    public synchronized void invalidateHolder(int rfcNumber, String host, int uploadPort) {
+        Entry entry = entries.get(rfcNumber);
+        if (entry == null) {
+            return;
+        }
+        entry.holders.removeIf(r -> r.getHost().equals(host) && r.getUploadPort() == uploadPort);
+        if (entry.holders.isEmpty()) {
+            entries.remove(rfcNumber);
+        }
+    }
+    public synchronized void clear() {
+        entries.clear();
+    }
+    public synchronized int size() {
+        return entries.size();
+    }
+    public long hitCount() {
+        return hits.sum();
+    }
+    public long missCount() {
+        return misses.sum();
+    }
+    private static class Entry {
+        private final List<RfcRecord> holders;
+        private final long expiresAt;
+        Entry(List<RfcRecord> holders, long expiresAt) {
+            this.holders = holders;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.p2p.peer;
+import org.p2p.common.ConnectionDeadline;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.TimerWheel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+class NioUploadEngine {
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final int SEND_CHUNK = 64 * 1024;
+    private static final int CHUNKS_PER_WAKEUP = 4;
+    private static final int LOOKUP_THREADS = 2;
+    private final File rfcDirectory;
+    private final String osName;
+    private final MetricsRegistry metrics;
+    private final TimerWheel timerWheel;
+    private final int headerTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final UploadScheduler scheduler;
+    private final RfcCatalog catalog;
+    private final EventLoop[] loops;
+    private final ExecutorService lookups;
+    private int nextLoop;
+    private volatile boolean running = true;
+    NioUploadEngine(File rfcDirectory, String osName, MetricsRegistry metrics, TimerWheel timerWheel,
+                    int headerTimeoutMillis, int requestTimeoutMillis, UploadScheduler scheduler, RfcCatalog catalog,
+                    int selectorThreads) throws IOException {
+        this.rfcDirectory = rfcDirectory;
+        this.osName = osName;
+        this.metrics = metrics;
+        this.timerWheel = timerWheel;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.scheduler = scheduler;
+        this.catalog = catalog;
+        this.loops = new EventLoop[Math.max(1, selectorThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.lookups = Executors.newFixedThreadPool(LOOKUP_THREADS, r -> {
+            Thread t = new Thread(r, "UploadLookup-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    void start() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "UploadSelector-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+    void accept(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        EventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        Connection connection = new Connection(channel, loop);
+        loop.execute(connection::register);
+    }
+    void shutdown() {
+        running = false;
+        lookups.shutdownNow();
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Wakeup> parked = new PriorityQueue<>(Comparator.comparingLong(w -> w.at));
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+        void park(Connection connection, long delayNanos, boolean pace) {
+            parked.add(new Wakeup(System.nanoTime() + delayNanos, connection, pace));
+        }
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Wakeup first = parked.peek();
+                    if (first == null) {
+                        selector.select();
+                    } else {
+                        long waitMillis = (first.at - System.nanoTime() + 999_999) / 1_000_000;
+                        if (waitMillis > 0) {
+                            selector.select(waitMillis);
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    long now = System.nanoTime();
+                    while ((first = parked.peek()) != null && first.at - now <= 0) {
+                        Wakeup due = parked.poll();
+                        due.connection.wake(due.pace);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ((Connection) key.attachment()).ready(key);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[NioUpload] Selector error: " + e.getMessage());
+            } finally {
+                List<Connection> open = new ArrayList<>();
+                for (SelectionKey key : selector.keys()) {
+                    open.add((Connection) key.attachment());
+                }
+                for (Connection connection : open) {
+                    connection.finish();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignore) {}
+            }
+        }
+    }
+    private static final class Wakeup {
+        private final long at;
+        private final Connection connection;
+        private final boolean pace;
+        Wakeup(long at, Connection connection, boolean pace) {
+            this.at = at;
+            this.connection = connection;
+            this.pace = pace;
+        }
+    }
+    private final class Connection implements Closeable {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final String remoteAddress;
+        private final ConnectionDeadline deadline;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        private final UploadEvent event = new UploadEvent();
+        private final long start = System.nanoTime();
+        private SelectionKey key;
+        private int scanned;
+        private int lineStart;
+        private ByteBuffer out;
+        private FileChannel file;
+        private long position;
+        private long remaining;
+        private long credit;
+        private String rfcNumber;
+        private String requestHost;
+        private UploadScheduler.Ticket ticket;
+        private boolean holdsSlot;
+        private boolean queued;
+        private boolean paced;
+        private long sendStart;
+        private boolean closed;
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+            this.deadline = new ConnectionDeadline(timerWheel, this, "upload connection from " + remoteAddress,
+                    reason -> metrics.counter("peer.upload.timeouts." + reason).increment());
+        }
+        void register() {
+            event.begin();
+            metrics.counter("peer.upload.connections.active").increment();
+            deadline.arm(ConnectionDeadline.earliest(headerTimeoutMillis, requestTimeoutMillis), "header");
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                finish();
+            }
+        }
+        @Override
+        public void close() {
+            loop.execute(this::finish);
+        }
+        void ready(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    readRequest();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeResponse();
+                }
+            } catch (IOException e) {
+                System.err.println("[NioUpload] I/O error: " + e.getMessage());
+                finish();
+            }
+        }
+        void wake(boolean pace) {
+            if (closed) {
+                return;
+            }
+            if (!pace) {
+                if (queued && scheduler.cancel(requestHost, ticket)) {
+                    queued = false;
+                    metrics.counter("peer.upload.rejected").increment();
+                    sendBusy();
+                }
+                return;
+            }
+            if (paced) {
+                paced = false;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+        private void readRequest() throws IOException {
+            int n = channel.read(in);
+            int end = headerEnd();
+            if (end < 0 && n != -1) {
+                if (!in.hasRemaining()) {
+                    sendSimpleResponse(400, "Bad Request");
+                }
+                return;
+            }
+            key.interestOps(0);
+            if (end < 0 && lineStart == 0) {
+                if (in.position() == 0) {
+                    finish();
+                    return;
+                }
+                end = in.position();
+            }
+            handleRequest(new String(in.array(), 0, end < 0 ? in.position() : end, StandardCharsets.UTF_8));
+        }
+        private int headerEnd() {
+            byte[] bytes = in.array();
+            for (; scanned < in.position(); scanned++) {
+                if (bytes[scanned] != '\n') {
+                    continue;
+                }
+                int length = scanned - lineStart;
+                if (length > 0 && bytes[scanned - 1] == '\r') {
+                    length--;
+                }
+                lineStart = scanned + 1;
+                if (length == 0) {
+                    return scanned + 1;
+                }
+            }
+            return -1;
+        }
+        private void handleRequest(String head) throws IOException {
+            String[] lines = head.split("\r?\n");
+            String requestLine = lines.length > 0 ? lines[0] : "";
+            if (requestLine.isEmpty()) {
+                sendSimpleResponse(400, "Bad Request");
+                return;
+            }
+            String[] parts = requestLine.trim().split("\\s+");
+            if (parts.length == 2 && "STATS".equals(parts[0]) && "P2P-CI/1.0".equals(parts[1])) {
+                respond("P2P-CI/1.0 200 OK\r\nOS: " + osName + "\r\n\r\n" + metrics.render());
+                return;
+            }
+            if (parts.length != 4 || !"GET".equals(parts[0]) || !"RFC".equals(parts[1])) {
+                sendSimpleResponse(400, "Bad Request");
+                return;
+            }
+            rfcNumber = parts[2];
+            event.rfcNumber = rfcNumber;
+            if (!"P2P-CI/1.0".equals(parts[3])) {
+                sendSimpleResponse(505, "P2P-CI Version Not Supported");
+                return;
+            }
+            requestHost = channel.socket().getInetAddress().getHostAddress();
+            if (requestTimeoutMillis > 0) {
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                deadline.arm(Math.max(1, requestTimeoutMillis - elapsedMillis), "request");
+            } else {
+                deadline.disarm();
+            }
+            String number = rfcNumber;
+            try {
+                lookups.execute(() -> locate(number));
+            } catch (RejectedExecutionException e) {
+                finish();
+            }
+        }
+        private void locate(String number) {
+            long readStart = System.nanoTime();
+            File rfcFile = UploadFiles.locate(catalog, rfcDirectory, number);
+            FileChannel opened = null;
+            long size = 0;
+            long lastModified = 0;
+            if (rfcFile != null) {
+                try {
+                    opened = FileChannel.open(rfcFile.toPath(), StandardOpenOption.READ);
+                    size = opened.size();
+                    lastModified = rfcFile.lastModified();
+                } catch (IOException e) {
+                    if (opened != null) {
+                        try {
+                            opened.close();
+                        } catch (IOException ignore) {}
+                        opened = null;
+                    }
+                }
+            }
+            long readNanos = System.nanoTime() - readStart;
+            FileChannel found = opened;
+            long foundSize = size;
+            long foundModified = lastModified;
+            loop.execute(() -> located(found, foundSize, foundModified, readNanos));
+        }
+        private void located(FileChannel found, long size, long lastModified, long readNanos) {
+            if (closed) {
+                if (found != null) {
+                    try {
+                        found.close();
+                    } catch (IOException ignore) {}
+                }
+                return;
+            }
+            event.readNanos = readNanos;
+            if (found == null) {
+                sendSimpleResponse(404, "Not Found");
+                return;
+            }
+            file = found;
+            remaining = size;
+            String headers = "P2P-CI/1.0 200 OK\r\n"
+                    + "Date: " + UploadFiles.httpDate(new Date()) + "\r\n"
+                    + "OS: " + osName + "\r\n"
+                    + "Last-Modified: " + UploadFiles.httpDate(new Date(lastModified)) + "\r\n"
+                    + "Content-Length: " + remaining + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "\r\n";
+            out = StandardCharsets.UTF_8.encode(headers);
+            if (scheduler == null) {
+                startSending();
+                return;
+            }
+            ticket = scheduler.offer(requestHost, () -> loop.execute(this::granted));
+            if (ticket == null) {
+                metrics.counter("peer.upload.rejected").increment();
+                sendBusy();
+            } else if (ticket.isGranted()) {
+                holdsSlot = true;
+                startSending();
+            } else {
+                queued = true;
+                loop.park(this, TimeUnit.MILLISECONDS.toNanos(scheduler.getMaxWaitMillis()), false);
+            }
+        }
+        private void granted() {
+            if (closed) {
+                scheduler.release();
+                return;
+            }
+            queued = false;
+            holdsSlot = true;
+            startSending();
+        }
+        private void startSending() {
+            sendStart = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        private void writeResponse() throws IOException {
+            if (out.hasRemaining()) {
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    return;
+                }
+            }
+            if (file == null) {
+                finish();
+                return;
+            }
+            for (int chunks = 0; remaining > 0 && chunks < CHUNKS_PER_WAKEUP; ) {
+                if (credit == 0) {
+                    int chunk = (int) Math.min(remaining, SEND_CHUNK);
+                    long waitNanos = scheduler != null ? scheduler.tryPace(chunk) : 0;
+                    if (waitNanos > 0) {
+                        key.interestOps(0);
+                        paced = true;
+                        loop.park(this, waitNanos, true);
+                        return;
+                    }
+                    credit = chunk;
+                    chunks++;
+                }
+                long written = file.transferTo(position, credit, channel);
+                if (written == 0) {
+                    return;
+                }
+                position += written;
+                remaining -= written;
+                credit -= written;
+            }
+            if (remaining > 0) {
+                return;
+            }
+            event.sendNanos = System.nanoTime() - sendStart;
+            event.bytes = position;
+            metrics.counter("peer.upload.served").increment();
+            metrics.counter("peer.upload.bytes").add(position);
+            metrics.histogram("peer.upload.latency").record(System.nanoTime() - start);
+            System.out.println("[NioUpload] Successfully served RFC " + rfcNumber);
+            finish();
+        }
+        private void sendBusy() {
+            metrics.counter("peer.upload.responses.503").increment();
+            closeFile();
+            respond("P2P-CI/1.0 503 Service Unavailable\r\n"
+                    + "OS: " + osName + "\r\n"
+                    + "Retry-After: " + scheduler.retryAfterSeconds() + "\r\n"
+                    + "\r\n");
+        }
+        private void sendSimpleResponse(int code, String phrase) {
+            metrics.counter("peer.upload.responses." + code).increment();
+            respond("P2P-CI/1.0 " + code + " " + phrase + "\r\nOS: " + osName + "\r\n\r\n");
+        }
+        private void respond(String response) {
+            out = StandardCharsets.UTF_8.encode(response);
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        void finish() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            deadline.disarm();
+            if (queued) {
+                scheduler.cancel(requestHost, ticket);
+            }
+            if (holdsSlot) {
+                holdsSlot = false;
+                scheduler.release();
+            }
+            closeFile();
+            try {
+                channel.close();
+            } catch (IOException ignore) {}
+            metrics.counter("peer.upload.connections.active").decrement();
+            if (event.shouldCommit()) {
+                event.remoteAddress = remoteAddress;
+                event.commit();
+            }
+        }
+        private void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignore) {}
+                file = null;
+            }
+        }
+    }
+}
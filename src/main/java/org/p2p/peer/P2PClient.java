@@ -5,6 +5,10 @@ import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 public class P2PClient {
+    private volatile BlobStore blobStore;
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
     public boolean downloadRfc(PeerInfo peer, int rfcNumber, File targetDir, String osName) {
         return downloadRfc(peer, rfcNumber, targetDir, osName, null);
     }
@@ -12,6 +16,9 @@ public class P2PClient {
         return downloadRfc(peer, rfcNumber, targetDir, osName, title, peer.getHost());
     }
     public boolean downloadRfc(PeerInfo peer, int rfcNumber, File targetDir, String osName, String title, String requestHost) {
+        return fetchRfc(peer, rfcNumber, targetDir, osName, title, requestHost) != null;
+    }
+    public File fetchRfc(PeerInfo peer, int rfcNumber, File targetDir, String osName, String title, String requestHost) {
         try (Socket socket = new Socket(peer.getHost(), peer.getUploadPort())) {
             BufferedWriter out = new BufferedWriter(
                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
@@ -24,7 +31,7 @@ public class P2PClient {
             String statusLine = readLine(inputStream);
             if (statusLine == null) {
                 System.err.println("[P2PClient] No response from peer");
-                return false;
+                return null;
             }
             System.out.println(statusLine);
             int contentLength = -1;
@@ -41,16 +48,18 @@ public class P2PClient {
                     System.err.println("Error: Not Found - RFC " + rfcNumber + " not found on peer");
                 } else if (statusLine.startsWith(StatusCode.BAD_REQUEST_400)) {
                     System.err.println("Error: Bad Request - Invalid request format");
+                } else if (statusLine.startsWith(StatusCode.SERVICE_UNAVAILABLE_503)) {
+                    System.err.println("Error: Busy - all upload slots on " + peer.getHost() + ":" + peer.getUploadPort() + " are taken");
                 } else if (statusLine.startsWith(StatusCode.VERSION_NOT_SUPPORTED_505)) {
                     System.err.println("Error: Version Not Supported - Peer does not support the protocol version");
                 } else {
                     System.err.println("Error: Unexpected status: " + statusLine);
                 }
-                return false;
+                return null;
             }
             if (contentLength < 0) {
                 System.err.println("[P2PClient] Missing Content-Length header");
-                return false;
+                return null;
             }
             byte[] body = readBytes(inputStream, contentLength);
             if (!targetDir.exists()) {
@@ -67,15 +76,20 @@ public class P2PClient {
                 filename = generateFilenameFromContent(body, rfcNumber);
             }
             File outFile = new File(targetDir, filename);
-            try (FileOutputStream fos = new FileOutputStream(outFile)) {
-                fos.write(body);
+            BlobStore blobs = blobStore;
+            if (blobs != null) {
+                blobs.write(outFile, body);
+            } else {
+                try (FileOutputStream fos = new FileOutputStream(outFile)) {
+                    fos.write(body);
+                }
             }
             System.out.println("[P2PClient] Saved RFC " + rfcNumber +
                     " to " + outFile.getAbsolutePath());
-            return true;
+            return outFile;
         } catch (IOException e) {
             System.err.println("[P2PClient] I/O error: " + e.getMessage());
-            return false;
+            return null;
         }
     }
     private static String readLine(InputStream in) throws IOException {
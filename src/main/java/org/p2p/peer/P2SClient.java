@@ -1,233 +1,1217 @@
 package org.p2p.peer;
 
+import org.p2p.common.ClusterTopology;
 import org.p2p.common.PeerInfo;
+import org.p2p.common.RfcRanges;
 import org.p2p.common.RfcRecord;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
 
 public class P2SClient {
+    private static final int MAX_BUSY_ATTEMPTS = 4;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long RECONNECT_POLL_MILLIS = 250;
+    private static final int PIPELINE_WINDOW = 256;
+    private static final Object END_OF_STREAM = new Object();
     private final String serverHost;
     private final int serverPort;
     private final String peerHost;
     private final int uploadPort;
     private final String osName;
-    private Socket socket;
-    private BufferedReader in;
-    private BufferedWriter out;
+    private final ClusterTopology cluster;
+    private final ServerConnection[] connections;
+    private final ServerConnection[] readConnections;
+    private int nextReadReplica = 0;
+    private final Map<Integer, String> registered = new LinkedHashMap<>();
+    private volatile long heartbeatMillis;
+    private volatile IntSupplier loadReporter;
+    private volatile LookupCache lookupCache;
     private volatile boolean connected = false;
+    private RfcRanges watched = RfcRanges.NONE;
+    private Thread reconnector;
     public P2SClient(String serverHost, int serverPort, String peerHost, int uploadPort, String osName) {
+        this(serverHost, serverPort, peerHost, uploadPort, osName, null);
+    }
+    public P2SClient(String serverHost, int serverPort, String peerHost, int uploadPort, String osName, ClusterTopology cluster) {
+        this(serverHost, serverPort, peerHost, uploadPort, osName, cluster, null);
+    }
+    public P2SClient(String serverHost, int serverPort, String peerHost, int uploadPort, String osName, ClusterTopology cluster,
+                     ClusterTopology readReplicas) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
         this.peerHost = peerHost;
         this.uploadPort = uploadPort;
         this.osName = osName;
-    }
-    public boolean connect() {
-        try {
-            socket = new Socket(serverHost, serverPort);
-            in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            out = new BufferedWriter(
-                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
-            connected = true;
-            System.out.println("[P2SClient] Connected to server at " + serverHost + ":" + serverPort);
-            return true;
-        } catch (IOException e) {
-            System.err.println("[P2SClient] Failed to connect to server: " + e.getMessage());
-            return false;
+        this.cluster = cluster;
+        if (cluster == null) {
+            this.connections = new ServerConnection[] { new ServerConnection(serverHost, serverPort) };
+        } else {
+            this.connections = new ServerConnection[cluster.size()];
+            for (int node = 0; node < cluster.size(); node++) {
+                connections[node] = new ServerConnection(cluster.hostOf(node), cluster.portOf(node));
+            }
+        }
+        int replicaCount = readReplicas == null ? 0 : readReplicas.size();
+        this.readConnections = new ServerConnection[replicaCount];
+        for (int i = 0; i < replicaCount; i++) {
+            readConnections[i] = new ServerConnection(readReplicas.hostOf(i), readReplicas.portOf(i));
         }
     }
-    public boolean addRfc(int rfcNumber, String title, String version) {
-        if (!connected || socket == null || socket.isClosed()) {
-            System.err.println("[P2SClient] Not connected to server");
-            return false;
+    public synchronized boolean connect() {
+        int opened = 0;
+        for (ServerConnection c : connections) {
+            if (c.open()) {
+                opened++;
+            }
         }
-        try {
-            out.write("ADD RFC " + rfcNumber + " " + version + "\r\n");
-            out.write("Host: " + peerHost + "\r\n");
-            out.write("Port: " + uploadPort + "\r\n");
-            out.write("Title: " + title + "\r\n");
-            out.write("\r\n");
-            out.flush();
-            String statusLine = in.readLine();
-            if (statusLine == null) {
-                System.err.println("[P2SClient] No response from server for ADD");
-                return false;
+        connected = opened > 0;
+        if (cluster != null) {
+            System.out.println("[P2SClient] Connected to " + opened + " of " + connections.length + " cluster nodes");
+        }
+        if (connected && reconnector == null) {
+            reconnector = new Thread(this::reconnectLoop, "P2SReconnect");
+            reconnector.setDaemon(true);
+            reconnector.start();
+        }
+        return connected;
+    }
+    private void reconnectLoop() {
+        while (true) {
+            try {
+                Thread.sleep(RECONNECT_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
             }
-            System.out.println("[P2SClient] ADD response: " + statusLine);
-            String echoLine = in.readLine();
-            if (echoLine != null && !echoLine.isEmpty()) {
-                System.out.println("[P2SClient] " + echoLine);
+            if (connected) {
+                reconnectDropped();
             }
-            String blankLine = in.readLine();
-            if (statusLine.startsWith("P2P-CI/1.0 200")) {
-                return true;
+        }
+    }
+    synchronized void reconnectDropped() {
+        if (!connected) {
+            return;
+        }
+        for (ServerConnection c : connections) {
+            if (!c.isOpen() && c.retryDue()) {
+                ensureOpen(c, true);
+            }
+        }
+    }
+    public synchronized int registerAll(Map<Integer, String> rfcs) {
+        registered.putAll(rfcs);
+        if (!connected) {
+            System.err.println("[P2SClient] Not connected to server");
+            return 0;
+        }
+        int confirmed = 0;
+        for (ServerConnection c : connections) {
+            if (c.isOpen()) {
+                confirmed += syncRegistrations(c);
             } else {
-                System.err.println("[P2SClient] ADD failed: " + statusLine);
-                return false;
+                ensureOpen(c, true);
             }
+        }
+        return confirmed;
+    }
+    public synchronized boolean addRfc(int rfcNumber, String title, String version) {
+        ServerConnection c = route(rfcNumber);
+        if (c == null) {
+            System.err.println("[P2SClient] Not connected to server");
+            return false;
+        }
+        try {
+            return withBusyRetry(c, conn -> addOn(conn, rfcNumber, title, version));
+        } catch (ServerBusyException e) {
+            System.err.println("[P2SClient] ADD rejected, server " + c + " busy");
+            return false;
         } catch (IOException e) {
             System.err.println("[P2SClient] Error sending ADD: " + e.getMessage());
-            connected = false;
+            lost(c);
             return false;
         }
     }
-    public List<RfcRecord> lookupRfc(int rfcNumber, String version) {
-        if (!connected || socket == null || socket.isClosed()) {
+    private Boolean addOn(ServerConnection c, int rfcNumber, String title, String version) throws IOException {
+        c.out.write("ADD RFC " + rfcNumber + " " + version + "\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Title: " + title + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            System.err.println("[P2SClient] No response from server for ADD");
+            return false;
+        }
+        System.out.println("[P2SClient] ADD response: " + statusLine);
+        if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            System.err.println("[P2SClient] ADD failed: " + statusLine);
+            return false;
+        }
+        String echoLine = c.readLine();
+        if (echoLine != null && !echoLine.isEmpty()) {
+            System.out.println("[P2SClient] " + echoLine);
+        }
+        String blankLine = c.readLine();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            registered.put(rfcNumber, title);
+            LookupCache cache = lookupCache;
+            if (cache != null) {
+                cache.invalidate(rfcNumber);
+            }
+            return true;
+        } else {
+            System.err.println("[P2SClient] ADD failed: " + statusLine);
+            return false;
+        }
+    }
+    public void setLookupCache(LookupCache lookupCache) {
+        this.lookupCache = lookupCache;
+    }
+    public List<RfcRecord> lookupHolders(int rfcNumber, String version) {
+        LookupCache cache = lookupCache;
+        if (cache != null) {
+            List<RfcRecord> cached = cache.get(rfcNumber);
+            if (cached != null) {
+                System.out.println("[P2SClient] LOOKUP RFC " + rfcNumber + " answered from cache (" + cached.size() + " holder(s))");
+                return cached;
+            }
+        }
+        return lookupRfc(rfcNumber, version);
+    }
+    public void holderFailed(int rfcNumber, String host, int uploadPort) {
+        LookupCache cache = lookupCache;
+        if (cache != null) {
+            cache.invalidateHolder(rfcNumber, host, uploadPort);
+        }
+    }
+    public synchronized List<RfcRecord> lookupRfc(int rfcNumber, String version) {
+        if (!connected) {
             System.err.println("[P2SClient] Not connected to server");
             return new ArrayList<>();
         }
-        try {
-            out.write("LOOKUP RFC " + rfcNumber + " " + version + "\r\n");
-            out.write("Host: " + peerHost + "\r\n");
-            out.write("Port: " + uploadPort + "\r\n");
-            out.write("Title: RFC " + rfcNumber + "\r\n");
-            out.write("\r\n");
-            out.flush();
-            String statusLine = in.readLine();
-            if (statusLine == null) {
-                System.err.println("[P2SClient] No response from server for LOOKUP");
-                return new ArrayList<>();
+        List<RfcRecord> fromReplica = readFromReplica(c -> lookupOn(c, rfcNumber, version));
+        if (fromReplica != null) {
+            return fromReplica;
+        }
+        int[] candidates = cluster == null ? new int[] { 0 } : cluster.replicasOf(rfcNumber);
+        for (int node : candidates) {
+            ServerConnection c = connections[node];
+            if (!ensureOpen(c, true)) {
+                continue;
             }
-            System.out.println("[P2SClient] LOOKUP response: " + statusLine);
-            List<RfcRecord> records = new ArrayList<>();
-            if (statusLine.startsWith("P2P-CI/1.0 200")) {
-                in.readLine();
-                String line;
-                while ((line = in.readLine()) != null && !line.isEmpty()) {
-                    String[] parts = line.trim().split("\\s+");
-                    if (parts.length >= 5 && parts[0].equals("RFC")) {
-                        try {
-                            int rfcNum = Integer.parseInt(parts[1]);
-                            int port = Integer.parseInt(parts[parts.length - 1]);
-                            String host = parts[parts.length - 2];
-                            StringBuilder titleBuilder = new StringBuilder();
-                            for (int i = 2; i < parts.length - 2; i++) {
-                                if (i > 2) titleBuilder.append(" ");
-                                titleBuilder.append(parts[i]);
-                            }
-                            String title = titleBuilder.toString();
-                            records.add(new RfcRecord(rfcNum, title, host, port));
-                        } catch (NumberFormatException e) {
-                            System.err.println("[P2SClient] Error parsing LOOKUP response line: " + line);
-                        }
+            try {
+                List<RfcRecord> records = withBusyRetry(c, conn -> lookupOn(conn, rfcNumber, version));
+                if (records != null) {
+                    return records;
+                }
+            } catch (ServerBusyException e) {
+                System.err.println("[P2SClient] LOOKUP rejected, server " + c + " busy");
+            } catch (IOException e) {
+                System.err.println("[P2SClient] Error sending LOOKUP to " + c + ": " + e.getMessage());
+                lost(c);
+            }
+        }
+        if (cluster == null) {
+            System.err.println("[P2SClient] Not connected to server");
+        } else {
+            System.err.println("[P2SClient] No reachable cluster node holds RFC " + rfcNumber);
+        }
+        return new ArrayList<>();
+    }
+    private List<RfcRecord> lookupOn(ServerConnection c, int rfcNumber, String version) throws IOException {
+        c.out.write("LOOKUP RFC " + rfcNumber + " " + version + "\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Title: RFC " + rfcNumber + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for LOOKUP");
+        }
+        System.out.println("[P2SClient] LOOKUP response: " + statusLine);
+        List<RfcRecord> records = new ArrayList<>();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            c.readLine();
+            readRecords(c, records, "LOOKUP");
+            cacheLookup(rfcNumber, records);
+        } else if (statusLine.startsWith("P2P-CI/1.0 404")) {
+            c.readLine();
+            System.out.println("[P2SClient] RFC " + rfcNumber + " not found");
+            cacheLookup(rfcNumber, records);
+        } else if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        } else {
+            c.readLine();
+            System.err.println("[P2SClient] LOOKUP failed: " + statusLine);
+        }
+        return records;
+    }
+    public synchronized Map<Integer, List<RfcRecord>> lookupBatch(RfcRanges rfcNumbers, String version) {
+        Map<Integer, List<RfcRecord>> byRfc = new LinkedHashMap<>();
+        if (!connected) {
+            System.err.println("[P2SClient] Not connected to server");
+            return byRfc;
+        }
+        List<RfcRecord> records = readFromReplica(c -> lookupBatchOn(c, rfcNumbers, version));
+        if (records == null) {
+            Map<String, RfcRecord> merged = new LinkedHashMap<>();
+            for (ServerConnection c : connections) {
+                if (!ensureOpen(c, true)) {
+                    continue;
+                }
+                try {
+                    List<RfcRecord> found = withBusyRetry(c, conn -> lookupBatchOn(conn, rfcNumbers, version));
+                    if (found == null) {
+                        System.err.println("[P2SClient] LOOKUP unavailable on " + c);
+                        continue;
                     }
+                    for (RfcRecord r : found) {
+                        merged.putIfAbsent(r.getRfcNumber() + " " + r.getHost() + " " + r.getUploadPort(), r);
+                    }
+                } catch (ServerBusyException e) {
+                    System.err.println("[P2SClient] LOOKUP rejected, server " + c + " busy");
+                } catch (IOException e) {
+                    System.err.println("[P2SClient] Error sending LOOKUP to " + c + ": " + e.getMessage());
+                    lost(c);
                 }
-            } else if (statusLine.startsWith("P2P-CI/1.0 404")) {
-                in.readLine();
-                System.out.println("[P2SClient] RFC " + rfcNumber + " not found");
-            } else {
-                in.readLine();
+            }
+            records = new ArrayList<>(merged.values());
+            records.sort(Comparator.comparingInt(RfcRecord::getRfcNumber));
+        }
+        for (RfcRecord r : records) {
+            byRfc.computeIfAbsent(r.getRfcNumber(), k -> new ArrayList<>()).add(r);
+        }
+        for (Map.Entry<Integer, List<RfcRecord>> e : byRfc.entrySet()) {
+            cacheLookup(e.getKey(), e.getValue());
+        }
+        return byRfc;
+    }
+    private List<RfcRecord> lookupBatchOn(ServerConnection c, RfcRanges rfcNumbers, String version) throws IOException {
+        c.out.write("LOOKUP RFC " + rfcNumbers + " " + version + "\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Title: RFC " + rfcNumbers + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for LOOKUP");
+        }
+        System.out.println("[P2SClient] LOOKUP RFC " + rfcNumbers + " response: " + statusLine);
+        List<RfcRecord> records = new ArrayList<>();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            c.readLine();
+            readRecords(c, records, "LOOKUP");
+        } else if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        } else {
+            c.readLine();
+            if (!statusLine.startsWith("P2P-CI/1.0 404")) {
                 System.err.println("[P2SClient] LOOKUP failed: " + statusLine);
             }
-            return records;
-        } catch (IOException e) {
-            System.err.println("[P2SClient] Error sending LOOKUP: " + e.getMessage());
-            connected = false;
-            return new ArrayList<>();
         }
+        return records;
     }
-    public List<RfcRecord> listAll(String version) {
-        if (!connected || socket == null || socket.isClosed()) {
+    public synchronized Map<Integer, List<RfcRecord>> hot(int limit) {
+        Map<Integer, List<RfcRecord>> byRfc = new LinkedHashMap<>();
+        if (!connected) {
+            return byRfc;
+        }
+        List<RfcRecord> records = readFromReplica(c -> hotOn(c, limit));
+        if (records == null) {
+            records = new ArrayList<>();
+            for (ServerConnection c : connections) {
+                if (!ensureOpen(c, true)) {
+                    continue;
+                }
+                try {
+                    List<RfcRecord> found = withBusyRetry(c, conn -> hotOn(conn, limit));
+                    if (found != null) {
+                        records.addAll(found);
+                    }
+                } catch (ServerBusyException e) {
+                    System.err.println("[P2SClient] HOT rejected, server " + c + " busy");
+                } catch (IOException e) {
+                    System.err.println("[P2SClient] Error sending HOT to " + c + ": " + e.getMessage());
+                    lost(c);
+                }
+            }
+        }
+        for (RfcRecord r : records) {
+            byRfc.computeIfAbsent(r.getRfcNumber(), k -> new ArrayList<>()).add(r);
+        }
+        return byRfc;
+    }
+    private List<RfcRecord> hotOn(ServerConnection c, int limit) throws IOException {
+        c.out.write("HOT P2P-CI/1.0\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Limit: " + limit + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for HOT");
+        }
+        List<RfcRecord> records = new ArrayList<>();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            c.readLine();
+            readRecords(c, records, "HOT");
+        } else if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        } else {
+            c.readLine();
+            if (!statusLine.startsWith("P2P-CI/1.0 404")) {
+                System.err.println("[P2SClient] HOT failed: " + statusLine);
+            }
+        }
+        return records;
+    }
+    public synchronized List<RfcRecord> listAll(String version) {
+        if (!connected) {
             System.err.println("[P2SClient] Not connected to server");
             return new ArrayList<>();
         }
-        try {
-            out.write("LIST ALL " + version + "\r\n");
-            out.write("Host: " + peerHost + "\r\n");
-            out.write("Port: " + uploadPort + "\r\n");
-            out.write("\r\n");
-            out.flush();
-            String statusLine = in.readLine();
-            if (statusLine == null) {
-                System.err.println("[P2SClient] No response from server for LIST");
-                return new ArrayList<>();
+        List<RfcRecord> fromReplica = readFromReplica(c -> listOn(c, version));
+        if (fromReplica != null) {
+            return fromReplica;
+        }
+        Map<String, RfcRecord> merged = new LinkedHashMap<>();
+        for (ServerConnection c : connections) {
+            if (!ensureOpen(c, true)) {
+                continue;
+            }
+            try {
+                List<RfcRecord> records = withBusyRetry(c, conn -> listOn(conn, version));
+                if (records == null) {
+                    System.err.println("[P2SClient] LIST unavailable on " + c);
+                    continue;
+                }
+                for (RfcRecord r : records) {
+                    merged.putIfAbsent(r.getRfcNumber() + " " + r.getHost() + " " + r.getUploadPort(), r);
+                }
+            } catch (ServerBusyException e) {
+                System.err.println("[P2SClient] LIST rejected, server " + c + " busy");
+            } catch (IOException e) {
+                System.err.println("[P2SClient] Error sending LIST: " + e.getMessage());
+                lost(c);
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+    private List<RfcRecord> listOn(ServerConnection c, String version) throws IOException {
+        c.out.write("LIST ALL " + version + "\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for LIST");
+        }
+        System.out.println("[P2SClient] LIST response: " + statusLine);
+        List<RfcRecord> records = new ArrayList<>();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            c.readLine();
+            readRecords(c, records, "LIST");
+        } else if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        } else {
+            c.readLine();
+            System.err.println("[P2SClient] LIST failed: " + statusLine);
+        }
+        return records;
+    }
+    public synchronized List<RfcRecord> syncCatalog(CatalogMirror mirror) {
+        if (!connected) {
+            System.err.println("[P2SClient] Not connected to server");
+            return mirror.records();
+        }
+        for (ServerConnection c : connections) {
+            if (!ensureOpen(c, true)) {
+                continue;
+            }
+            try {
+                if (!withBusyRetry(c, conn -> listSinceOn(conn, mirror))) {
+                    System.err.println("[P2SClient] LIST SINCE unavailable on " + c);
+                }
+            } catch (ServerBusyException e) {
+                System.err.println("[P2SClient] LIST SINCE rejected, server " + c + " busy");
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("[P2SClient] Error sending LIST SINCE: " + e.getMessage());
+                lost(c);
+            }
+        }
+        return mirror.records();
+    }
+    private Boolean listSinceOn(ServerConnection c, CatalogMirror mirror) throws IOException {
+        String source = c.toString();
+        long since = mirror.versionOf(source);
+        c.out.write("LIST SINCE " + Math.max(0, since) + " P2P-CI/1.0\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for LIST SINCE");
+        }
+        if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return false;
+        }
+        long version = -1;
+        boolean full = true;
+        String line;
+        while ((line = c.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("Version:")) {
+                version = Long.parseLong(line.substring(8).trim());
+            } else if (line.startsWith("Sync:")) {
+                full = !line.substring(5).trim().equals("delta");
+            }
+        }
+        if (!statusLine.startsWith("P2P-CI/1.0 200")) {
+            System.err.println("[P2SClient] LIST SINCE failed on " + c + ": " + statusLine + ", falling back to LIST ALL");
+            List<RfcRecord> all = listOn(c, "P2P-CI/1.0");
+            if (all == null) {
+                return false;
+            }
+            mirror.replace(source, -1, all);
+            return true;
+        }
+        List<RfcRecord> added = new ArrayList<>();
+        List<RfcRecord> removed = new ArrayList<>();
+        while ((line = c.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("DEL ")) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 5) {
+                    removed.add(new RfcRecord(Integer.parseInt(parts[2]), "", parts[3], Integer.parseInt(parts[4])));
+                }
+            } else {
+                RfcRecord record = parseRecord(line.startsWith("ADD ") ? line.substring(4) : line);
+                if (record != null) {
+                    added.add(record);
+                }
+            }
+        }
+        if (full) {
+            mirror.replace(source, version, added);
+            System.out.println("[P2SClient] Catalog from " + c + ": full snapshot of " + added.size() + " entries at version " + version);
+        } else {
+            mirror.apply(source, version, added, removed);
+            System.out.println("[P2SClient] Catalog from " + c + ": " + added.size() + " added, " + removed.size()
+                    + " removed since version " + since);
+        }
+        return true;
+    }
+    public synchronized Map<Integer, String> search(String query, int limit) {
+        if (!connected) {
+            System.err.println("[P2SClient] Not connected to server");
+            return new LinkedHashMap<>();
+        }
+        Map<Integer, String> fromReplica = readFromReplica(c -> searchOn(c, query, limit));
+        if (fromReplica != null) {
+            return fromReplica;
+        }
+        Map<Integer, String> merged = new LinkedHashMap<>();
+        for (ServerConnection c : connections) {
+            if (!ensureOpen(c, true)) {
+                continue;
+            }
+            try {
+                Map<Integer, String> hits = withBusyRetry(c, conn -> searchOn(conn, query, limit));
+                if (hits == null) {
+                    System.err.println("[P2SClient] SEARCH unavailable on " + c);
+                    continue;
+                }
+                for (Map.Entry<Integer, String> hit : hits.entrySet()) {
+                    merged.putIfAbsent(hit.getKey(), hit.getValue());
+                }
+            } catch (ServerBusyException e) {
+                System.err.println("[P2SClient] SEARCH rejected, server " + c + " busy");
+            } catch (IOException e) {
+                System.err.println("[P2SClient] Error sending SEARCH: " + e.getMessage());
+                lost(c);
+            }
+        }
+        return merged;
+    }
+    private Map<Integer, String> searchOn(ServerConnection c, String query, int limit) throws IOException {
+        c.out.write("SEARCH P2P-CI/1.0\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Query: " + query + "\r\n");
+        c.out.write("Limit: " + limit + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for SEARCH");
+        }
+        System.out.println("[P2SClient] SEARCH response: " + statusLine);
+        Map<Integer, String> hits = new LinkedHashMap<>();
+        if (statusLine.startsWith("P2P-CI/1.0 200")) {
+            c.readLine();
+            String line;
+            while ((line = c.readLine()) != null && !line.isEmpty()) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length == 3 && parts[0].equals("RFC")) {
+                    try {
+                        hits.put(Integer.parseInt(parts[1]), parts[2]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("[P2SClient] Error parsing SEARCH response line: " + line);
+                    }
+                }
+            }
+        } else if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        } else {
+            c.readLine();
+            if (!statusLine.startsWith("P2P-CI/1.0 404")) {
+                System.err.println("[P2SClient] SEARCH failed: " + statusLine);
+            }
+        }
+        return hits;
+    }
+    private <T> T readFromReplica(ServerCall<T> read) {
+        for (int attempt = 0; attempt < readConnections.length; attempt++) {
+            ServerConnection c = readConnections[nextReadReplica];
+            nextReadReplica = (nextReadReplica + 1) % readConnections.length;
+            if (!c.ensureOpen(true)) {
+                continue;
+            }
+            try {
+                T result = read.on(c);
+                if (result != null) {
+                    return result;
+                }
+                System.out.println("[P2SClient] Read replica " + c + " is stale, trying next");
+            } catch (ServerBusyException e) {
+                System.out.println("[P2SClient] Read replica " + c + " is busy, trying next");
+            } catch (IOException e) {
+                System.err.println("[P2SClient] Read replica " + c + " failed: " + e.getMessage());
+                c.close();
+            }
+        }
+        return null;
+    }
+    public synchronized boolean exit(){
+        if (!connected) {
+            System.err.println("[P2SClient] Not connected to server");
+            return false;
+        }
+        boolean allOk = true;
+        boolean anySent = false;
+        for (ServerConnection c : connections) {
+            if (!c.isOpen()) {
+                continue;
             }
-            System.out.println("[P2SClient] LIST response: " + statusLine);
-            List<RfcRecord> records = new ArrayList<>();
-            if (statusLine.startsWith("P2P-CI/1.0 200")) {
-                in.readLine();
+            anySent = true;
+            try {
+                c.out.write("EXIT P2P-CI/1.0\r\n");
+                c.out.write("Host: " + peerHost + "\r\n");
+                c.out.write("Port: " + uploadPort + "\r\n");
+                c.out.write("\r\n");
+                c.out.flush();
+                String statusLine = c.readLine();
+                if (statusLine == null) {
+                    System.err.println("[P2SClient] No response from server for EXIT");
+                    allOk = false;
+                    continue;
+                }
+                System.out.println("[P2SClient] EXIT response: " + statusLine);
+                c.readLine();
+                if (statusLine.startsWith("P2P-CI/1.0 200")) {
+                    c.close();
+                } else {
+                    System.err.println("[P2SClient] EXIT failed: " + statusLine);
+                    allOk = false;
+                }
+            } catch (IOException e) {
+                System.err.println("[P2SClient] Error sending EXIT: " + e.getMessage());
+                c.close();
+                allOk = false;
+            }
+        }
+        if (!anySent) {
+            System.err.println("[P2SClient] Not connected to server");
+            connected = false;
+            return false;
+        }
+        if (allOk) {
+            connected = false;
+            registered.clear();
+        }
+        return allOk;
+    }
+    public void setLoadReporter(IntSupplier loadReporter) {
+        this.loadReporter = loadReporter;
+    }
+    public void startHeartbeats(int intervalSeconds) {
+        heartbeatMillis = intervalSeconds * 1000L;
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(heartbeatMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (connected) {
+                    heartbeat();
+                }
+            }
+        }, "P2SHeartbeat");
+        t.setDaemon(true);
+        t.start();
+    }
+    synchronized void heartbeat() {
+        for (ServerConnection c : connections) {
+            if (!c.isOpen()) {
+                continue;
+            }
+            try {
+                c.out.write("HEARTBEAT P2P-CI/1.0\r\n");
+                c.out.write("Host: " + peerHost + "\r\n");
+                c.out.write("Port: " + uploadPort + "\r\n");
+                if (loadReporter != null) {
+                    c.out.write("Active-Uploads: " + loadReporter.getAsInt() + "\r\n");
+                }
+                c.out.write("\r\n");
+                c.out.flush();
+                String statusLine = c.readLine();
+                if (statusLine == null) {
+                    throw new EOFException("No response from server for HEARTBEAT");
+                }
                 String line;
-                while ((line = in.readLine()) != null && !line.isEmpty()) {
-                    String[] parts = line.trim().split("\\s+");
-                    if (parts.length >= 5 && parts[0].equals("RFC")) {
-                        try {
-                            int rfcNum = Integer.parseInt(parts[1]);
-                            int port = Integer.parseInt(parts[parts.length - 1]);
-                            String host = parts[parts.length - 2];
-                            StringBuilder titleBuilder = new StringBuilder();
-                            for (int i = 2; i < parts.length - 2; i++) {
-                                if (i > 2) titleBuilder.append(" ");
-                                titleBuilder.append(parts[i]);
-                            }
-                            String title = titleBuilder.toString();
-                            records.add(new RfcRecord(rfcNum, title, host, port));
-                        } catch (NumberFormatException e) {
-                            System.err.println("[P2SClient] Error parsing LIST response line: " + line);
+                boolean closing = false;
+                while ((line = c.readLine()) != null && !line.isEmpty()) {
+                    if (line.startsWith("Lease:")) {
+                        long leaseMillis = Long.parseLong(line.substring(6).trim()) * 1000L;
+                        if (leaseMillis > 0 && leaseMillis / 3 < heartbeatMillis) {
+                            heartbeatMillis = Math.max(1000L, leaseMillis / 3);
                         }
+                    } else if (line.equalsIgnoreCase("Connection: close")) {
+                        closing = true;
                     }
                 }
-            } else {
-                in.readLine();
-                System.err.println("[P2SClient] LIST failed: " + statusLine);
+                if (closing) {
+                    c.closeForRetry();
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("[P2SClient] Heartbeat to " + c + " failed: " + e.getMessage());
+                lost(c);
+            }
+        }
+    }
+    private int syncRegistrations(ServerConnection c) {
+        Map<Integer, String> owned = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> entry : registered.entrySet()) {
+            if (cluster == null || connections[cluster.ownerOf(entry.getKey())] == c) {
+                owned.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (owned.isEmpty()) {
+            return 0;
+        }
+        try {
+            Integer confirmed = withBusyRetry(c, conn -> registerOn(conn, owned));
+            if (confirmed == null) {
+                System.err.println("[P2SClient] REGISTER unavailable on " + c);
+                return 0;
             }
-            return records;
+            return confirmed;
+        } catch (ServerBusyException e) {
+            System.err.println("[P2SClient] REGISTER rejected, server " + c + " busy");
         } catch (IOException e) {
-            System.err.println("[P2SClient] Error sending LIST: " + e.getMessage());
-            connected = false;
-            return new ArrayList<>();
+            System.err.println("[P2SClient] Error re-registering with " + c + ": " + e.getMessage());
+            lost(c);
         }
+        return 0;
     }
-    public boolean exit(){
-        if (!connected || socket == null || socket.isClosed()) {
-            System.err.println("[P2SClient] Not connected to server");
-            return false;
+    private Integer registerOn(ServerConnection c, Map<Integer, String> owned) throws IOException {
+        int[] numbers = new int[owned.size()];
+        int count = 0;
+        for (int rfcNumber : owned.keySet()) {
+            numbers[count++] = rfcNumber;
+        }
+        Arrays.sort(numbers);
+        c.out.write("REGISTER P2P-CI/1.0\r\n");
+        c.out.write("Host: " + peerHost + "\r\n");
+        c.out.write("Port: " + uploadPort + "\r\n");
+        c.out.write("Have: " + RfcRanges.of(numbers, count) + "\r\n");
+        c.out.write("\r\n");
+        c.out.flush();
+        String statusLine = c.readLine();
+        if (statusLine == null) {
+            throw new EOFException("No response from server for REGISTER");
+        }
+        if (statusLine.startsWith("P2P-CI/1.0 503")) {
+            readUnavailable(c);
+            return null;
+        }
+        int held = 0;
+        RfcRanges missing = RfcRanges.ALL;
+        String line;
+        while ((line = c.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("Held:")) {
+                held = Integer.parseInt(line.substring(5).trim());
+            } else if (line.startsWith("Missing:")) {
+                String spec = line.substring(8).trim();
+                missing = spec.equals("NONE") ? RfcRanges.NONE : RfcRanges.parse(spec);
+            }
+        }
+        if (!statusLine.startsWith("P2P-CI/1.0 200")) {
+            System.err.println("[P2SClient] REGISTER failed on " + c + ": " + statusLine + ", re-adding every RFC");
+            held = 0;
         }
+        List<Map.Entry<Integer, String>> toAdd = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : owned.entrySet()) {
+            if (missing.contains(entry.getKey())) {
+                toAdd.add(entry);
+            }
+        }
+        System.out.println("[P2SClient] REGISTER on " + c + ": " + held + " already held, " + toAdd.size() + " to add");
+        return held + addPipelined(c, toAdd);
+    }
+    private int addPipelined(ServerConnection c, List<Map.Entry<Integer, String>> toAdd) throws IOException {
+        int added = 0;
+        List<Map.Entry<Integer, String>> rejected = new ArrayList<>();
+        List<Integer> invalid = new ArrayList<>();
+        for (int from = 0; from < toAdd.size(); from += PIPELINE_WINDOW) {
+            List<Map.Entry<Integer, String>> window = toAdd.subList(from, Math.min(toAdd.size(), from + PIPELINE_WINDOW));
+            for (Map.Entry<Integer, String> entry : window) {
+                c.out.write("ADD RFC " + entry.getKey() + " P2P-CI/1.0\r\n");
+                c.out.write("Host: " + peerHost + "\r\n");
+                c.out.write("Port: " + uploadPort + "\r\n");
+                c.out.write("Title: " + entry.getValue() + "\r\n");
+                c.out.write("\r\n");
+            }
+            c.out.flush();
+            for (Map.Entry<Integer, String> entry : window) {
+                String statusLine = c.readLine();
+                if (statusLine == null) {
+                    throw new EOFException("No response from server for ADD");
+                }
+                String line;
+                while ((line = c.readLine()) != null && !line.isEmpty()) {
+                }
+                if (statusLine.startsWith("P2P-CI/1.0 200")) {
+                    added++;
+                } else if (statusLine.startsWith("P2P-CI/1.0 400")) {
+                    invalid.add(entry.getKey());
+                } else {
+                    rejected.add(entry);
+                }
+            }
+        }
+        if (!invalid.isEmpty()) {
+            System.err.println("[P2SClient] " + c + " answered 400 Bad Request for " + invalid.size() + " ADD(s), not registered: RFC "
+                    + invalid);
+        }
+        if (!rejected.isEmpty()) {
+            System.out.println("[P2SClient] " + rejected.size() + " pipelined ADD(s) rejected by " + c + ", retrying one by one");
+            for (Map.Entry<Integer, String> entry : rejected) {
+                if (addRfc(entry.getKey(), entry.getValue(), "P2P-CI/1.0")) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+    public synchronized RfcRanges subscribe(RfcRanges ranges, AvailabilityListener listener) {
+        AvailabilityListener relay = new CacheInvalidatingListener(listener);
+        watched = watched.union(ranges);
+        for (ServerConnection c : connections) {
+            c.listener = relay;
+            c.subscription = watched;
+            if (ensureOpen(c, true)) {
+                sendSubscription(c, "SUBSCRIBE", ranges);
+            }
+        }
+        return watched;
+    }
+    public synchronized RfcRanges unsubscribe(RfcRanges ranges) {
+        watched = watched.minus(ranges);
+        for (ServerConnection c : connections) {
+            c.subscription = watched;
+            if (c.isOpen() && c.reader != null) {
+                sendSubscription(c, "UNSUBSCRIBE", ranges);
+            }
+        }
+        return watched;
+    }
+    private boolean sendSubscription(ServerConnection c, String method, RfcRanges ranges) {
         try {
-            out.write("EXIT P2P-CI/1.0\r\n");
-            out.write("Host: " + peerHost + "\r\n");
-            out.write("Port: " + uploadPort + "\r\n");
-            out.write("\r\n");
-            out.flush();
-            String statusLine = in.readLine();
+            c.startReader();
+            c.out.write(method + " P2P-CI/1.0\r\n");
+            c.out.write("Host: " + peerHost + "\r\n");
+            c.out.write("Port: " + uploadPort + "\r\n");
+            c.out.write("RFC: " + ranges + "\r\n");
+            c.out.write("\r\n");
+            c.out.flush();
+            String statusLine = c.readLine();
             if (statusLine == null) {
-                System.err.println("[P2SClient] No response from server for EXIT");
-                return false;
+                throw new EOFException("No response from server for " + method);
             }
-            System.out.println("[P2SClient] EXIT response: " + statusLine);
-            in.readLine();
-            if (statusLine.startsWith("P2P-CI/1.0 200")) {
-                connected = false;
-                socket.close();
-                return true;
-            } else {
-                System.err.println("[P2SClient] EXIT failed: " + statusLine);
+            String line;
+            while ((line = c.readLine()) != null && !line.isEmpty()) {
+                if (line.startsWith("RFC:")) {
+                    System.out.println("[P2SClient] Watching on " + c + ": " + line.substring(4).trim());
+                }
+            }
+            if (!statusLine.startsWith("P2P-CI/1.0 200")) {
+                System.err.println("[P2SClient] " + method + " on " + c + " failed: " + statusLine);
                 return false;
             }
+            return true;
         } catch (IOException e) {
-            System.err.println("[P2SClient] Error sending EXIT: " + e.getMessage());
-            connected = false;
+            System.err.println("[P2SClient] Error sending " + method + " to " + c + ": " + e.getMessage());
+            lost(c);
             return false;
         }
     }
-    public boolean isConnected() {
-        return connected && socket != null && !socket.isClosed();
+    private void resubscribe(ServerConnection c) {
+        if (c.subscription.isEmpty() || c.listener == null) {
+            return;
+        }
+        if (sendSubscription(c, "SUBSCRIBE", c.subscription)) {
+            c.listener.resync();
+        }
     }
-    public void disconnect() {
-        if (connected && socket != null && !socket.isClosed()) {
+    public synchronized boolean isConnected() {
+        if (!connected) {
+            return false;
+        }
+        for (ServerConnection c : connections) {
+            if (c.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    public synchronized void disconnect() {
+        if (isConnected()) {
             exit();
         }
         connected = false;
+        for (ServerConnection c : connections) {
+            c.close();
+        }
+        for (ServerConnection c : readConnections) {
+            c.close();
+        }
+        System.out.println("[P2SClient] Disconnected from server");
+    }
+    private ServerConnection route(int rfcNumber) {
+        if (!connected) {
+            return null;
+        }
+        ServerConnection c = cluster == null ? connections[0] : connections[cluster.ownerOf(rfcNumber)];
+        return ensureOpen(c, true) ? c : null;
+    }
+    private boolean ensureOpen(ServerConnection c, boolean reconnect) {
+        if (c.isOpen()) {
+            return true;
+        }
+        if (c.restoring || !c.ensureOpen(reconnect)) {
+            return c.isOpen();
+        }
+        c.restoring = true;
         try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            syncRegistrations(c);
+            resubscribe(c);
+        } finally {
+            c.restoring = false;
+        }
+        return c.isOpen();
+    }
+    private void cacheLookup(int rfcNumber, List<RfcRecord> records) {
+        LookupCache cache = lookupCache;
+        if (cache != null) {
+            cache.put(rfcNumber, records);
+        }
+    }
+    private synchronized <T> T withBusyRetry(ServerConnection c, ServerCall<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.on(c);
+            } catch (ServerBusyException e) {
+                if (attempt >= MAX_BUSY_ATTEMPTS) {
+                    throw e;
+                }
+                long delayMillis = e.retryAfterSeconds * 1000L + ThreadLocalRandom.current().nextLong(250);
+                System.out.println("[P2SClient] Server " + c + " busy, retrying in " + delayMillis + " ms");
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                try {
+                    for (long left = delayMillis; left > 0; left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) {
+                        wait(left);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (!ensureOpen(c, false)) {
+                    throw new IOException("Could not reconnect to " + c);
+                }
             }
-        } catch (IOException e) {
         }
-        System.out.println("[P2SClient] Disconnected from server");
+    }
+    private static void readUnavailable(ServerConnection c) throws IOException {
+        int retryAfterSeconds = -1;
+        boolean closing = false;
+        String line;
+        while ((line = c.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("Retry-After:")) {
+                try {
+                    retryAfterSeconds = Integer.parseInt(line.substring(12).trim());
+                } catch (NumberFormatException e) {
+                }
+            } else if (line.equalsIgnoreCase("Connection: close")) {
+                closing = true;
+            }
+        }
+        if (closing) {
+            c.closeForRetry();
+        }
+        if (retryAfterSeconds >= 0) {
+            throw new ServerBusyException(c, retryAfterSeconds);
+        }
+    }
+    private void lost(ServerConnection c) {
+        c.close();
+    }
+    private static long backoffMillis(int failures) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+    private static void readRecords(ServerConnection c, List<RfcRecord> records, String method) throws IOException {
+        String line;
+        while ((line = c.readLine()) != null && !line.isEmpty()) {
+            try {
+                RfcRecord record = parseRecord(line);
+                if (record != null) {
+                    records.add(record);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("[P2SClient] Error parsing " + method + " response line: " + line);
+            }
+        }
+    }
+    static RfcRecord parseRecord(String line) {
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length < 5 || !parts[0].equals("RFC")) {
+            return null;
+        }
+        int rfcNum = Integer.parseInt(parts[1]);
+        int port = Integer.parseInt(parts[parts.length - 1]);
+        String host = parts[parts.length - 2];
+        StringBuilder titleBuilder = new StringBuilder();
+        for (int i = 2; i < parts.length - 2; i++) {
+            if (i > 2) titleBuilder.append(" ");
+            titleBuilder.append(parts[i]);
+        }
+        return new RfcRecord(rfcNum, titleBuilder.toString(), host, port);
+    }
+    private interface ServerCall<T> {
+        T on(ServerConnection c) throws IOException;
+    }
+    private static class ServerBusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int retryAfterSeconds;
+        ServerBusyException(ServerConnection c, int retryAfterSeconds) {
+            super("Server " + c + " busy, retry after " + retryAfterSeconds + "s");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+    private class CacheInvalidatingListener implements AvailabilityListener {
+        private final AvailabilityListener delegate;
+        CacheInvalidatingListener(AvailabilityListener delegate) {
+            this.delegate = delegate;
+        }
+        @Override
+        public void holderAdded(RfcRecord record) {
+            LookupCache cache = lookupCache;
+            if (cache != null) {
+                cache.invalidate(record.getRfcNumber());
+            }
+            delegate.holderAdded(record);
+        }
+        @Override
+        public void holderRemoved(RfcRecord record) {
+            LookupCache cache = lookupCache;
+            if (cache != null) {
+                cache.invalidateHolder(record.getRfcNumber(), record.getHost(), record.getUploadPort());
+            }
+            delegate.holderRemoved(record);
+        }
+        @Override
+        public void resync() {
+            LookupCache cache = lookupCache;
+            if (cache != null) {
+                cache.clear();
+            }
+            delegate.resync();
+        }
+    }
+    private static class ServerConnection {
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private BufferedReader in;
+        private BufferedWriter out;
+        private boolean reopen;
+        private boolean restoring;
+        private int failures;
+        private long retryAt;
+        private volatile AvailabilityListener listener;
+        private RfcRanges subscription = RfcRanges.NONE;
+        private volatile BlockingQueue<Object> responses;
+        private Thread reader;
+        ServerConnection(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+        boolean open() {
+            reopen = false;
+            responses = null;
+            reader = null;
+            try {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket = s;
+                failures = 0;
+                in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                System.out.println("[P2SClient] Connected to server at " + host + ":" + port);
+                startReader();
+                return true;
+            } catch (IOException e) {
+                long delayMillis = backoffMillis(++failures);
+                retryAt = System.currentTimeMillis() + delayMillis;
+                System.err.println("[P2SClient] Failed to connect to server " + host + ":" + port + ": " + e.getMessage()
+                        + ", next attempt in " + delayMillis + " ms");
+                socket = null;
+                return false;
+            }
+        }
+        boolean isOpen() {
+            return socket != null && !socket.isClosed();
+        }
+        boolean ensureOpen(boolean reconnect) {
+            return isOpen() || ((reconnect || reopen) && retryDue() && open());
+        }
+        boolean retryDue() {
+            return System.currentTimeMillis() >= retryAt;
+        }
+        void startReader() {
+            if (reader != null) {
+                return;
+            }
+            BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+            BufferedReader source = in;
+            Thread t = new Thread(() -> pump(source, queue), "P2SReader-" + this);
+            t.setDaemon(true);
+            responses = queue;
+            reader = t;
+            t.start();
+        }
+        String readLine() throws IOException {
+            BlockingQueue<Object> queue = responses;
+            if (queue == null) {
+                return in.readLine();
+            }
+            try {
+                Object line = queue.take();
+                if (line == END_OF_STREAM) {
+                    queue.add(END_OF_STREAM);
+                    return null;
+                }
+                return (String) line;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + this);
+            }
+        }
+        private void pump(BufferedReader source, BlockingQueue<Object> queue) {
+            try {
+                String line;
+                while ((line = source.readLine()) != null) {
+                    if (line.startsWith("NOTIFY ")) {
+                        dispatch(line);
+                    } else {
+                        queue.add(line);
+                    }
+                }
+            } catch (IOException e) {
+            } finally {
+                queue.add(END_OF_STREAM);
+                if (responses == queue) {
+                    close();
+                }
+            }
+        }
+        private void dispatch(String line) {
+            AvailabilityListener l = listener;
+            if (l == null) {
+                return;
+            }
+            String[] parts = line.trim().split("\\s+", 7);
+            try {
+                if (parts[1].equals("RESYNC")) {
+                    l.resync();
+                } else if (parts.length >= 6 && parts[2].equals("RFC")) {
+                    int rfcNumber = Integer.parseInt(parts[3]);
+                    int port = Integer.parseInt(parts[5]);
+                    if (parts[1].equals("ADD")) {
+                        l.holderAdded(new RfcRecord(rfcNumber, parts.length > 6 ? parts[6] : "", parts[4], port));
+                    } else if (parts[1].equals("DEL")) {
+                        l.holderRemoved(new RfcRecord(rfcNumber, "", parts[4], port));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("[P2SClient] Error parsing notification: " + line);
+            }
+        }
+        void closeForRetry() {
+            close();
+            reopen = true;
+        }
+        void close() {
+            try {
+                if (socket != null && !socket.isClosed()) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
     }
 }
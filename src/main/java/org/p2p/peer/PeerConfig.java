@@ -1,4 +1,5 @@
 package org.p2p.peer;
+import org.p2p.common.ClusterTopology;
 import java.io.File;
 public class PeerConfig {
     private final String serverHost;
@@ -6,12 +7,49 @@ public class PeerConfig {
     private final int uploadPort;
     private final File rfcDirectory;
     private final String osName;
+    private final ClusterTopology cluster;
+    private final ClusterTopology readReplicas;
+    private final int statsPort;
+    private final int heartbeatSeconds;
+    private final int headerTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final int uploadSlots;
+    private final int uploadQueue;
+    private final int uploadRateKBps;
+    private final int lookupCacheSeconds;
+    private final int negativeCacheSeconds;
+    private final int lookupCacheSize;
+    private final int prefetchHotSeconds;
+    private final String uploadEngine;
+    private final int uploadSelectors;
     public PeerConfig(String serverHost, int serverPort, int uploadPort, File rfcDirectory, String osName) {
+        this(serverHost, serverPort, uploadPort, rfcDirectory, osName, null, null, 0, 30, 10_000, 120_000, 4, 16, 0, 30, 5, 1024, 0, "thread", 1);
+    }
+    public PeerConfig(String serverHost, int serverPort, int uploadPort, File rfcDirectory, String osName, ClusterTopology cluster,
+                      ClusterTopology readReplicas, int statsPort, int heartbeatSeconds,
+                      int headerTimeoutMillis, int requestTimeoutMillis, int uploadSlots, int uploadQueue,
+                      int uploadRateKBps, int lookupCacheSeconds, int negativeCacheSeconds, int lookupCacheSize,
+                      int prefetchHotSeconds, String uploadEngine, int uploadSelectors) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
         this.uploadPort = uploadPort;
         this.rfcDirectory = rfcDirectory;
         this.osName = osName;
+        this.cluster = cluster;
+        this.readReplicas = readReplicas;
+        this.statsPort = statsPort;
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.uploadSlots = uploadSlots;
+        this.uploadQueue = uploadQueue;
+        this.uploadRateKBps = uploadRateKBps;
+        this.lookupCacheSeconds = lookupCacheSeconds;
+        this.negativeCacheSeconds = negativeCacheSeconds;
+        this.lookupCacheSize = lookupCacheSize;
+        this.prefetchHotSeconds = prefetchHotSeconds;
+        this.uploadEngine = uploadEngine;
+        this.uploadSelectors = uploadSelectors;
     }
     public String getServerHost() {
         return serverHost;
@@ -28,12 +66,73 @@ public class PeerConfig {
     public String getOsName() {
         return osName;
     }
+    public ClusterTopology getCluster() {
+        return cluster;
+    }
+    public ClusterTopology getReadReplicas() {
+        return readReplicas;
+    }
+    public int getStatsPort() {
+        return statsPort;
+    }
+    public int getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+    public int getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+    public int getUploadSlots() {
+        return uploadSlots;
+    }
+    public int getUploadQueue() {
+        return uploadQueue;
+    }
+    public int getUploadRateKBps() {
+        return uploadRateKBps;
+    }
+    public int getLookupCacheSeconds() {
+        return lookupCacheSeconds;
+    }
+    public int getNegativeCacheSeconds() {
+        return negativeCacheSeconds;
+    }
+    public int getLookupCacheSize() {
+        return lookupCacheSize;
+    }
+    public int getPrefetchHotSeconds() {
+        return prefetchHotSeconds;
+    }
+    public String getUploadEngine() {
+        return uploadEngine;
+    }
+    public int getUploadSelectors() {
+        return uploadSelectors;
+    }
     public static PeerConfig fromArgs(String[] args) {
         String serverHost = "localhost";
         int serverPort = 7734;
         int uploadPort = 0;
         File rfcDir = new File("rfc");
         String osName = System.getProperty("os.name");
+        String clusterSpec = null;
+        int replicationFactor = 2;
+        String readReplicaSpec = null;
+        int statsPort = 0;
+        int heartbeatSeconds = 30;
+        int headerTimeoutMillis = 10_000;
+        int requestTimeoutMillis = 120_000;
+        int uploadSlots = 4;
+        int uploadQueue = 16;
+        int uploadRateKBps = 0;
+        int lookupCacheSeconds = 30;
+        int negativeCacheSeconds = 5;
+        int lookupCacheSize = 1024;
+        int prefetchHotSeconds = 0;
+        String uploadEngine = "thread";
+        int uploadSelectors = 1;
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "--serverHost":
@@ -51,6 +150,54 @@ public class PeerConfig {
                 case "--os":
                     if (i + 1 < args.length) osName = args[++i];
                     break;
+                case "--cluster":
+                    if (i + 1 < args.length) clusterSpec = args[++i];
+                    break;
+                case "--replicationFactor":
+                    if (i + 1 < args.length) replicationFactor = Integer.parseInt(args[++i]);
+                    break;
+                case "--readReplicas":
+                    if (i + 1 < args.length) readReplicaSpec = args[++i];
+                    break;
+                case "--statsPort":
+                    if (i + 1 < args.length) statsPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--heartbeatSeconds":
+                    if (i + 1 < args.length) heartbeatSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--headerTimeoutMillis":
+                    if (i + 1 < args.length) headerTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--requestTimeoutMillis":
+                    if (i + 1 < args.length) requestTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--uploadSlots":
+                    if (i + 1 < args.length) uploadSlots = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--uploadQueue":
+                    if (i + 1 < args.length) uploadQueue = Math.max(0, Integer.parseInt(args[++i]));
+                    break;
+                case "--uploadRateKBps":
+                    if (i + 1 < args.length) uploadRateKBps = Integer.parseInt(args[++i]);
+                    break;
+                case "--lookupCacheSeconds":
+                    if (i + 1 < args.length) lookupCacheSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--negativeCacheSeconds":
+                    if (i + 1 < args.length) negativeCacheSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--lookupCacheSize":
+                    if (i + 1 < args.length) lookupCacheSize = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--prefetchHot":
+                    if (i + 1 < args.length) prefetchHotSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--uploadEngine":
+                    if (i + 1 < args.length) uploadEngine = args[++i];
+                    break;
+                case "--uploadSelectors":
+                    if (i + 1 < args.length) uploadSelectors = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
                 default:
                     System.err.println("Unknown argument: " + args[i]);
             }
@@ -58,6 +205,17 @@ public class PeerConfig {
         if (!rfcDir.exists()) {
             rfcDir.mkdirs();
         }
-        return new PeerConfig(serverHost, serverPort, uploadPort, rfcDir, osName);
+        ClusterTopology cluster = clusterSpec != null ? ClusterTopology.parse(clusterSpec, replicationFactor) : null;
+        ClusterTopology readReplicas = readReplicaSpec != null ? ClusterTopology.parse(readReplicaSpec, 1) : null;
+        if (!uploadEngine.equals("thread") && !uploadEngine.equals("nio")) {
+            throw new IllegalArgumentException("--uploadEngine must be thread or nio");
+        }
+        if (cluster != null && readReplicas != null) {
+            throw new IllegalArgumentException("--readReplicas cannot be combined with --cluster");
+        }
+        return new PeerConfig(serverHost, serverPort, uploadPort, rfcDir, osName, cluster, readReplicas, statsPort, heartbeatSeconds,
+                headerTimeoutMillis, requestTimeoutMillis, uploadSlots, uploadQueue, uploadRateKBps,
+                lookupCacheSeconds, negativeCacheSeconds, lookupCacheSize, prefetchHotSeconds,
+                uploadEngine, uploadSelectors);
     }
 }
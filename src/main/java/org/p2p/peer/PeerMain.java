@@ -1,13 +1,29 @@
 package org.p2p.peer;
+import org.p2p.common.MetricsRegistry;
 import org.p2p.common.PeerInfo;
+import org.p2p.common.RfcRanges;
 import org.p2p.common.RfcRecord;
+import org.p2p.common.StatsEndpoint;
+import org.p2p.common.TimerWheel;
 import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 public class PeerMain {
+    private static final long UPLOAD_QUEUE_WAIT_MILLIS = 2000;
+    private static final int SEARCH_LIMIT = 20;
+    private static final int PREFETCH_PER_ROUND = 4;
     private static P2SClient p2sClient;
+    private static final CatalogMirror catalog = new CatalogMirror();
+    private static RfcCatalog localRfcs;
     private static P2PClient p2pClient;
     private static PeerConfig config;
     private static UploadServer uploadServer;
@@ -20,22 +36,68 @@ public class PeerMain {
         System.out.println("  RFC directory : " + config.getRfcDirectory().getAbsolutePath());
         System.out.println("  Upload port   : " + (config.getUploadPort() == 0 ? "auto (ephemeral)" : config.getUploadPort()));
         System.out.println("  OS            : " + config.getOsName());
-        uploadServer = new UploadServer(config.getUploadPort(), config.getRfcDirectory(), config.getOsName());
+        System.out.println("  Upload slots  : " + config.getUploadSlots() + " (" + config.getUploadQueue() + " queued"
+                + (config.getUploadRateKBps() > 0 ? ", " + config.getUploadRateKBps() + " KB/s" : "") + ")");
+        System.out.println("  Upload engine : " + config.getUploadEngine()
+                + (config.getUploadEngine().equals("nio") ? " (" + config.getUploadSelectors() + " selector threads)" : ""));
+        if (config.getCluster() != null) {
+            System.out.println("  Cluster       : " + config.getCluster());
+        }
+        if (config.getReadReplicas() != null) {
+            System.out.println("  Read Replicas : " + config.getReadReplicas());
+        }
+        MetricsRegistry metrics = new MetricsRegistry();
+        uploadServer = new UploadServer(config.getUploadPort(), config.getRfcDirectory(), config.getOsName(), metrics);
+        TimerWheel timerWheel = new TimerWheel("TimerWheel", 100, 512);
+        timerWheel.start();
+        uploadServer.setEngine(config.getUploadEngine(), config.getUploadSelectors());
+        uploadServer.setTimeouts(timerWheel, config.getHeaderTimeoutMillis(), config.getRequestTimeoutMillis());
+        UploadScheduler uploadScheduler = new UploadScheduler(config.getUploadSlots(), config.getUploadQueue(),
+                UPLOAD_QUEUE_WAIT_MILLIS, config.getUploadRateKBps());
+        uploadServer.setScheduler(uploadScheduler);
+        localRfcs = new RfcCatalog(config.getRfcDirectory());
+        localRfcs.reconcile();
+        uploadServer.setCatalog(localRfcs);
+        metrics.gauge("peer.local_rfcs", localRfcs::size);
+        metrics.gauge("peer.blobs.saved_bytes", localRfcs.blobs()::savedBytes);
+        metrics.gauge("peer.upload.slots.active", uploadScheduler::activeCount);
+        metrics.gauge("peer.upload.slots.queued", uploadScheduler::queuedCount);
         Thread uploadThread = new Thread(uploadServer, "UploadServer");
         uploadThread.setDaemon(true);
         uploadThread.start();
         int boundPort = uploadServer.waitForBoundPort();
         System.out.println("Upload server listening on port " + boundPort);
+        if (config.getStatsPort() > 0) {
+            new StatsEndpoint(config.getStatsPort(), metrics).start();
+        }
         String peerHost = getPeerHostname();
         System.out.println("Peer hostname: " + peerHost);
         p2sClient = new P2SClient(config.getServerHost(), config.getServerPort(), 
-                                   peerHost, boundPort, config.getOsName());
+                                   peerHost, boundPort, config.getOsName(), config.getCluster(),
+                                   config.getReadReplicas());
+        p2sClient.setLoadReporter(() -> uploadScheduler.activeCount() + uploadScheduler.queuedCount());
+        if (config.getLookupCacheSeconds() > 0) {
+            LookupCache lookupCache = new LookupCache(config.getLookupCacheSeconds(), config.getNegativeCacheSeconds(),
+                    config.getLookupCacheSize());
+            p2sClient.setLookupCache(lookupCache);
+            metrics.gauge("peer.lookup_cache.entries", lookupCache::size);
+            metrics.gauge("peer.lookup_cache.hits", lookupCache::hitCount);
+            metrics.gauge("peer.lookup_cache.misses", lookupCache::missCount);
+        }
+        metrics.gauge("peer.catalog.entries", catalog::size);
         p2pClient = new P2PClient();
+        p2pClient.setBlobStore(localRfcs.blobs());
         if (!p2sClient.connect()) {
             System.err.println("Failed to connect to server. Exiting.");
             return;
         }
         scanAndRegisterRfcs();
+        if (config.getHeartbeatSeconds() > 0) {
+            p2sClient.startHeartbeats(config.getHeartbeatSeconds());
+        }
+        if (config.getPrefetchHotSeconds() > 0) {
+            startHotPrefetch(config.getPrefetchHotSeconds(), peerHost, metrics.counter("peer.prefetch.downloads"));
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nShutting down peer...");
             running = false;
@@ -48,6 +110,9 @@ public class PeerMain {
         System.out.println("  ADD RFC <num> P2P-CI/1.0       - Register an RFC with the server (will prompt for Host, Port, Title)");
         System.out.println("  LIST ALL P2P-CI/1.0            - List all RFCs in the network (will prompt for Host, Port)");
         System.out.println("  LOOKUP RFC <num> P2P-CI/1.0    - Find peers with a specific RFC (will prompt for Host, Port, Title)");
+        System.out.println("  SEARCH <words>                 - Find RFC numbers whose titles match the words (prefixes allowed)");
+        System.out.println("  WATCH <ranges>                 - Print holder changes for RFCs, e.g. WATCH 1-100,2616 or WATCH ALL");
+        System.out.println("  UNWATCH <ranges>               - Stop watching the given RFC numbers");
         System.out.println("  GET RFC <num> P2P-CI/1.0       - Download an RFC from a peer (will prompt for Host, OS)");
         System.out.println("  EXIT                           - Exit the peer\n");
         Scanner scanner = new Scanner(System.in);
@@ -73,6 +138,13 @@ public class PeerMain {
                     case "LOOKUP":
                         handleLookup(parts, scanner);
                         break;
+                    case "SEARCH":
+                        handleSearch(parts);
+                        break;
+                    case "WATCH":
+                    case "UNWATCH":
+                        handleWatch(parts, command.equals("WATCH"));
+                        break;
                     case "GET":
                         handleGet(parts, scanner);
                         break;
@@ -84,7 +156,7 @@ public class PeerMain {
                         break;
                     default:
                         System.out.println("Unknown command: " + command);
-                        System.out.println("Type ADD, LIST, LOOKUP, GET, or EXIT");
+                        System.out.println("Type ADD, LIST, LOOKUP, SEARCH, WATCH, UNWATCH, GET, or EXIT");
                 }
             } catch (Exception e) {
                 System.err.println("Error processing command: " + e.getMessage());
@@ -104,78 +176,50 @@ public class PeerMain {
         }
     }
 
-    private static File findRfcFileInDirectory(File directory, int rfcNumber) {
-        if (!directory.exists() || !directory.isDirectory()) {
-            return null;
-        }
-        File[] files = directory.listFiles((dir, name) -> 
-            name.toUpperCase().startsWith("RFC_") && name.toLowerCase().endsWith(".txt"));
-        
-        if (files != null) {
-            for (File file : files) {
+    private static void startHotPrefetch(int intervalSeconds, String peerHost, LongAdder prefetched) {
+        Thread t = new Thread(() -> {
+            while (running) {
                 try {
-                    String filename = file.getName();
-                    String withoutPrefix = filename.substring(4);
-                    String withoutSuffix = withoutPrefix.substring(0, withoutPrefix.length() - 4);
-                    int firstUnderscore = withoutSuffix.indexOf('_');
-                    if (firstUnderscore != -1) {
-                        String numStr = withoutSuffix.substring(0, firstUnderscore);
-                        int fileRfcNumber = Integer.parseInt(numStr);
-                        if (fileRfcNumber == rfcNumber) {
-                            return file;
-                        }
-                    }
-                } catch (Exception e) {
+                    Thread.sleep(intervalSeconds * 1000L + ThreadLocalRandom.current().nextLong(intervalSeconds * 500L + 1));
+                } catch (InterruptedException e) {
+                    return;
                 }
+                prefetched.add(prefetchHot(peerHost));
+            }
+        }, "HotPrefetch");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("Prefetching hot, under-replicated RFCs every " + intervalSeconds + "s");
+    }
+    private static int prefetchHot(String peerHost) {
+        int fetched = 0;
+        for (Map.Entry<Integer, List<RfcRecord>> hot : p2sClient.hot(PREFETCH_PER_ROUND).entrySet()) {
+            int rfcNumber = hot.getKey();
+            if (localRfcs.get(rfcNumber) != null) {
+                continue;
+            }
+            System.out.println("[Prefetch] RFC " + rfcNumber + " is in demand, fetching a copy");
+            RfcRecord source = downloadFromAny(hot.getValue(), new HashSet<>(), rfcNumber, config.getOsName(), peerHost);
+            if (source != null && p2sClient.addRfc(rfcNumber, source.getTitle(), "P2P-CI/1.0")) {
+                System.out.println("[Prefetch] Now serving RFC " + rfcNumber);
+                fetched++;
             }
         }
-        return null;
+        return fetched;
     }
     private static void scanAndRegisterRfcs() {
-        File rfcDir = config.getRfcDirectory();
-        if (!rfcDir.exists() || !rfcDir.isDirectory()) {
-            System.out.println("RFC directory does not exist or is not a directory: " + rfcDir);
-            return;
-        }
-        
-        File[] rfcFiles = rfcDir.listFiles((dir, name) -> 
-            name.toUpperCase().startsWith("RFC_") && name.toLowerCase().endsWith(".txt"));
-        if (rfcFiles == null || rfcFiles.length == 0) {
+        List<RfcCatalog.Entry> entries = localRfcs.entries();
+        if (entries.isEmpty()) {
             System.out.println("No RFC files found in directory. Peer has no RFCs to share.");
             return;
         }
-        System.out.println("\nRegistering " + rfcFiles.length + " RFC(s) with server...");
-        int successCount = 0;
-        for (File rfcFile : rfcFiles) {
-            try {
-                String filename = rfcFile.getName();
-                
-                String withoutPrefix = filename.substring(4); 
-                String withoutSuffix = withoutPrefix.substring(0, withoutPrefix.length() - 4); 
-                
-                int firstUnderscore = withoutSuffix.indexOf('_');
-                if (firstUnderscore == -1) {
-                    System.err.println("  Skipping file with invalid format (missing title): " + rfcFile.getName());
-                    continue;
-                }
-                String numStr = withoutSuffix.substring(0, firstUnderscore);
-                String title = withoutSuffix.substring(firstUnderscore + 1);
-                
-                title = title.replace('_', ' ');
-                int rfcNumber = Integer.parseInt(numStr);
-                if (p2sClient.addRfc(rfcNumber, title, "P2P-CI/1.0")) {
-                    successCount++;
-                    System.out.println("  Registered RFC " + rfcNumber + ": " + title);
-                } else {
-                    System.err.println("  Failed to register RFC " + rfcNumber);
-                }
-            } catch (NumberFormatException e) {
-                System.err.println("  Skipping file with invalid RFC number: " + rfcFile.getName());
-            } catch (Exception e) {
-                System.err.println("  Skipping file with invalid format: " + rfcFile.getName() + " - " + e.getMessage());
-            }
+        System.out.println("\nRegistering " + entries.size() + " RFC(s) with server...");
+        Map<Integer, String> rfcs = new LinkedHashMap<>();
+        for (RfcCatalog.Entry entry : entries) {
+            rfcs.put(entry.getRfcNumber(), entry.getTitle());
         }
-        System.out.println("Successfully registered " + successCount + " out of " + rfcFiles.length + " RFCs\n");
+        int successCount = p2sClient.registerAll(rfcs);
+        System.out.println("Successfully registered " + successCount + " out of " + entries.size() + " RFCs\n");
     }
     private static void handleAdd(String[] parts, Scanner scanner) {
         if (parts.length < 4 || !parts[1].equalsIgnoreCase("RFC")) {
@@ -230,7 +274,11 @@ public class PeerMain {
             }
             
             File rfcDir = config.getRfcDirectory();
-            File rfcFile = findRfcFileInDirectory(rfcDir, rfcNumber);
+            File rfcFile = localRfcs.fileFor(rfcNumber);
+            if (rfcFile == null || !rfcFile.exists()) {
+                localRfcs.reconcile();
+                rfcFile = localRfcs.fileFor(rfcNumber);
+            }
             
             if (rfcFile == null || !rfcFile.exists()) {
                 System.out.println("P2P-CI/1.0 404 Not Found");
@@ -251,12 +299,13 @@ public class PeerMain {
     }
     private static void handleLookup(String[] parts, Scanner scanner) {
         if (parts.length < 4 || !parts[1].equalsIgnoreCase("RFC")) {
-            System.out.println("Usage: LOOKUP RFC <number> P2P-CI/1.0");
+            System.out.println("Usage: LOOKUP RFC <number>[,<number>|-<number>...] P2P-CI/1.0");
             System.out.println("You will be prompted for Host, Port, and Title");
             return;
         }
         try {
-            int rfcNumber = Integer.parseInt(parts[2]);
+            RfcRanges batch = isBatch(parts[2]) ? RfcRanges.parse(parts[2]) : null;
+            int rfcNumber = batch == null ? Integer.parseInt(parts[2]) : -1;
             String version = parts[3];
             
             System.out.print("Host: ");
@@ -300,6 +349,21 @@ public class PeerMain {
                 return;
             }
             
+            if (batch != null) {
+                Map<Integer, List<RfcRecord>> byRfc = p2sClient.lookupBatch(batch, version);
+                if (byRfc.isEmpty()) {
+                    System.out.println("No peers found with any of RFC " + batch);
+                    return;
+                }
+                System.out.println("Found holders for " + byRfc.size() + " RFC(s) in " + batch + ":");
+                for (List<RfcRecord> holders : byRfc.values()) {
+                    for (RfcRecord record : holders) {
+                        System.out.println("  RFC " + record.getRfcNumber() + " " + record.getTitle() +
+                                " " + record.getHost() + " " + record.getUploadPort());
+                    }
+                }
+                return;
+            }
             List<RfcRecord> records = p2sClient.lookupRfc(rfcNumber, version);
             if (records.isEmpty()) {
                 System.out.println("No peers found with RFC " + rfcNumber);
@@ -310,10 +374,59 @@ public class PeerMain {
                             " " + record.getHost() + " " + record.getUploadPort());
                 }
             }
-        } catch (NumberFormatException e) {
+        } catch (IllegalArgumentException e) {
             System.out.println("Invalid RFC number: " + parts[2]);
         }
     }
+    private static boolean isBatch(String spec) {
+        return spec.indexOf(',') >= 0 || spec.indexOf('-', 1) >= 0 || spec.equalsIgnoreCase("ALL");
+    }
+    private static void handleSearch(String[] parts) {
+        if (parts.length < 2) {
+            System.out.println("Usage: SEARCH <words>");
+            return;
+        }
+        String query = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
+        Map<Integer, String> hits = p2sClient.search(query, SEARCH_LIMIT);
+        if (hits.isEmpty()) {
+            System.out.println("No RFC titles match \"" + query + "\"");
+            return;
+        }
+        System.out.println("Found " + hits.size() + " RFC(s) matching \"" + query + "\":");
+        for (Map.Entry<Integer, String> hit : hits.entrySet()) {
+            System.out.println("  RFC " + hit.getKey() + " " + hit.getValue());
+        }
+    }
+    private static void handleWatch(String[] parts, boolean watch) {
+        if (parts.length < 2) {
+            System.out.println("Usage: " + (watch ? "WATCH" : "UNWATCH") + " <ranges>");
+            return;
+        }
+        RfcRanges ranges;
+        try {
+            ranges = RfcRanges.parse(String.join("", Arrays.copyOfRange(parts, 1, parts.length)));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid RFC ranges: " + e.getMessage());
+            return;
+        }
+        RfcRanges watched = watch ? p2sClient.subscribe(ranges, new AvailabilityListener() {
+            @Override
+            public void holderAdded(RfcRecord record) {
+                System.out.println("\n[Watch] RFC " + record.getRfcNumber() + " now available from " + record.getHost() + ":"
+                        + record.getUploadPort() + " (" + record.getTitle() + ")");
+            }
+            @Override
+            public void holderRemoved(RfcRecord record) {
+                System.out.println("\n[Watch] RFC " + record.getRfcNumber() + " no longer available from " + record.getHost() + ":"
+                        + record.getUploadPort());
+            }
+            @Override
+            public void resync() {
+                System.out.println("\n[Watch] Missed some updates, LOOKUP watched RFCs again for current holders");
+            }
+        }) : p2sClient.unsubscribe(ranges);
+        System.out.println("Watching RFCs: " + (watched.isEmpty() ? "none" : watched));
+    }
     private static void handleList(String[] parts, Scanner scanner) {
         if (parts.length < 3 || !parts[1].equalsIgnoreCase("ALL")) {
             System.out.println("Usage: LIST ALL P2P-CI/1.0");
@@ -321,8 +434,6 @@ public class PeerMain {
             return;
         }
         
-        String version = parts[2];
-        
         System.out.print("Host: ");
         if (!scanner.hasNextLine()) {
             return;
@@ -353,7 +464,7 @@ public class PeerMain {
             return;
         }
         
-        List<RfcRecord> records = p2sClient.listAll(version);
+        List<RfcRecord> records = p2sClient.syncCatalog(catalog);
         if (records.isEmpty()) {
             System.out.println("No RFCs found in the network");
         } else {
@@ -370,12 +481,13 @@ public class PeerMain {
     }
     private static void handleGet(String[] parts, Scanner scanner) {
         if (parts.length < 4 || !parts[1].equalsIgnoreCase("RFC")) {
-            System.out.println("Usage: GET RFC <number> P2P-CI/1.0");
+            System.out.println("Usage: GET RFC <number>[,<number>|-<number>...] P2P-CI/1.0");
             System.out.println("You will be prompted for Host and OS");
             return;
         }
         try {
-            int rfcNumber = Integer.parseInt(parts[2]);
+            RfcRanges batch = isBatch(parts[2]) ? RfcRanges.parse(parts[2]) : null;
+            int rfcNumber = batch == null ? Integer.parseInt(parts[2]) : -1;
             String version = parts[3];
             
             System.out.print("Host: ");
@@ -400,31 +512,66 @@ public class PeerMain {
                 return;
             }
             
+            if (batch != null) {
+                System.out.println("Looking up RFC " + batch + "...");
+                Map<Integer, List<RfcRecord>> byRfc = p2sClient.lookupBatch(batch, version);
+                if (byRfc.isEmpty()) {
+                    System.out.println("No peers found with any of RFC " + batch);
+                    return;
+                }
+                for (Map.Entry<Integer, List<RfcRecord>> e : byRfc.entrySet()) {
+                    download(e.getKey(), e.getValue(), version, os, host);
+                }
+                return;
+            }
             System.out.println("Looking up RFC " + rfcNumber + "...");
-            List<RfcRecord> records = p2sClient.lookupRfc(rfcNumber, version);
+            List<RfcRecord> records = p2sClient.lookupHolders(rfcNumber, version);
             if (records.isEmpty()) {
                 System.out.println("No peers found with RFC " + rfcNumber);
                 return;
             }
-            RfcRecord record = records.get(0);
+            download(rfcNumber, records, version, os, host);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid RFC number: " + parts[2]);
+        }
+    }
+    private static void download(int rfcNumber, List<RfcRecord> records, String version, String os, String host) {
+        Set<String> tried = new HashSet<>();
+        RfcRecord source = downloadFromAny(records, tried, rfcNumber, os, host);
+        if (source == null) {
+            System.out.println("Refreshing holders of RFC " + rfcNumber + " from server...");
+            source = downloadFromAny(p2sClient.lookupRfc(rfcNumber, version), tried, rfcNumber, os, host);
+        }
+        boolean success = source != null;
+        String title = success ? source.getTitle() : null;
+        if (success) {
+            System.out.println("Successfully downloaded RFC " + rfcNumber);
+            if (p2sClient.addRfc(rfcNumber, title, "P2P-CI/1.0")) {
+                System.out.println("Registered RFC " + rfcNumber + " with server");
+            } else {
+                System.err.println("Warning: Failed to register RFC " + rfcNumber + " with server");
+            }
+        } else {
+            System.err.println("Failed to download RFC " + rfcNumber);
+        }
+    }
+    private static RfcRecord downloadFromAny(List<RfcRecord> records, Set<String> tried, int rfcNumber, String os, String host) {
+        for (RfcRecord record : records) {
+            if (!tried.add(record.getHost() + ":" + record.getUploadPort())) {
+                continue;
+            }
             System.out.println("Downloading RFC " + rfcNumber + " from " +
                     record.getHost() + ":" + record.getUploadPort() + "...");
             PeerInfo peer = new PeerInfo(record.getHost(), record.getUploadPort());
-            String title = record.getTitle();
-            boolean success = p2pClient.downloadRfc(peer, rfcNumber, config.getRfcDirectory(), os, title, host);
-            if (success) {
-                System.out.println("Successfully downloaded RFC " + rfcNumber);
-                if (p2sClient.addRfc(rfcNumber, title, "P2P-CI/1.0")) {
-                    System.out.println("Registered RFC " + rfcNumber + " with server");
-                } else {
-                    System.err.println("Warning: Failed to register RFC " + rfcNumber + " with server");
-                }
-            } else {
-                System.err.println("Failed to download RFC " + rfcNumber);
+            File saved = p2pClient.fetchRfc(peer, rfcNumber, config.getRfcDirectory(), os, record.getTitle(), host);
+            if (saved != null) {
+                localRfcs.add(saved);
+                return record;
             }
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid RFC number: " + parts[2]);
+            p2sClient.holderFailed(rfcNumber, record.getHost(), record.getUploadPort());
+            System.out.println("Trying next holder of RFC " + rfcNumber + "...");
         }
+        return null;
     }
     private static void handleExit() {
         boolean success = p2sClient.exit();
@@ -0,0 +1,287 @@
+package org.p2p.peer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+public class RfcCatalog {
+    public static final String MANIFEST_NAME = ".rfc-manifest";
+    private static final int MAGIC = 0x52464331;
+    private static final int DIGEST_BYTES = 32;
+    private static final long RACY_WINDOW_MILLIS = 2000;
+    private final File directory;
+    private final File manifest;
+    private final BlobStore blobs;
+    private final Map<Integer, Entry> byNumber = new HashMap<>();
+    private final Map<String, Entry> byFile = new HashMap<>();
+    private boolean dirty;
+    private boolean loaded;
+    public RfcCatalog(File directory) {
+        this.directory = directory;
+        this.manifest = new File(directory, MANIFEST_NAME);
+        this.blobs = new BlobStore(directory);
+    }
+    public synchronized int reconcile() {
+        long start = System.nanoTime();
+        if (!directory.isDirectory()) {
+            return 0;
+        }
+        boolean fromDisk = !loaded;
+        loaded = true;
+        if ((!fromDisk || load()) && !dirty && manifest.lastModified() == directory.lastModified()) {
+            if (fromDisk) {
+                System.out.println("[RfcCatalog] Manifest up to date, " + byNumber.size() + " RFC(s) loaded in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            return byNumber.size();
+        }
+        int hashed = 0;
+        Set<String> seen = new HashSet<>();
+        DirectoryStream.Filter<Path> rfcFiles = path -> {
+            String name = path.getFileName().toString();
+            return name.toUpperCase().startsWith("RFC_") && name.toLowerCase().endsWith(".txt");
+        };
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath(), rfcFiles)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                seen.add(name);
+                Entry known = byFile.get(name);
+                long mtime = attrs.lastModifiedTime().toMillis();
+                if (known != null && known.size == attrs.size() && known.mtime == mtime) {
+                    continue;
+                }
+                Entry entry = describe(name, attrs.size(), mtime);
+                if (entry == null) {
+                    System.err.println("[RfcCatalog] Skipping file with invalid name: " + name);
+                    continue;
+                }
+                byFile.put(name, entry);
+                hashed++;
+            }
+        } catch (IOException e) {
+            System.err.println("[RfcCatalog] Failed to list " + directory + ": " + e.getMessage());
+            return byNumber.size();
+        }
+        int removed = 0;
+        for (Iterator<Entry> it = byFile.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!seen.contains(entry.fileName)) {
+                it.remove();
+                removed++;
+            }
+        }
+        rebuildIndex();
+        int collected = 0;
+        if (hashed > 0 || removed > 0) {
+            Set<String> live = new HashSet<>();
+            for (Entry entry : byFile.values()) {
+                live.add(entry.getDigest());
+            }
+            collected = blobs.collectGarbage(live);
+        }
+        if (hashed > 0 || removed > 0 || dirty || !manifest.isFile()) {
+            save();
+        } else {
+            stamp();
+        }
+        System.out.println("[RfcCatalog] Reconciled " + byNumber.size() + " RFC(s): " + hashed + " new or changed, "
+                + removed + " removed, " + collected + " unused blob(s) deleted in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return byNumber.size();
+    }
+    public synchronized Entry add(File file) {
+        Entry entry = describe(file.getName(), file.length(), file.lastModified());
+        if (entry == null) {
+            return null;
+        }
+        byFile.put(entry.fileName, entry);
+        rebuildIndex();
+        dirty = true;
+        save();
+        return entry;
+    }
+    public synchronized Entry get(int rfcNumber) {
+        Entry entry = byNumber.get(rfcNumber);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(directory, entry.fileName);
+        if (file.length() != entry.size || file.lastModified() != entry.mtime) {
+            if (!file.isFile()) {
+                byFile.remove(entry.fileName);
+                rebuildIndex();
+                dirty = true;
+                save();
+                return byNumber.get(rfcNumber);
+            }
+            entry = add(file);
+        }
+        return entry;
+    }
+    public synchronized File fileFor(int rfcNumber) {
+        Entry entry = get(rfcNumber);
+        return entry == null ? null : new File(directory, entry.fileName);
+    }
+    public synchronized File contentFor(int rfcNumber) {
+        Entry entry = get(rfcNumber);
+        if (entry == null) {
+            return null;
+        }
+        File blob = blobs.blobFor(entry.getDigest());
+        return blob.isFile() ? blob : new File(directory, entry.fileName);
+    }
+    public BlobStore blobs() {
+        return blobs;
+    }
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(byNumber.values());
+    }
+    public synchronized int size() {
+        return byNumber.size();
+    }
+    private void rebuildIndex() {
+        byNumber.clear();
+        for (Entry entry : byFile.values()) {
+            Entry other = byNumber.get(entry.rfcNumber);
+            if (other == null || entry.fileName.compareTo(other.fileName) < 0) {
+                byNumber.put(entry.rfcNumber, entry);
+            }
+        }
+    }
+    private Entry describe(String fileName, long size, long mtime) {
+        int[] number = new int[1];
+        String title = parseName(fileName, number);
+        if (title == null) {
+            return null;
+        }
+        try {
+            File file = new File(directory, fileName);
+            byte[] digest = BlobStore.digest(file);
+            if (blobs.intern(file, HexFormat.of().formatHex(digest))) {
+                mtime = file.lastModified();
+            }
+            return new Entry(number[0], title, fileName, size, mtime, digest);
+        } catch (IOException e) {
+            System.err.println("[RfcCatalog] Failed to read " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+    static String parseName(String fileName, int[] number) {
+        if (!fileName.toUpperCase().startsWith("RFC_") || !fileName.toLowerCase().endsWith(".txt")) {
+            return null;
+        }
+        String withoutPrefix = fileName.substring(4);
+        String withoutSuffix = withoutPrefix.substring(0, withoutPrefix.length() - 4);
+        int firstUnderscore = withoutSuffix.indexOf('_');
+        if (firstUnderscore == -1) {
+            return null;
+        }
+        try {
+            number[0] = Integer.parseInt(withoutSuffix.substring(0, firstUnderscore));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return withoutSuffix.substring(firstUnderscore + 1).replace('_', ' ');
+    }
+    private boolean load() {
+        if (!manifest.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int rfcNumber = in.readInt();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                byte[] digest = new byte[DIGEST_BYTES];
+                in.readFully(digest);
+                String fileName = in.readUTF();
+                String title = in.readUTF();
+                byFile.put(fileName, new Entry(rfcNumber, title, fileName, size, mtime, digest));
+            }
+            rebuildIndex();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[RfcCatalog] Ignoring unreadable manifest " + manifest + ": " + e.getMessage());
+            byNumber.clear();
+            byFile.clear();
+            return false;
+        }
+    }
+    private void save() {
+        File tmp = new File(directory, MANIFEST_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(byFile.size());
+            for (Entry e : byFile.values()) {
+                out.writeInt(e.rfcNumber);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.write(e.digest);
+                out.writeUTF(e.fileName);
+                out.writeUTF(e.title);
+            }
+        } catch (IOException e) {
+            System.err.println("[RfcCatalog] Failed to write manifest: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stamp();
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("[RfcCatalog] Failed to replace manifest: " + e.getMessage());
+        }
+    }
+    private void stamp() {
+        long directoryMtime = directory.lastModified();
+        boolean racy = System.currentTimeMillis() - directoryMtime < RACY_WINDOW_MILLIS;
+        manifest.setLastModified(racy ? directoryMtime - 1 : directoryMtime);
+    }
+    public static class Entry {
+        private final int rfcNumber;
+        private final String title;
+        private final String fileName;
+        private final long size;
+        private final long mtime;
+        private final byte[] digest;
+        Entry(int rfcNumber, String title, String fileName, long size, long mtime, byte[] digest) {
+            this.rfcNumber = rfcNumber;
+            this.title = title;
+            this.fileName = fileName;
+            this.size = size;
+            this.mtime = mtime;
+            this.digest = digest;
+        }
+        public int getRfcNumber() {
+            return rfcNumber;
+        }
+        public String getTitle() {
+            return title;
+        }
+        public String getFileName() {
+            return fileName;
+        }
+        public long getSize() {
+            return size;
+        }
+        public long getMtime() {
+            return mtime;
+        }
+        public String getDigest() {
+            return HexFormat.of().formatHex(digest);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.p2p.peer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+@Name("org.p2p.peer.Upload")
+@Label("RFC Upload")
+@Category({"P2P-CI", "Peer"})
+@StackTrace(false)
+class UploadEvent extends Event {
+    @Label("RFC Number")
+    String rfcNumber;
+    @Label("Remote Address")
+    String remoteAddress;
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+    @Label("File Read Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long readNanos;
+    @Label("Send Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long sendNanos;
+}
@@ -0,0 +1,64 @@
+package org.p2p.peer;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+final class UploadFiles {
+    private UploadFiles() {}
+    static File locate(RfcCatalog catalog, File rfcDirectory, String rfcNumber) {
+        File rfcFile = catalog != null ? catalogFile(catalog, rfcNumber) : findRfcFileByNumber(rfcDirectory, rfcNumber);
+        if (rfcFile == null) {
+            rfcFile = new File(rfcDirectory, "rfc" + rfcNumber + ".txt");
+            if (!rfcFile.exists() || !rfcFile.isFile()) {
+                rfcFile = null;
+            }
+        }
+        return rfcFile;
+    }
+    private static File catalogFile(RfcCatalog catalog, String rfcNumber) {
+        int number;
+        try {
+            number = Integer.parseInt(rfcNumber);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        File file = catalog.contentFor(number);
+        if (file == null) {
+            catalog.reconcile();
+            file = catalog.contentFor(number);
+        }
+        return file;
+    }
+    private static File findRfcFileByNumber(File rfcDirectory, String rfcNumber) {
+        
+        File[] txtFiles = rfcDirectory.listFiles((dir, name) -> 
+            name.toUpperCase().startsWith("RFC_") && name.toLowerCase().endsWith(".txt"));
+        if (txtFiles != null) {
+            for (File file : txtFiles) {
+                String filename = file.getName();
+                try {
+                    
+                    String withoutPrefix = filename.substring(4); 
+                    String withoutSuffix = withoutPrefix.substring(0, withoutPrefix.length() - 4); 
+                    int firstUnderscore = withoutSuffix.indexOf('_');
+                    if (firstUnderscore != -1) {
+                        String numStr = withoutSuffix.substring(0, firstUnderscore);
+                        if (numStr.equals(rfcNumber)) {
+                            return file;
+                        }
+                    }
+                } catch (Exception e) {
+                    
+                }
+            }
+        }
+        return null;
+    }
+    static String httpDate(Date date) {
+        SimpleDateFormat fmt =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(date);
+    }
+}
@@ -0,0 +1,145 @@
+package org.p2p.peer;
+import org.p2p.common.TokenBucket;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+public class UploadScheduler {
+    private static final int MIN_BURST_BYTES = 64 * 1024;
+    private final int slots;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final TokenBucket bandwidth;
+    private final Map<String, ArrayDeque<Ticket>> waiting = new HashMap<>();
+    private final ArrayDeque<String> rotation = new ArrayDeque<>();
+    private int active;
+    private int queued;
+    public UploadScheduler(int slots, int maxQueued, long maxWaitMillis, int rateKBps) {
+        this.slots = Math.max(1, slots);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitMillis = maxWaitMillis;
+        long bytesPerSecond = rateKBps * 1024L;
+        this.bandwidth = rateKBps > 0 ? new TokenBucket(bytesPerSecond, Math.max(MIN_BURST_BYTES, bytesPerSecond / 10)) : null;
+    }
+    public boolean acquire(String host) throws InterruptedException {
+        Ticket ticket;
+        synchronized (this) {
+            if (active < slots && queued == 0) {
+                active++;
+                return true;
+            }
+            if (queued >= maxQueued) {
+                return false;
+            }
+            ticket = enqueue(host, null);
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            try {
+                while (!ticket.granted) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (!withdraw(host, ticket)) {
+                    release();
+                }
+                throw e;
+            }
+            return ticket.granted || !withdraw(host, ticket);
+        }
+    }
+    synchronized Ticket offer(String host, Runnable onGrant) {
+        if (active < slots && queued == 0) {
+            active++;
+            Ticket ticket = new Ticket(null);
+            ticket.granted = true;
+            return ticket;
+        }
+        if (queued >= maxQueued) {
+            return null;
+        }
+        return enqueue(host, onGrant);
+    }
+    synchronized boolean cancel(String host, Ticket ticket) {
+        return withdraw(host, ticket);
+    }
+    public synchronized void release() {
+        if (!rotation.isEmpty()) {
+            String host = rotation.pollFirst();
+            ArrayDeque<Ticket> tickets = waiting.get(host);
+            Ticket next = tickets.pollFirst();
+            if (tickets.isEmpty()) {
+                waiting.remove(host);
+            } else {
+                rotation.addLast(host);
+            }
+            queued--;
+            next.granted = true;
+            if (next.onGrant != null) {
+                next.onGrant.run();
+            }
+            notifyAll();
+            return;
+        }
+        active--;
+    }
+    public void pace(int bytes) throws InterruptedException {
+        if (bandwidth != null) {
+            bandwidth.acquire(bytes);
+        }
+    }
+    public long tryPace(int bytes) {
+        return bandwidth != null ? bandwidth.tryAcquire(bytes) : 0;
+    }
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+    public synchronized int retryAfterSeconds() {
+        return 1 + queued / slots;
+    }
+    public synchronized int activeCount() {
+        return active;
+    }
+    public synchronized int queuedCount() {
+        return queued;
+    }
+    public int getSlots() {
+        return slots;
+    }
+    private Ticket enqueue(String host, Runnable onGrant) {
+        Ticket ticket = new Ticket(onGrant);
+        ArrayDeque<Ticket> tickets = waiting.get(host);
+        if (tickets == null) {
+            tickets = new ArrayDeque<>();
+            waiting.put(host, tickets);
+            rotation.addLast(host);
+        }
+        tickets.addLast(ticket);
+        queued++;
+        return ticket;
+    }
+    private boolean withdraw(String host, Ticket ticket) {
+        if (ticket.granted) {
+            return false;
+        }
+        ArrayDeque<Ticket> tickets = waiting.get(host);
+        tickets.remove(ticket);
+        if (tickets.isEmpty()) {
+            waiting.remove(host);
+            rotation.remove(host);
+        }
+        queued--;
+        return true;
+    }
+    static class Ticket {
+        private final Runnable onGrant;
+        private volatile boolean granted;
+        Ticket(Runnable onGrant) {
+            this.onGrant = onGrant;
+        }
+        boolean isGranted() {
+            return granted;
+        }
+    }
+}
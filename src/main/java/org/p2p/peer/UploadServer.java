@@ -1,22 +1,63 @@
 package org.p2p.peer;
+import org.p2p.common.ConnectionDeadline;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.TimerWheel;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
 public class UploadServer implements Runnable {
+    private static final int NIO_BACKLOG = 1024;
     private final int requestedPort;
     private final File rfcDirectory;
     private final String osName;
+    private final MetricsRegistry metrics;
+    private TimerWheel timerWheel;
+    private int headerTimeoutMillis;
+    private int requestTimeoutMillis;
+    private UploadScheduler scheduler;
+    private RfcCatalog catalog;
+    private String engine = "thread";
+    private int selectorThreads = 1;
     private volatile int boundPort = -1;
     private volatile boolean running = true;
+    private volatile Closeable listener;
     public UploadServer(int requestedPort, File rfcDirectory, String osName) {
+        this(requestedPort, rfcDirectory, osName, new MetricsRegistry());
+    }
+    public UploadServer(int requestedPort, File rfcDirectory, String osName, MetricsRegistry metrics) {
         this.requestedPort = requestedPort;
         this.rfcDirectory = rfcDirectory;
         this.osName = osName;
+        this.metrics = metrics;
+    }
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    public void setTimeouts(TimerWheel timerWheel, int headerTimeoutMillis, int requestTimeoutMillis) {
+        this.timerWheel = timerWheel;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+    public void setScheduler(UploadScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    public UploadScheduler getScheduler() {
+        return scheduler;
+    }
+    public void setCatalog(RfcCatalog catalog) {
+        this.catalog = catalog;
+    }
+    public void setEngine(String engine, int selectorThreads) {
+        this.engine = engine;
+        this.selectorThreads = selectorThreads;
+    }
+    public String getEngine() {
+        return engine;
     }
     public int getBoundPort() {
         return boundPort;
@@ -34,36 +75,104 @@ public class UploadServer implements Runnable {
     }
     @Override
     public void run() {
+        if ("nio".equals(engine)) {
+            runSelectors();
+            return;
+        }
         try (ServerSocket serverSocket = new ServerSocket(requestedPort)) {
+            this.listener = serverSocket;
+            if (!running) {
+                return;
+            }
             this.boundPort = serverSocket.getLocalPort();
             System.out.println("[UploadServer] Bound to port " + boundPort +
                                ", serving RFCs from: " + rfcDirectory.getAbsolutePath());
             while (running) {
                 Socket clientSocket = serverSocket.accept();
-                Thread worker = new Thread(new UploadWorker(clientSocket, rfcDirectory, osName),
+                metrics.counter("peer.upload.connections.accepted").increment();
+                Thread worker = new Thread(new UploadWorker(clientSocket, rfcDirectory, osName, metrics,
+                                           timerWheel, headerTimeoutMillis, requestTimeoutMillis, scheduler, catalog),
                                            "UploadWorker-" + clientSocket.getRemoteSocketAddress());
                 worker.start();
             }
         } catch (IOException e) {
-            System.err.println("[UploadServer] Error: " + e.getMessage());
+            if (running) {
+                System.err.println("[UploadServer] Error: " + e.getMessage());
+            }
+        }
+    }
+    private void runSelectors() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(requestedPort), NIO_BACKLOG);
+            this.listener = serverChannel;
+            if (!running) {
+                return;
+            }
+            NioUploadEngine nio = new NioUploadEngine(rfcDirectory, osName, metrics, timerWheel,
+                    headerTimeoutMillis, requestTimeoutMillis, scheduler, catalog, selectorThreads);
+            nio.start();
+            this.boundPort = serverChannel.socket().getLocalPort();
+            System.out.println("[UploadServer] Bound to port " + boundPort + " with " + selectorThreads +
+                               " selector thread(s), serving RFCs from: " + rfcDirectory.getAbsolutePath());
+            try {
+                while (running) {
+                    SocketChannel clientChannel = serverChannel.accept();
+                    metrics.counter("peer.upload.connections.accepted").increment();
+                    nio.accept(clientChannel);
+                }
+            } finally {
+                nio.shutdown();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[UploadServer] Error: " + e.getMessage());
+            }
         }
     }
     public void shutdown() {
         running = false;
+        Closeable l = listener;
+        if (l != null) {
+            try {
+                l.close();
+            } catch (IOException e) {
+            }
+        }
     }
 }
 class UploadWorker implements Runnable {
+    private static final int SEND_CHUNK = 16 * 1024;
     private final Socket socket;
     private final File rfcDirectory;
     private final String osName;
-    public UploadWorker(Socket socket, File rfcDirectory, String osName) {
+    private final MetricsRegistry metrics;
+    private final ConnectionDeadline deadline;
+    private final int headerTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final UploadScheduler scheduler;
+    private final RfcCatalog catalog;
+    public UploadWorker(Socket socket, File rfcDirectory, String osName, MetricsRegistry metrics,
+                        TimerWheel timerWheel, int headerTimeoutMillis, int requestTimeoutMillis,
+                        UploadScheduler scheduler, RfcCatalog catalog) {
         this.socket = socket;
         this.rfcDirectory = rfcDirectory;
         this.osName = osName;
+        this.metrics = metrics;
+        this.deadline = new ConnectionDeadline(timerWheel, socket, "upload connection from " + socket.getRemoteSocketAddress(),
+                reason -> metrics.counter("peer.upload.timeouts." + reason).increment());
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.scheduler = scheduler;
+        this.catalog = catalog;
     }
     @Override
     public void run() {
         System.out.println("[UploadWorker] Connection from " + socket.getRemoteSocketAddress());
+        long start = System.nanoTime();
+        UploadEvent event = new UploadEvent();
+        event.begin();
+        metrics.counter("peer.upload.connections.active").increment();
+        deadline.arm(ConnectionDeadline.earliest(headerTimeoutMillis, requestTimeoutMillis), "header");
         try (BufferedReader in = new BufferedReader(
                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
              BufferedWriter out = new BufferedWriter(
@@ -74,81 +183,118 @@ class UploadWorker implements Runnable {
                 return;
             }
             String[] parts = requestLine.trim().split("\\s+");
+            if (parts.length == 2 && "STATS".equals(parts[0]) && "P2P-CI/1.0".equals(parts[1])) {
+                sendStats(in, out);
+                return;
+            }
             if (parts.length != 4 || !"GET".equals(parts[0]) || !"RFC".equals(parts[1])) {
                 sendSimpleResponse(out, 400, "Bad Request");
                 return;
             }
             String rfcNumber = parts[2];
+            event.rfcNumber = rfcNumber;
             String version = parts[3];
             if (!"P2P-CI/1.0".equals(version)) {
                 sendSimpleResponse(out, 505, "P2P-CI Version Not Supported");
                 return;
             }
+            String requestHost = socket.getInetAddress().getHostAddress();
             String line;
             while ((line = in.readLine()) != null && !line.isEmpty()) {
             }
-            
-            File rfcFile = findRfcFileByNumber(rfcDirectory, rfcNumber);
-            
-            if (rfcFile == null) {
-                rfcFile = new File(rfcDirectory, "rfc" + rfcNumber + ".txt");
-                if (!rfcFile.exists() || !rfcFile.isFile()) {
-                    rfcFile = null;
-                }
+            if (requestTimeoutMillis > 0) {
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                deadline.arm(Math.max(1, requestTimeoutMillis - elapsedMillis), "request");
+            } else {
+                deadline.disarm();
             }
+            
+            File rfcFile = UploadFiles.locate(catalog, rfcDirectory, rfcNumber);
             if (rfcFile == null) {
                 sendSimpleResponse(out, 404, "Not Found");
                 return;
             }
-            byte[] fileBytes = readAllBytes(rfcFile);
-            String now = httpDate(new Date());
-            String lastModified = httpDate(new Date(rfcFile.lastModified()));
-            out.write("P2P-CI/1.0 200 OK\r\n");
-            out.write("Date: " + now + "\r\n");
-            out.write("OS: " + osName + "\r\n");
-            out.write("Last-Modified: " + lastModified + "\r\n");
-            out.write("Content-Length: " + fileBytes.length + "\r\n");
-            out.write("Content-Type: text/plain\r\n");
-            out.write("\r\n"); 
-            out.flush();
-            OutputStream rawOut = socket.getOutputStream();
-            rawOut.write(fileBytes);
-            rawOut.flush();
-            System.out.println("[UploadWorker] Successfully served RFC " + rfcNumber);
+            if (scheduler != null && !scheduler.acquire(requestHost)) {
+                metrics.counter("peer.upload.rejected").increment();
+                sendBusy(out, scheduler.retryAfterSeconds());
+                return;
+            }
+            try {
+                serve(out, rfcFile, rfcNumber, event, start);
+            } finally {
+                if (scheduler != null) {
+                    scheduler.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             System.err.println("[UploadWorker] I/O error: " + e.getMessage());
         } finally {
+            deadline.disarm();
+            metrics.counter("peer.upload.connections.active").decrement();
+            if (event.shouldCommit()) {
+                event.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+                event.commit();
+            }
             try {
                 socket.close();
             } catch (IOException ignore) {}
         }
     }
-    private File findRfcFileByNumber(File rfcDirectory, String rfcNumber) {
-        
-        File[] txtFiles = rfcDirectory.listFiles((dir, name) -> 
-            name.toUpperCase().startsWith("RFC_") && name.toLowerCase().endsWith(".txt"));
-        if (txtFiles != null) {
-            for (File file : txtFiles) {
-                String filename = file.getName();
-                try {
-                    
-                    String withoutPrefix = filename.substring(4); 
-                    String withoutSuffix = withoutPrefix.substring(0, withoutPrefix.length() - 4); 
-                    int firstUnderscore = withoutSuffix.indexOf('_');
-                    if (firstUnderscore != -1) {
-                        String numStr = withoutSuffix.substring(0, firstUnderscore);
-                        if (numStr.equals(rfcNumber)) {
-                            return file;
-                        }
-                    }
-                } catch (Exception e) {
-                    
-                }
+    private void serve(BufferedWriter out, File rfcFile, String rfcNumber, UploadEvent event, long start)
+            throws IOException, InterruptedException {
+        long readStart = System.nanoTime();
+        byte[] fileBytes = readAllBytes(rfcFile);
+        event.readNanos = System.nanoTime() - readStart;
+        String now = UploadFiles.httpDate(new Date());
+        String lastModified = UploadFiles.httpDate(new Date(rfcFile.lastModified()));
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("Date: " + now + "\r\n");
+        out.write("OS: " + osName + "\r\n");
+        out.write("Last-Modified: " + lastModified + "\r\n");
+        out.write("Content-Length: " + fileBytes.length + "\r\n");
+        out.write("Content-Type: text/plain\r\n");
+        out.write("\r\n"); 
+        out.flush();
+        long sendStart = System.nanoTime();
+        OutputStream rawOut = socket.getOutputStream();
+        for (int offset = 0; offset < fileBytes.length; offset += SEND_CHUNK) {
+            int length = Math.min(SEND_CHUNK, fileBytes.length - offset);
+            if (scheduler != null) {
+                scheduler.pace(length);
             }
+            rawOut.write(fileBytes, offset, length);
+        }
+        rawOut.flush();
+        event.sendNanos = System.nanoTime() - sendStart;
+        event.bytes = fileBytes.length;
+        metrics.counter("peer.upload.served").increment();
+        metrics.counter("peer.upload.bytes").add(fileBytes.length);
+        metrics.histogram("peer.upload.latency").record(System.nanoTime() - start);
+        System.out.println("[UploadWorker] Successfully served RFC " + rfcNumber);
+    }
+    private void sendStats(BufferedReader in, BufferedWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
         }
-        return null;
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("OS: " + osName + "\r\n");
+        out.write("\r\n");
+        out.write(metrics.render());
+        out.flush();
+    }
+    private void sendBusy(BufferedWriter out, int retryAfterSeconds) throws IOException {
+        metrics.counter("peer.upload.responses.503").increment();
+        out.write("P2P-CI/1.0 503 Service Unavailable\r\n");
+        out.write("OS: " + osName + "\r\n");
+        out.write("Retry-After: " + retryAfterSeconds + "\r\n");
+        out.write("\r\n");
+        out.flush();
+        System.out.println("[UploadWorker] All " + scheduler.getSlots() + " upload slots busy, sent 503");
     }
     private void sendSimpleResponse(BufferedWriter out, int code, String phrase) throws IOException {
+        metrics.counter("peer.upload.responses." + code).increment();
         out.write("P2P-CI/1.0 " + code + " " + phrase + "\r\n");
         out.write("OS: " + osName + "\r\n");
         out.write("\r\n");
@@ -166,10 +312,4 @@ class UploadWorker implements Runnable {
             return bos.toByteArray();
         }
     }
-    private static String httpDate(Date date) {
-        SimpleDateFormat fmt =
-                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-        return fmt.format(date);
-    }
 }
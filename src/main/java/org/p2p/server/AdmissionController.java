@@ -0,0 +1,32 @@
+package org.p2p.server;
+import org.p2p.common.TokenBucket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+public class AdmissionController {
+    private final double requestsPerSecond;
+    private final int burst;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    public AdmissionController(double requestsPerSecond, int burst) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::evictIdle, 60, 60, TimeUnit.SECONDS);
+    }
+    public int retryAfterSeconds(String sourceAddress) {
+        TokenBucket bucket = buckets.get(sourceAddress);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(sourceAddress, k -> new TokenBucket(requestsPerSecond, burst));
+        }
+        long waitNanos = bucket.tryAcquire(1);
+        return waitNanos == 0 ? 0 : (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+    }
+    public int trackedSources() {
+        return buckets.size();
+    }
+    void evictIdle() {
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+}
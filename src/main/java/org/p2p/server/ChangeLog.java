@@ -0,0 +1,84 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+public class ChangeLog implements IndexListener {
+    private final AtomicReferenceArray<Change> ring;
+    private final AtomicLong version;
+    private final long baseVersion;
+    public ChangeLog(int capacity) {
+        this.ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+        this.baseVersion = System.currentTimeMillis() * 1000L;
+        this.version = new AtomicLong(baseVersion);
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        append(record, true);
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        append(record, false);
+    }
+    private void append(RfcRecord record, boolean added) {
+        long v = version.incrementAndGet();
+        Change change = new Change(record, added, v);
+        int slot = slot(v);
+        Change previous;
+        do {
+            previous = ring.get(slot);
+            if (previous != null && previous.version > v) {
+                return;
+            }
+        } while (!ring.compareAndSet(slot, previous, change));
+    }
+    public long version() {
+        return version.get();
+    }
+    public long oldestVersion() {
+        return Math.max(baseVersion, version.get() - ring.length());
+    }
+    public List<Change> since(long fromVersion) {
+        long toVersion = version.get();
+        if (fromVersion < Math.max(baseVersion, toVersion - ring.length()) || fromVersion > toVersion) {
+            return null;
+        }
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (long v = fromVersion + 1; v <= toVersion; v++) {
+            Change change = ring.get(slot(v));
+            while (change == null || change.version < v) {
+                Thread.onSpinWait();
+                change = ring.get(slot(v));
+            }
+            if (change.version != v) {
+                return null;
+            }
+            String key = change.record.getRfcNumber() + " " + change.record.getHost() + " " + change.record.getUploadPort();
+            latest.remove(key);
+            latest.put(key, change);
+        }
+        return new ArrayList<>(latest.values());
+    }
+    private int slot(long v) {
+        return (int) ((v - baseVersion) % ring.length());
+    }
+    public static class Change {
+        private final RfcRecord record;
+        private final boolean added;
+        private final long version;
+        Change(RfcRecord record, boolean added, long version) {
+            this.record = record;
+            this.added = added;
+            this.version = version;
+        }
+        public RfcRecord getRecord() {
+            return record;
+        }
+        public boolean isAdded() {
+            return added;
+        }
+    }
+}
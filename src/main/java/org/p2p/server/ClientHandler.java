@@ -1,40 +1,111 @@
 package org.p2p.server;
 import java.io.*;
 import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.List;
+import java.util.Map;
+import org.p2p.common.ConnectionDeadline;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.RfcRanges;
 import org.p2p.common.RfcRecord;
 public class ClientHandler implements Runnable {
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    private static final int DEFAULT_HOT_LIMIT = 10;
+    private static final int MAX_DEMAND_BATCH = 64;
     private final Socket socket;
     private final PeerRegistry peerRegistry;
     private final RfcIndex rfcIndex;
+    private final RestoreReconciler reconciler;
+    private final ClusterReplicator replicator;
+    private final ReplicaPublisher replicaPublisher;
+    private final ReadReplica readReplica;
+    private final MetricsRegistry metrics;
+    private final LeaseManager leases;
+    private final AdmissionController admission;
+    private final PeerLoadTracker loadTracker;
+    private final HotGrants hotGrants;
+    private final TitleIndex titleIndex;
+    private final SubscriptionManager subscriptions;
+    private final PeerHoldings peerHoldings;
+    private final int hotRequestsPerHolder;
+    private SubscriptionManager.Subscriber subscriber;
+    private ResponseWriter responses;
+    private final ConnectionDeadline deadline;
+    private final int idleTimeoutMillis;
+    private final int headerTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private RequestEvent request = new RequestEvent();
+    private long requestStart;
+    private final Set<Integer> addedRfcs = new HashSet<>();
     private String registeredHostname = null;
     private int registeredPort = -1;
     private boolean cleanupDone = false;
     public ClientHandler(Socket socket, PeerRegistry peerRegistry, RfcIndex rfcIndex) {
+        this(socket, new ServerContext(peerRegistry, rfcIndex));
+    }
+    public ClientHandler(Socket socket, ServerContext context) {
         this.socket = socket;
-        this.peerRegistry = peerRegistry;
-        this.rfcIndex = rfcIndex;
+        this.peerRegistry = context.getPeerRegistry();
+        this.rfcIndex = context.getRfcIndex();
+        this.reconciler = context.getReconciler();
+        this.replicator = context.getReplicator();
+        this.replicaPublisher = context.getReplicaPublisher();
+        this.readReplica = context.getReadReplica();
+        this.metrics = context.getMetrics();
+        this.leases = context.getLeaseManager();
+        this.admission = context.getAdmissionController();
+        this.loadTracker = context.getLoadTracker();
+        this.hotGrants = context.getHotGrants();
+        this.titleIndex = context.getTitleIndex();
+        this.subscriptions = context.getSubscriptionManager();
+        this.peerHoldings = context.getPeerHoldings();
+        this.hotRequestsPerHolder = context.getHotRequestsPerHolder();
+        this.deadline = new ConnectionDeadline(context.getTimerWheel(), socket,
+                "connection from " + socket.getRemoteSocketAddress(),
+                reason -> metrics.counter("server.timeouts." + reason).increment());
+        this.idleTimeoutMillis = context.getIdleTimeoutMillis();
+        this.headerTimeoutMillis = context.getHeaderTimeoutMillis();
+        this.requestTimeoutMillis = context.getRequestTimeoutMillis();
     }
     @Override
     public void run() {
         String peerHost = socket.getInetAddress().getHostAddress();
+        metrics.counter("server.connections.active").increment();
         try (
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))
+            ResponseWriter out = new ResponseWriter(new OutputStreamWriter(socket.getOutputStream()))
         ) {
+            responses = out;
+            socket.setTcpNoDelay(true);
             while(true) {
+                deadline.arm(idleTimeoutMillis, "idle");
+                in.mark(2);
+                if (in.read() == -1) {
+                    break;
+                }
+                in.reset();
+                requestStart = System.nanoTime();
+                deadline.arm(ConnectionDeadline.earliest(headerTimeoutMillis, requestTimeoutMillis), "header");
                 String firstline = in.readLine();
                 if (firstline == null) {
                     break;
                 }
                 System.out.println("Received from " + peerHost + ": " + firstline);
+                if (leases != null && registeredHostname != null) {
+                    leases.renew(registeredHostname, registeredPort);
+                }
                 StringTokenizer first_tokens = new StringTokenizer(firstline, " ");
                 if (!first_tokens.hasMoreTokens()) {
                     sendBadRequest(out);
+                    endResponse(out);
                     continue;
                 }
                 String method = first_tokens.nextToken();
+                request = new RequestEvent();
+                request.started(method, peerHost);
                 switch (method) {
                     case "ADD": {
                         if(!first_tokens.hasMoreTokens()) {
@@ -87,7 +158,7 @@ public class ClientHandler implements Runnable {
                             sendVersionNotSupported(out, version);
                             break;
                         }
-                        handleLookUp(in, out, literal, rfcNumber, version);
+                        handleLookUp(in, out, literal, rfcNumber, version, peerHost);
                         break;
                     }
                     case "LIST": {
@@ -96,10 +167,92 @@ public class ClientHandler implements Runnable {
                             break;
                         }
                         String literal = first_tokens.nextToken();
-                        if (!literal.equals("ALL")) {
+                        long since = -1;
+                        if (literal.equals("SINCE")) {
+                            if(!first_tokens.hasMoreTokens()) {
+                                sendBadRequest(out);
+                                break;
+                            }
+                            try {
+                                since = Long.parseLong(first_tokens.nextToken());
+                            } catch (NumberFormatException e) {
+                                sendBadRequest(out);
+                                break;
+                            }
+                        } else if (!literal.equals("ALL")) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        if (since >= 0) {
+                            handleListSince(in, out, since);
+                        } else {
+                            handleListAll(in, out, literal, version);
+                        }
+                        break;
+                    }
+                    case "SEARCH": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleSearch(in, out, peerHost);
+                        break;
+                    }
+                    case "HOT": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleHot(in, out, peerHost);
+                        break;
+                    }
+                    case "REGISTER": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleRegister(in, out, peerHost);
+                        break;
+                    }
+                    case "SUBSCRIBE":
+                    case "UNSUBSCRIBE": {
+                        if(!first_tokens.hasMoreTokens()) {
                             sendBadRequest(out);
                             break;
                         }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleSubscribe(in, out, method.equals("SUBSCRIBE"), peerHost);
+                        break;
+                    }
+                    case "REPLICATE": {
                         if(!first_tokens.hasMoreTokens()) {
                             sendBadRequest(out);
                             break;
@@ -109,7 +262,46 @@ public class ClientHandler implements Runnable {
                             sendVersionNotSupported(out, version);
                             break;
                         }
-                        handleListAll(in, out, literal, version);
+                        handleReplicate(in, out);
+                        break;
+                    }
+                    case "REPLICA": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleReplica(in, out);
+                        break;
+                    }
+                    case "STATS": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleStats(in, out);
+                        break;
+                    }
+                    case "HEARTBEAT": {
+                        if(!first_tokens.hasMoreTokens()) {
+                            sendBadRequest(out);
+                            break;
+                        }
+                        String version = first_tokens.nextToken();
+                        if (!version.equals("P2P-CI/1.0")) {
+                            sendVersionNotSupported(out, version);
+                            break;
+                        }
+                        handleHeartbeat(in, out);
                         break;
                     }
                     case "EXIT": {
@@ -130,53 +322,42 @@ public class ClientHandler implements Runnable {
                         break;
                     }
                 }
+                endResponse(out);
+                request.finished();
+                recordRequest(method, requestStart);
             }
             
             if (!cleanupDone && registeredHostname != null && registeredPort != -1) {
                 System.out.println("Peer " + registeredHostname + ":" + registeredPort + " (IP: " + peerHost + ") disconnected gracefully");
-                peerRegistry.removePeer(registeredHostname);
-                rfcIndex.removePeer(registeredHostname, registeredPort);
+                if (releaseLease(registeredHostname, registeredPort)) {
+                    peerRegistry.removePeer(registeredHostname);
+                    removePeerEntries(registeredHostname, registeredPort);
+                }
             }
         } catch (IOException e) {
             
             if (!cleanupDone && registeredHostname != null && registeredPort != -1) {
                 System.out.println("Peer " + registeredHostname + ":" + registeredPort + " (IP: " + peerHost + ") disconnected with error: " + e.getMessage());
-                peerRegistry.removePeer(registeredHostname);
-                rfcIndex.removePeer(registeredHostname, registeredPort);
+                if (releaseLease(registeredHostname, registeredPort)) {
+                    peerRegistry.removePeer(registeredHostname);
+                    removePeerEntries(registeredHostname, registeredPort);
+                }
+            }
+        } finally {
+            deadline.disarm();
+            if (subscriber != null) {
+                subscriber.close();
             }
+            metrics.counter("server.connections.active").decrement();
         }
     }
     public void handleAdd(BufferedReader in, BufferedWriter out, String literal, String rfcNumber, String version, String peerHost) throws IOException {
-        String secondline = in.readLine();
-        if(secondline == null) {
-            sendBadRequest(out);
-            return;
-        }
-        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
-        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Host:")) {
-            sendBadRequest(out);
-            return;
-        }
-        if(!second_tokens.hasMoreTokens()) {
-            sendBadRequest(out);
-            return;
-        }
-        String host = second_tokens.nextToken();
-        String thirdline = in.readLine();
-        if(thirdline == null) {
-            sendBadRequest(out);
-            return;
-        }
-        StringTokenizer third_tokens = new StringTokenizer(thirdline, " ");
-        if(!third_tokens.hasMoreTokens() || !third_tokens.nextToken().equals("Port:")) {
-            sendBadRequest(out);
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
             return;
         }
-        if(!third_tokens.hasMoreTokens()) {
-            sendBadRequest(out);
-            return;
-        }
-        String port = third_tokens.nextToken();
+        String host = hostPort.host;
+        String port = hostPort.port;
         String fourthLine = in.readLine();
         if(fourthLine == null) {
             sendBadRequest(out);
@@ -209,10 +390,21 @@ public class ClientHandler implements Runnable {
             sendBadRequest(out);
             return;
         }
+        headersRead();
+        if (readReplica != null) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        if (throttled(out, peerHost)) {
+            return;
+        }
         if (registeredHostname == null) {
             registeredHostname = host;
             registeredPort = portInteger;
             System.out.println("[Server] Peer registered: " + host + ":" + portInteger);
+            if (leases != null) {
+                leases.grant(host, portInteger, socket);
+            }
         }
         final String finalHost = host;
         final int finalPort = portInteger;
@@ -220,6 +412,17 @@ public class ClientHandler implements Runnable {
         boolean alreadyHasRfc = existing.stream()
             .anyMatch(r -> r.getHost().equals(finalHost) && r.getUploadPort() == finalPort);
         
+        if (alreadyHasRfc && reconciler != null && reconciler.confirm(rfcNumInteger, host, portInteger)) {
+            System.out.println("[Server] RFC " + rfcNumInteger + " re-registered by restored peer " + host + ":" + portInteger);
+            peerRegistry.addPeer(host, portInteger);
+            addedRfcs.add(rfcNumInteger);
+            request.dispatched();
+            out.write("P2P-CI/1.0 200 OK\r\n");
+            out.write("RFC " + rfcNumInteger + " " + titleHeaderVal + " " + host + " " + portInteger + "\r\n");
+            out.write("\r\n");
+            out.flush();
+            return;
+        }
         if (alreadyHasRfc) {
             System.out.println("[Server] RFC " + rfcNumInteger + " already registered for peer " + host + ":" + portInteger);
             sendBadRequest(out);
@@ -227,43 +430,20 @@ public class ClientHandler implements Runnable {
         }
         peerRegistry.addPeer(host, portInteger);
         rfcIndex.addRfc(rfcNumInteger, titleHeaderVal, host, portInteger);
+        addedRfcs.add(rfcNumInteger);
+        request.dispatched();
         out.write("P2P-CI/1.0 200 OK\r\n");
         out.write("RFC " + rfcNumInteger + " " + titleHeaderVal + " " + host + " " + portInteger + "\r\n");
         out.write("\r\n");
         out.flush();   
         return;
     }
-    public void handleLookUp(BufferedReader in, BufferedWriter out, String literal, String rfcNumber, String version) throws IOException {
-        String secondline = in.readLine();
-        if(secondline == null) {
-            sendBadRequest(out);
-            return;
-        }
-        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
-        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Host:")) {
-            sendBadRequest(out);
-            return;
-        }
-        if(!second_tokens.hasMoreTokens()) {
-            sendBadRequest(out);
+    public void handleLookUp(BufferedReader in, BufferedWriter out, String literal, String rfcNumber, String version, String peerHost) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
             return;
         }
-        String host = second_tokens.nextToken();
-        String thirdline = in.readLine();
-        if(thirdline == null) {
-            sendBadRequest(out);
-            return;
-        }
-        StringTokenizer third_tokens = new StringTokenizer(thirdline, " ");
-        if(!third_tokens.hasMoreTokens() || !third_tokens.nextToken().equals("Port:")) {
-            sendBadRequest(out);
-            return;
-        }
-        if(!third_tokens.hasMoreTokens()) {
-            sendBadRequest(out);
-            return;
-        }
-        String port = third_tokens.nextToken();
+        String port = hostPort.port;
         String fourthLine = in.readLine();
         if(fourthLine == null) {
             sendBadRequest(out);
@@ -289,18 +469,40 @@ public class ClientHandler implements Runnable {
         }
         int rfcNumInteger = -1;
         int portInteger = -1;
+        RfcRanges batch = null;
         try{
-            rfcNumInteger = Integer.parseInt(rfcNumber);
+            if (rfcNumber.indexOf(',') >= 0 || rfcNumber.indexOf('-', 1) >= 0 || rfcNumber.equals("ALL")) {
+                batch = RfcRanges.parse(rfcNumber);
+            } else {
+                rfcNumInteger = Integer.parseInt(rfcNumber);
+            }
             portInteger = Integer.parseInt(port);
-        } catch (NumberFormatException e) {
+        } catch (IllegalArgumentException e) {
             sendBadRequest(out);
             return;
         }
+        headersRead();
+        if (readReplica != null && !readReplica.isFresh()) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        if (throttled(out, peerHost)) {
+            return;
+        }
+        if (batch != null) {
+            sendBatchLookup(out, batch);
+            return;
+        }
         List<RfcRecord> rfcRecords = rfcIndex.lookup(rfcNumInteger);
+        rfcIndex.recordDemand(rfcNumInteger);
+        request.dispatched();
         if(rfcRecords == null || rfcRecords.isEmpty()) {
             sendNotFound(out);
             return;
         }
+        if (loadTracker != null) {
+            rfcRecords = loadTracker.order(rfcRecords);
+        }
         out.write("P2P-CI/1.0 200 OK\r\n");
         out.write("\r\n");
         for (RfcRecord rec : rfcRecords) {
@@ -309,91 +511,381 @@ public class ClientHandler implements Runnable {
         out.write("\r\n");
         out.flush();
     }
+    private void sendBatchLookup(BufferedWriter out, RfcRanges rfcNumbers) throws IOException {
+        List<RfcRecord> rfcRecords = rfcIndex.lookupAll(rfcNumbers);
+        request.dispatched();
+        if (rfcRecords.isEmpty()) {
+            sendNotFound(out);
+            return;
+        }
+        metrics.counter("server.lookup.batch_records").add(rfcRecords.size());
+        boolean countDemand = rfcNumbers.size() <= MAX_DEMAND_BATCH;
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        int start = 0;
+        while (start < rfcRecords.size()) {
+            int end = start + 1;
+            while (end < rfcRecords.size() && rfcRecords.get(end).getRfcNumber() == rfcRecords.get(start).getRfcNumber()) {
+                end++;
+            }
+            List<RfcRecord> holders = rfcRecords.subList(start, end);
+            if (countDemand) {
+                rfcIndex.recordDemand(rfcRecords.get(start).getRfcNumber());
+            }
+            if (loadTracker != null) {
+                holders = loadTracker.order(holders);
+            }
+            for (RfcRecord rec : holders) {
+                out.write("RFC " + rec.getRfcNumber() + " " + rec.getTitle() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+            }
+            start = end;
+        }
+        out.write("\r\n");
+        out.flush();
+    }
     public void handleListAll(BufferedReader in, BufferedWriter out, String literal, String version) throws IOException {
-        String secondline = in.readLine();
-        if(secondline == null) {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String port = hostPort.port;
+        String fourthLine = in.readLine();
+        if(fourthLine == null || !fourthLine.equals("")){
             sendBadRequest(out);
             return;
         }
-        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
-        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Host:")) {
+        int portInteger = -1;
+        try{
+            portInteger = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
             sendBadRequest(out);
             return;
         }
-        if(!second_tokens.hasMoreTokens()) {
+        headersRead();
+        if (readReplica != null && !readReplica.isFresh()) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        List<RfcRecord> rfcRecords = rfcIndex.listAll();
+        request.dispatched();
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        if (rfcRecords != null && !rfcRecords.isEmpty()) {
+            for (RfcRecord rec : rfcRecords) {
+                out.write("RFC " + rec.getRfcNumber() + " " + rec.getTitle() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+            }
+        }
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleListSince(BufferedReader in, BufferedWriter out, long since) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String port = hostPort.port;
+        String fourthLine = in.readLine();
+        if(fourthLine == null || !fourthLine.equals("")){
             sendBadRequest(out);
             return;
         }
-        String host = second_tokens.nextToken();
-        String thirdline = in.readLine();
-        if(thirdline == null) {
+        try{
+            Integer.parseInt(port);
+        } catch (NumberFormatException e) {
             sendBadRequest(out);
             return;
         }
-        StringTokenizer third_tokens = new StringTokenizer(thirdline, " ");
-        if(!third_tokens.hasMoreTokens() || !third_tokens.nextToken().equals("Port:")) {
+        headersRead();
+        if (readReplica != null && !readReplica.isFresh()) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        long current = rfcIndex.version();
+        List<ChangeLog.Change> changes = rfcIndex.changesSince(since);
+        if (changes == null) {
+            List<RfcRecord> rfcRecords = rfcIndex.collect(null);
+            metrics.counter("server.list_since.full").increment();
+            request.dispatched();
+            out.write("P2P-CI/1.0 200 OK\r\n");
+            out.write("Version: " + current + "\r\n");
+            out.write("Sync: full\r\n");
+            out.write("\r\n");
+            for (RfcRecord rec : rfcRecords) {
+                out.write("RFC " + rec.getRfcNumber() + " " + rec.getTitle() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+            }
+        } else {
+            metrics.counter("server.list_since.delta").increment();
+            request.dispatched();
+            out.write("P2P-CI/1.0 200 OK\r\n");
+            out.write("Version: " + current + "\r\n");
+            out.write("Sync: delta\r\n");
+            out.write("\r\n");
+            for (ChangeLog.Change change : changes) {
+                RfcRecord rec = change.getRecord();
+                if (change.isAdded()) {
+                    out.write("ADD RFC " + rec.getRfcNumber() + " " + rec.getTitle() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+                } else {
+                    out.write("DEL RFC " + rec.getRfcNumber() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+                }
+            }
+        }
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleSearch(BufferedReader in, BufferedWriter out, String peerHost) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String port = hostPort.port;
+        String query = null;
+        String limit = null;
+        String headerLine;
+        while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
+            if (headerLine.startsWith("Query:")) {
+                query = headerLine.substring("Query:".length()).trim();
+            } else if (headerLine.startsWith("Limit:")) {
+                limit = headerLine.substring("Limit:".length()).trim();
+            }
+        }
+        if(headerLine == null || query == null || query.isEmpty()){
             sendBadRequest(out);
             return;
         }
-        if(!third_tokens.hasMoreTokens()) {
+        int limitInteger = DEFAULT_SEARCH_LIMIT;
+        try{
+            Integer.parseInt(port);
+            if (limit != null) {
+                limitInteger = Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(limit));
+            }
+        } catch (NumberFormatException e) {
             sendBadRequest(out);
             return;
         }
-        String port = third_tokens.nextToken();
-        String fourthLine = in.readLine();
-        if(fourthLine == null || !fourthLine.equals("")){
+        headersRead();
+        if (readReplica != null && !readReplica.isFresh()) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        if (throttled(out, peerHost)) {
+            return;
+        }
+        if (titleIndex == null) {
             sendBadRequest(out);
             return;
         }
-        int portInteger = -1;
+        List<TitleIndex.Hit> hits = titleIndex.search(query, limitInteger);
+        request.dispatched();
+        if (hits.isEmpty()) {
+            sendNotFound(out);
+            return;
+        }
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        for (TitleIndex.Hit hit : hits) {
+            out.write("RFC " + hit.getRfcNumber() + " " + hit.getTitle() + "\r\n");
+        }
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleHot(BufferedReader in, BufferedWriter out, String peerHost) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
+        String limit = null;
+        String headerLine;
+        while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
+            if (headerLine.startsWith("Limit:")) {
+                limit = headerLine.substring("Limit:".length()).trim();
+            }
+        }
+        if(headerLine == null){
+            sendBadRequest(out);
+            return;
+        }
+        int portInteger;
+        int limitInteger = DEFAULT_HOT_LIMIT;
         try{
             portInteger = Integer.parseInt(port);
+            if (limit != null) {
+                limitInteger = Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(limit));
+            }
         } catch (NumberFormatException e) {
             sendBadRequest(out);
             return;
         }
-        List<RfcRecord> rfcRecords = rfcIndex.listAll();
-        out.write("P2P-CI/1.0 200 OK\r\n");
-        out.write("\r\n");
-        if (rfcRecords != null && !rfcRecords.isEmpty()) {
-            for (RfcRecord rec : rfcRecords) {
-                out.write("RFC " + rec.getRfcNumber() + " " + rec.getTitle() + " " + rec.getHost() + " " + rec.getUploadPort() + "\r\n");
+        headersRead();
+        if (readReplica != null && !readReplica.isFresh()) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        if (throttled(out, peerHost)) {
+            return;
+        }
+        Map<Integer, List<RfcRecord>> hot = rfcIndex.hotUnderReplicated(hotRequestsPerHolder);
+        request.dispatched();
+        int sent = 0;
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<Integer, List<RfcRecord>> e : hot.entrySet()) {
+            if (sent == limitInteger) {
+                break;
+            }
+            List<RfcRecord> holders = e.getValue();
+            boolean held = holders.stream().anyMatch(r -> r.getHost().equals(host) && r.getUploadPort() == portInteger);
+            if (held) {
+                continue;
+            }
+            int perHolder = Math.max(1, hotRequestsPerHolder);
+            int needed = (rfcIndex.demandOf(e.getKey()) + perHolder - 1) / perHolder;
+            if (!hotGrants.tryGrant(e.getKey(), host, portInteger, holders, needed - holders.size())) {
+                continue;
+            }
+            if (loadTracker != null) {
+                holders = loadTracker.order(holders);
+            }
+            for (RfcRecord rec : holders) {
+                body.append("RFC ").append(rec.getRfcNumber()).append(' ').append(rec.getTitle()).append(' ')
+                        .append(rec.getHost()).append(' ').append(rec.getUploadPort()).append("\r\n");
             }
+            sent++;
         }
+        if (sent == 0) {
+            sendNotFound(out);
+            return;
+        }
+        metrics.counter("server.hot.rfcs").add(sent);
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        out.write(body.toString());
         out.write("\r\n");
         out.flush();
     }
-    public void handleExit(BufferedReader in, BufferedWriter out, String literal) throws IOException {
-        String secondline = in.readLine();
-        if(secondline == null) {
+    public void handleSubscribe(BufferedReader in, BufferedWriter out, boolean subscribe, String peerHost) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
+        String fourthLine = in.readLine();
+        if(fourthLine == null || !fourthLine.startsWith("RFC:")) {
             sendBadRequest(out);
             return;
         }
-        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
-        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Host:")) {
+        String fifthLine = in.readLine();
+        if(fifthLine == null || !fifthLine.equals("")){
             sendBadRequest(out);
             return;
         }
-        if(!second_tokens.hasMoreTokens()) {
+        RfcRanges ranges;
+        try{
+            Integer.parseInt(port);
+            ranges = RfcRanges.parse(fourthLine.substring("RFC:".length()));
+        } catch (IllegalArgumentException e) {
             sendBadRequest(out);
             return;
         }
-        String host = second_tokens.nextToken();
-        String thirdline = in.readLine();
-        if(thirdline == null) {
+        headersRead();
+        if (subscriptions == null) {
             sendBadRequest(out);
             return;
         }
-        StringTokenizer third_tokens = new StringTokenizer(thirdline, " ");
-        if(!third_tokens.hasMoreTokens() || !third_tokens.nextToken().equals("Port:")) {
+        if (subscriber == null) {
+            subscriber = subscriptions.subscriber(host + ":" + port + " (" + peerHost + ")", responses, socket);
+        }
+        RfcRanges current = subscribe ? subscriber.add(ranges) : subscriber.remove(ranges);
+        request.dispatched();
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("RFC: " + (current.isEmpty() ? "NONE" : current) + "\r\n");
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleRegister(BufferedReader in, BufferedWriter out, String peerHost) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
+        String fourthLine = in.readLine();
+        if(fourthLine == null || !fourthLine.startsWith("Have:")) {
             sendBadRequest(out);
             return;
         }
-        if(!third_tokens.hasMoreTokens()) {
+        String fifthLine = in.readLine();
+        if(fifthLine == null || !fifthLine.equals("")){
+            sendBadRequest(out);
+            return;
+        }
+        int portInteger;
+        RfcRanges have;
+        try{
+            portInteger = Integer.parseInt(port);
+            String spec = fourthLine.substring("Have:".length()).trim();
+            have = spec.equals("NONE") ? RfcRanges.NONE : RfcRanges.parse(spec);
+        } catch (IllegalArgumentException e) {
             sendBadRequest(out);
             return;
         }
-        String port = third_tokens.nextToken();
+        headersRead();
+        if (readReplica != null || peerHoldings == null) {
+            sendServiceUnavailable(out);
+            return;
+        }
+        if (throttled(out, peerHost)) {
+            return;
+        }
+        if (registeredHostname == null) {
+            registeredHostname = host;
+            registeredPort = portInteger;
+            System.out.println("[Server] Peer registered: " + host + ":" + portInteger);
+            if (leases != null) {
+                leases.grant(host, portInteger, socket);
+            }
+        }
+        peerRegistry.addPeer(host, portInteger);
+        int[] held = peerHoldings.numbersHeldBy(host, portInteger);
+        int[] kept = new int[held.length];
+        int keptCount = 0;
+        int removed = 0;
+        for (int rfcNumber : held) {
+            if (replicator != null && !replicator.owns(rfcNumber)) {
+                continue;
+            }
+            if (have.contains(rfcNumber)) {
+                kept[keptCount++] = rfcNumber;
+                addedRfcs.add(rfcNumber);
+                if (reconciler != null) {
+                    reconciler.confirm(rfcNumber, host, portInteger);
+                }
+            } else if (rfcIndex.removeRfc(rfcNumber, host, portInteger)) {
+                removed++;
+            }
+        }
+        RfcRanges missing = have.minus(RfcRanges.of(kept, keptCount));
+        System.out.println("[Server] Peer " + host + ":" + portInteger + " re-registered: " + keptCount + " held, "
+                + missing.size() + " missing, " + removed + " stale");
+        metrics.counter("server.register.held").add(keptCount);
+        metrics.counter("server.register.missing").add(missing.size());
+        metrics.counter("server.register.stale").add(removed);
+        request.dispatched();
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("Held: " + keptCount + "\r\n");
+        out.write("Missing: " + (missing.isEmpty() ? "NONE" : missing) + "\r\n");
+        out.write("Removed: " + removed + "\r\n");
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleExit(BufferedReader in, BufferedWriter out, String literal) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
         String fourthLine = in.readLine();
         if(fourthLine == null || !fourthLine.equals("")){
             sendBadRequest(out);
@@ -406,16 +898,23 @@ public class ClientHandler implements Runnable {
             sendBadRequest(out);
             return;
         }
+        headersRead();
+        if (readReplica != null) {
+            sendServiceUnavailable(out);
+            return;
+        }
         
         String hostToRemove = registeredHostname != null ? registeredHostname : host;
         int portToRemove = registeredPort != -1 ? registeredPort : portInteger;
         System.out.println("EXIT received from peer " + hostToRemove + ":" + portToRemove + " - performing cleanup...");
         
-        rfcIndex.removePeer(hostToRemove, portToRemove);
+        releaseLease(hostToRemove, portToRemove);
+        removePeerEntries(hostToRemove, portToRemove);
         
         peerRegistry.removePeer(hostToRemove);
         
         cleanupDone = true;
+        request.dispatched();
         
         out.write("P2P-CI/1.0 200 OK\r\n");
         out.write("\r\n");
@@ -428,19 +927,290 @@ public class ClientHandler implements Runnable {
             
         }
     }
+    public void handleReplicate(BufferedReader in, BufferedWriter out) throws IOException {
+        String secondline = in.readLine();
+        if(secondline == null) {
+            sendBadRequest(out);
+            return;
+        }
+        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
+        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Node:")) {
+            sendBadRequest(out);
+            return;
+        }
+        if(!second_tokens.hasMoreTokens()) {
+            sendBadRequest(out);
+            return;
+        }
+        String node = second_tokens.nextToken();
+        String thirdLine = in.readLine();
+        if(thirdLine == null || !thirdLine.equals("")){
+            sendBadRequest(out);
+            return;
+        }
+        int nodeInteger = -1;
+        try{
+            nodeInteger = Integer.parseInt(node);
+        } catch (NumberFormatException e) {
+            sendBadRequest(out);
+            return;
+        }
+        headersRead();
+        if (replicator == null || nodeInteger < 0 || nodeInteger >= replicator.getTopology().size()
+                || nodeInteger == replicator.getNodeId()) {
+            sendBadRequest(out);
+            return;
+        }
+        if (!replicator.isNodeAddress(nodeInteger, socket.getInetAddress())) {
+            metrics.counter("server.replicate.rejected").increment();
+            System.err.println("[Cluster] Rejected REPLICATE as node " + nodeInteger + " from " + socket.getInetAddress().getHostAddress());
+            sendBadRequest(out);
+            return;
+        }
+        deadline.disarm();
+        replicator.ingest(nodeInteger, in);
+    }
+    public void handleReplica(BufferedReader in, BufferedWriter out) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
+        String fourthLine = in.readLine();
+        if(fourthLine == null || !fourthLine.equals("")){
+            sendBadRequest(out);
+            return;
+        }
+        int portInteger = -1;
+        try{
+            portInteger = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            sendBadRequest(out);
+            return;
+        }
+        headersRead();
+        if (replicaPublisher == null) {
+            sendBadRequest(out);
+            return;
+        }
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        out.flush();
+        deadline.disarm();
+        replicaPublisher.serve(host + ":" + portInteger, out);
+    }
+    public void handleHeartbeat(BufferedReader in, BufferedWriter out) throws IOException {
+        HostPort hostPort = readHostPort(in, out);
+        if (hostPort == null) {
+            return;
+        }
+        String host = hostPort.host;
+        String port = hostPort.port;
+        String activeUploads = null;
+        String headerLine;
+        while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
+            if (headerLine.startsWith("Active-Uploads:")) {
+                activeUploads = headerLine.substring("Active-Uploads:".length()).trim();
+            }
+        }
+        if(headerLine == null){
+            sendBadRequest(out);
+            return;
+        }
+        int portInteger = -1;
+        int activeUploadsInteger = -1;
+        try{
+            portInteger = Integer.parseInt(port);
+            if (activeUploads != null) {
+                activeUploadsInteger = Integer.parseInt(activeUploads);
+            }
+        } catch (NumberFormatException e) {
+            sendBadRequest(out);
+            return;
+        }
+        headersRead();
+        if (registeredHostname == null) {
+            sendNotFound(out);
+            return;
+        }
+        if (!registeredHostname.equals(host) || registeredPort != portInteger) {
+            System.out.println("HEARTBEAT for " + host + ":" + portInteger + " rejected on the connection of "
+                    + registeredHostname + ":" + registeredPort);
+            sendBadRequest(out);
+            return;
+        }
+        request.dispatched();
+        if (loadTracker != null && activeUploadsInteger >= 0) {
+            loadTracker.report(host, portInteger, activeUploadsInteger);
+        }
+        if (leases == null) {
+            out.write("P2P-CI/1.0 200 OK\r\n");
+            out.write("\r\n");
+            out.flush();
+            return;
+        }
+        if (!leases.renew(host, portInteger)) {
+            sendNotFound(out);
+            return;
+        }
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("Lease: " + leases.getLeaseSeconds() + "\r\n");
+        out.write("\r\n");
+        out.flush();
+    }
+    public void handleStats(BufferedReader in, BufferedWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+        }
+        out.write("P2P-CI/1.0 200 OK\r\n");
+        out.write("\r\n");
+        for (String stat : metrics.render().split("\n")) {
+            out.write(stat + "\r\n");
+        }
+        out.write("\r\n");
+        out.flush();
+    }
+    private void endResponse(ResponseWriter out) throws IOException {
+        out.end();
+        if (subscriber != null) {
+            subscriber.deliverPending();
+        }
+    }
+    private void headersRead() {
+        request.parsed();
+        if (requestTimeoutMillis > 0) {
+            long elapsedMillis = (System.nanoTime() - requestStart) / 1_000_000;
+            deadline.arm(Math.max(1, requestTimeoutMillis - elapsedMillis), "request");
+        } else {
+            deadline.disarm();
+        }
+    }
+    private void recordRequest(String method, long startNanos) {
+        switch (method) {
+            case "ADD":
+            case "LOOKUP":
+            case "SEARCH":
+            case "LIST":
+            case "EXIT":
+            case "HEARTBEAT":
+            case "STATS":
+            case "SUBSCRIBE":
+            case "UNSUBSCRIBE":
+            case "REGISTER":
+            case "HOT":
+                metrics.counter("server.requests." + method).increment();
+                metrics.histogram("server.latency." + method).record(System.nanoTime() - startNanos);
+                break;
+            case "REPLICATE":
+            case "REPLICA":
+                metrics.counter("server.requests." + method).increment();
+                break;
+            default:
+                metrics.counter("server.requests.unknown").increment();
+        }
+    }
+    private boolean throttled(BufferedWriter out, String peerHost) throws IOException {
+        if (admission == null) {
+            return false;
+        }
+        int retryAfterSeconds = admission.retryAfterSeconds(peerHost);
+        if (retryAfterSeconds == 0) {
+            return false;
+        }
+        metrics.counter("server.throttled").increment();
+        sendBusy(out, retryAfterSeconds);
+        return true;
+    }
+    private boolean releaseLease(String host, int port) {
+        if (leases == null) {
+            return true;
+        }
+        return leases.release(host, port) || !leases.removesEntries();
+    }
+    private void removePeerEntries(String host, int port) {
+        if (replicator == null) {
+            rfcIndex.removePeer(host, port);
+            return;
+        }
+        int removed = 0;
+        for (int rfcNumber : addedRfcs) {
+            if (rfcIndex.removeRfc(rfcNumber, host, port)) {
+                removed++;
+            }
+        }
+        addedRfcs.clear();
+        System.out.println("[Server] Removed " + removed + " RFC entries registered by " + host + ":" + port + " on this node");
+    }
+    private HostPort readHostPort(BufferedReader in, BufferedWriter out) throws IOException {
+        String secondline = in.readLine();
+        if(secondline == null) {
+            sendBadRequest(out);
+            return null;
+        }
+        StringTokenizer second_tokens = new StringTokenizer(secondline, " ");
+        if(!second_tokens.hasMoreTokens() || !second_tokens.nextToken().equals("Host:")) {
+            sendBadRequest(out);
+            return null;
+        }
+        if(!second_tokens.hasMoreTokens()) {
+            sendBadRequest(out);
+            return null;
+        }
+        String host = second_tokens.nextToken();
+        String thirdline = in.readLine();
+        if(thirdline == null) {
+            sendBadRequest(out);
+            return null;
+        }
+        StringTokenizer third_tokens = new StringTokenizer(thirdline, " ");
+        if(!third_tokens.hasMoreTokens() || !third_tokens.nextToken().equals("Port:")) {
+            sendBadRequest(out);
+            return null;
+        }
+        if(!third_tokens.hasMoreTokens()) {
+            sendBadRequest(out);
+            return null;
+        }
+        return new HostPort(host, third_tokens.nextToken());
+    }
     private void sendBadRequest(BufferedWriter out) throws IOException {
+        metrics.counter("server.responses.400").increment();
         out.write("P2P-CI/1.0 400 Bad Request\r\n");
         out.write("\r\n");
         out.flush();
     }
     private void sendVersionNotSupported(BufferedWriter out, String version) throws IOException {
+        metrics.counter("server.responses.505").increment();
         out.write("P2P-CI/1.0 505 P2P-CI Version Not Supported\r\n");
         out.write("\r\n");
         out.flush();
     }
+    private void sendServiceUnavailable(BufferedWriter out) throws IOException {
+        metrics.counter("server.responses.503").increment();
+        out.write("P2P-CI/1.0 503 Service Unavailable\r\n");
+        out.write("\r\n");
+        out.flush();
+    }
+    private void sendBusy(BufferedWriter out, int retryAfterSeconds) throws IOException {
+        metrics.counter("server.responses.503").increment();
+        out.write("P2P-CI/1.0 503 Service Unavailable\r\n");
+        out.write("Retry-After: " + retryAfterSeconds + "\r\n");
+        out.write("\r\n");
+        out.flush();
+    }
     private void sendNotFound(BufferedWriter out) throws IOException {
+        metrics.counter("server.responses.404").increment();
         out.write("P2P-CI/1.0 404 Not Found\r\n");
         out.write("\r\n");
         out.flush();
     }
+    private static final class HostPort {
+        private final String host;
+        private final String port;
+        HostPort(String host, String port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
 }
@@ -0,0 +1,115 @@
+package org.p2p.server;
+import org.p2p.common.ClusterTopology;
+import org.p2p.common.RfcRecord;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+public class ClusterReplicator implements IndexListener {
+    private final ClusterTopology topology;
+    private final int nodeId;
+    private final RfcIndex rfcIndex;
+    private final FollowerLink[] links;
+    public ClusterReplicator(ClusterTopology topology, int nodeId, RfcIndex rfcIndex) {
+        this.topology = topology;
+        this.nodeId = nodeId;
+        this.rfcIndex = rfcIndex;
+        this.links = new FollowerLink[topology.size()];
+        for (int node = 0; node < topology.size(); node++) {
+            if (node != nodeId) {
+                links[node] = new FollowerLink(node);
+            }
+        }
+    }
+    public void start() {
+        for (FollowerLink link : links) {
+            if (link != null) {
+                Thread t = new Thread(link, "ReplicaLink-" + link.node);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+        System.out.println("[Cluster] Node " + nodeId + " of " + topology + " (replication factor " + topology.getReplicationFactor() + ")");
+    }
+    public int getNodeId() {
+        return nodeId;
+    }
+    public ClusterTopology getTopology() {
+        return topology;
+    }
+    public boolean owns(int rfcNumber) {
+        return topology.ownerOf(rfcNumber) == nodeId;
+    }
+    public boolean isNodeAddress(int node, InetAddress address) {
+        try {
+            for (InetAddress nodeAddress : InetAddress.getAllByName(topology.hostOf(node))) {
+                if (nodeAddress.equals(address) || (nodeAddress.isLoopbackAddress() && address.isLoopbackAddress())) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException e) {
+            System.err.println("[Cluster] Cannot resolve node " + node + " (" + topology.hostOf(node) + "): " + e.getMessage());
+        }
+        return false;
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        publish(record.getRfcNumber(), ReplicationFeed.addLine(record));
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        publish(record.getRfcNumber(), ReplicationFeed.delLine(record));
+    }
+    private void publish(int rfcNumber, String line) {
+        if (!owns(rfcNumber)) {
+            return;
+        }
+        for (int node : topology.replicasOf(rfcNumber)) {
+            if (links[node] != null) {
+                links[node].feed.enqueue(line);
+            }
+        }
+    }
+    public void ingest(int sourceNode, BufferedReader in) throws IOException {
+        System.out.println("[Cluster] Receiving replication stream from node " + sourceNode);
+        ReplicationFeed.ingest("node " + sourceNode, in, rfcIndex, rfc -> topology.ownerOf(rfc) == sourceNode, null, null);
+        System.out.println("[Cluster] Replication stream from node " + sourceNode + " closed");
+    }
+    private class FollowerLink implements Runnable {
+        private final int node;
+        private final ReplicationFeed feed;
+        FollowerLink(int node) {
+            this.node = node;
+            this.feed = new ReplicationFeed("node " + node);
+        }
+        @Override
+        public void run() {
+            long backoffMillis = 500;
+            while (true) {
+                try (Socket socket = new Socket(topology.hostOf(node), topology.portOf(node))) {
+                    BufferedWriter out = new BufferedWriter(
+                            new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                    out.write("REPLICATE P2P-CI/1.0\r\n");
+                    out.write("Node: " + nodeId + "\r\n");
+                    out.write("\r\n");
+                    backoffMillis = 500;
+                    System.out.println("[Cluster] Replication link to node " + node + " established");
+                    feed.pump(out, () -> rfcIndex.collect(rfc -> owns(rfc) && topology.isReplica(node, rfc)));
+                } catch (IOException e) {
+                    System.err.println("[Cluster] Replication link to node " + node + " down: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, 10_000);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+public class HotGrants {
+    private static final long GRANT_TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private final Map<Integer, Map<String, Long>> grants = new ConcurrentHashMap<>();
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::evictExpired, 60, 60, TimeUnit.SECONDS);
+    }
+    public boolean tryGrant(int rfcNumber, String host, int uploadPort, List<RfcRecord> holders, int slots) {
+        String requester = key(host, uploadPort);
+        long now = System.nanoTime();
+        boolean[] granted = new boolean[1];
+        grants.compute(rfcNumber, (rfc, byRequester) -> {
+            if (byRequester == null) {
+                byRequester = new HashMap<>();
+            }
+            byRequester.values().removeIf(at -> now - at > GRANT_TTL_NANOS);
+            for (RfcRecord holder : holders) {
+                byRequester.remove(key(holder.getHost(), holder.getUploadPort()));
+            }
+            if (byRequester.containsKey(requester) || byRequester.size() < slots) {
+                byRequester.putIfAbsent(requester, now);
+                granted[0] = true;
+            }
+            return byRequester.isEmpty() ? null : byRequester;
+        });
+        return granted[0];
+    }
+    public int outstanding() {
+        int total = 0;
+        for (Map<String, Long> byRequester : grants.values()) {
+            total += byRequester.size();
+        }
+        return total;
+    }
+    void evictExpired() {
+        long now = System.nanoTime();
+        for (Integer rfcNumber : grants.keySet()) {
+            grants.computeIfPresent(rfcNumber, (rfc, byRequester) -> {
+                byRequester.values().removeIf(at -> now - at > GRANT_TTL_NANOS);
+                return byRequester.isEmpty() ? null : byRequester;
+            });
+        }
+    }
+    private static String key(String host, int uploadPort) {
+        return host + ":" + uploadPort;
+    }
+}
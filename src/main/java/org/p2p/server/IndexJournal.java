@@ -0,0 +1,343 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+public class IndexJournal implements IndexListener {
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_REMOVE_PEER = 3;
+    private static final int SNAPSHOT_MAGIC = 0x50324349;
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private final Path dataDir;
+    private final Object compactionLock = new Object();
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private volatile FileChannel wal;
+    private long walSeq;
+    private long walBytes;
+    private boolean dirty;
+    public IndexJournal(File dataDirectory) {
+        this.dataDir = dataDirectory.toPath();
+    }
+    public synchronized List<RfcRecord> recover() throws IOException {
+        Files.createDirectories(dataDir);
+        Map<String, Map<Integer, RfcRecord>> state = new LinkedHashMap<>();
+        long snapshotSeq = readSnapshot(state);
+        long maxSeq = snapshotSeq;
+        int replayed = 0;
+        for (long seq : walSequences()) {
+            if (seq <= snapshotSeq) {
+                Files.deleteIfExists(walPath(seq));
+                continue;
+            }
+            replayed += replay(walPath(seq), state);
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        openWal(Math.max(maxSeq + 1, 1));
+        List<RfcRecord> records = flatten(state);
+        System.out.println("[IndexJournal] Recovered " + records.size() + " RFC entries (snapshot seq " + snapshotSeq +
+                ", " + replayed + " WAL events replayed)");
+        return records;
+    }
+    public void start(ScheduledExecutorService scheduler, int flushMillis, int snapshotIntervalSeconds) {
+        scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::compact, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        append(OP_ADD, record.getRfcNumber(), record.getHost(), record.getUploadPort(), record.getTitle());
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        append(OP_REMOVE, record.getRfcNumber(), record.getHost(), record.getUploadPort(), "");
+    }
+    public synchronized void flush() {
+        if (wal == null) {
+            return;
+        }
+        try {
+            writePending();
+            if (!dirty) {
+                return;
+            }
+            wal.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("[IndexJournal] WAL flush failed: " + e.getMessage());
+        }
+    }
+    public void compact() {
+        synchronized (compactionLock) {
+            long sealedSeq;
+            synchronized (this) {
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    System.err.println("[IndexJournal] WAL append failed: " + e.getMessage());
+                }
+                if (walBytes == 0) {
+                    return;
+                }
+                sealedSeq = walSeq;
+                try {
+                    wal.force(false);
+                    wal.close();
+                    openWal(sealedSeq + 1);
+                } catch (IOException e) {
+                    System.err.println("[IndexJournal] WAL rotation failed: " + e.getMessage());
+                    return;
+                }
+            }
+            try {
+                Map<String, Map<Integer, RfcRecord>> state = new LinkedHashMap<>();
+                long snapshotSeq = readSnapshot(state);
+                for (long seq : walSequences()) {
+                    if (seq > snapshotSeq && seq <= sealedSeq) {
+                        replay(walPath(seq), state);
+                    }
+                }
+                List<RfcRecord> records = flatten(state);
+                writeSnapshot(records, sealedSeq);
+                for (long seq : walSequences()) {
+                    if (seq <= sealedSeq) {
+                        Files.deleteIfExists(walPath(seq));
+                    }
+                }
+                System.out.println("[IndexJournal] Snapshot written: " + records.size() + " RFC entries up to WAL seq " + sealedSeq);
+            } catch (IOException e) {
+                System.err.println("[IndexJournal] Snapshot failed: " + e.getMessage());
+            }
+        }
+    }
+    public synchronized void close() {
+        flush();
+        try {
+            if (wal != null) {
+                wal.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+    private void append(byte op, int rfcNumber, String host, int uploadPort, String title) {
+        if (wal == null) {
+            return;
+        }
+        ByteBuffer payload = encode(op, rfcNumber, host, uploadPort, title);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.remaining());
+        frame.putInt(payload.remaining());
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        frame.flip();
+        pending.add(frame);
+    }
+    private void writePending() throws IOException {
+        List<ByteBuffer> batch = new ArrayList<>();
+        long size = 0;
+        ByteBuffer frame;
+        while ((frame = pending.poll()) != null) {
+            batch.add(frame);
+            size += frame.remaining();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] frames = batch.toArray(new ByteBuffer[0]);
+        for (long written = 0; written < size; ) {
+            written += wal.write(frames);
+        }
+        walBytes += size;
+        dirty = true;
+    }
+    private void openWal(long seq) throws IOException {
+        wal = FileChannel.open(walPath(seq), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        walSeq = seq;
+        walBytes = wal.size();
+    }
+    private Path walPath(long seq) {
+        return dataDir.resolve(String.format("%s%012d%s", WAL_PREFIX, seq, WAL_SUFFIX));
+    }
+    private List<Long> walSequences() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dataDir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.startsWith(WAL_PREFIX) && n.endsWith(WAL_SUFFIX))
+                 .forEach(n -> {
+                     try {
+                         seqs.add(Long.parseLong(n.substring(WAL_PREFIX.length(), n.length() - WAL_SUFFIX.length())));
+                     } catch (NumberFormatException e) {
+                     }
+                 });
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+    private int replay(Path file, Map<String, Map<Integer, RfcRecord>> state) throws IOException {
+        int events = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() == 0) {
+                return 0;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            while (buf.remaining() >= 8) {
+                int len = buf.getInt();
+                int expectedCrc = buf.getInt();
+                if (len <= 0 || len > buf.remaining()) {
+                    System.err.println("[IndexJournal] Truncated record at end of " + file.getFileName() + ", ignoring tail");
+                    break;
+                }
+                ByteBuffer payload = buf.slice();
+                payload.limit(len);
+                CRC32 crc = new CRC32();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != expectedCrc) {
+                    System.err.println("[IndexJournal] Corrupt record in " + file.getFileName() + ", ignoring tail");
+                    break;
+                }
+                buf.position(buf.position() + len);
+                apply(payload, state);
+                events++;
+            }
+        }
+        return events;
+    }
+    private static void apply(ByteBuffer payload, Map<String, Map<Integer, RfcRecord>> state) {
+        byte op = payload.get();
+        int rfcNumber = payload.getInt();
+        int uploadPort = payload.getInt();
+        String host = readString(payload);
+        String title = readString(payload);
+        switch (op) {
+            case OP_ADD:
+                state.computeIfAbsent(peerKey(host, uploadPort), k -> new LinkedHashMap<>())
+                     .putIfAbsent(rfcNumber, new RfcRecord(rfcNumber, title, host, uploadPort));
+                break;
+            case OP_REMOVE: {
+                Map<Integer, RfcRecord> held = state.get(peerKey(host, uploadPort));
+                if (held != null) {
+                    held.remove(rfcNumber);
+                    if (held.isEmpty()) {
+                        state.remove(peerKey(host, uploadPort));
+                    }
+                }
+                break;
+            }
+            case OP_REMOVE_PEER:
+                if (uploadPort == -1) {
+                    state.keySet().removeIf(k -> k.startsWith(host + "\t"));
+                } else {
+                    state.remove(peerKey(host, uploadPort));
+                }
+                break;
+            default:
+                System.err.println("[IndexJournal] Unknown WAL op " + op + ", skipping");
+        }
+    }
+    private long readSnapshot(Map<String, Map<Integer, RfcRecord>> state) throws IOException {
+        Path file = dataDir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.remaining() < 20 || buf.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Invalid snapshot file " + file);
+            }
+            ByteBuffer body = buf.slice();
+            body.limit(body.remaining() - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            buf.position(buf.limit() - 4);
+            if ((int) crc.getValue() != buf.getInt()) {
+                throw new IOException("Snapshot checksum mismatch in " + file);
+            }
+            long seq = body.getLong();
+            int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                apply(body, state);
+            }
+            return seq;
+        }
+    }
+    private void writeSnapshot(List<RfcRecord> records, long seq) throws IOException {
+        Path tmp = dataDir.resolve(SNAPSHOT_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            buf.putInt(SNAPSHOT_MAGIC);
+            buf.putLong(seq);
+            buf.putInt(records.size());
+            crc.update(buf.array(), 4, 12);
+            for (RfcRecord r : records) {
+                ByteBuffer rec = encode(OP_ADD, r.getRfcNumber(), r.getHost(), r.getUploadPort(), r.getTitle());
+                crc.update(rec.duplicate());
+                if (buf.remaining() < rec.remaining()) {
+                    drain(buf, ch);
+                }
+                if (buf.remaining() < rec.remaining()) {
+                    while (rec.hasRemaining()) {
+                        ch.write(rec);
+                    }
+                } else {
+                    buf.put(rec);
+                }
+            }
+            drain(buf, ch);
+            buf.putInt((int) crc.getValue());
+            drain(buf, ch);
+            ch.force(true);
+        }
+        Files.move(tmp, dataDir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    private static void drain(ByteBuffer buf, FileChannel ch) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+    private static ByteBuffer encode(byte op, int rfcNumber, String host, int uploadPort, String title) {
+        byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 4 + 4 + hostBytes.length + 4 + titleBytes.length);
+        buf.put(op);
+        buf.putInt(rfcNumber);
+        buf.putInt(uploadPort);
+        buf.putInt(hostBytes.length);
+        buf.put(hostBytes);
+        buf.putInt(titleBytes.length);
+        buf.put(titleBytes);
+        buf.flip();
+        return buf;
+    }
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    private static String peerKey(String host, int uploadPort) {
+        return host + "\t" + uploadPort;
+    }
+    private static List<RfcRecord> flatten(Map<String, Map<Integer, RfcRecord>> state) {
+        List<RfcRecord> records = new ArrayList<>();
+        for (Map<Integer, RfcRecord> held : state.values()) {
+            records.addAll(held.values());
+        }
+        return records;
+    }
+}
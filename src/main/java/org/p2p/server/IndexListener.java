@@ -0,0 +1,12 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.List;
+public interface IndexListener {
+    void rfcAdded(RfcRecord record);
+    void rfcRemoved(RfcRecord record);
+    default void peerRemoved(String host, int uploadPort, List<RfcRecord> removed) {
+        for (RfcRecord record : removed) {
+            rfcRemoved(record);
+        }
+    }
+}
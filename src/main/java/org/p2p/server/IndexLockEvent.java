@@ -0,0 +1,48 @@
+package org.p2p.server;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+@Name("org.p2p.server.IndexLock")
+@Label("RfcIndex Shard Lock")
+@Category({"P2P-CI", "Server"})
+@StackTrace(false)
+class IndexLockEvent extends Event {
+    @Label("Shard")
+    int shard;
+    @Label("Operation")
+    String operation;
+    @Label("Exclusive")
+    boolean exclusive;
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitNanos;
+    @Label("Hold Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long holdNanos;
+    private transient long acquiredAt;
+    void waiting(int shard, String operation, boolean exclusive) {
+        if (isEnabled()) {
+            this.shard = shard;
+            this.operation = operation;
+            this.exclusive = exclusive;
+            begin();
+            acquiredAt = System.nanoTime();
+        }
+    }
+    void acquired() {
+        if (isEnabled()) {
+            long now = System.nanoTime();
+            waitNanos = now - acquiredAt;
+            acquiredAt = now;
+        }
+    }
+    void released() {
+        if (isEnabled()) {
+            holdNanos = System.nanoTime() - acquiredAt;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntPredicate;
+final class IndexSegment {
+    private static final int MAGIC = 0x52464353;
+    private static final int HEADER_BYTES = 8;
+    private static final int SLOT_BYTES = 12;
+    private final Path path;
+    private final MappedByteBuffer buf;
+    private final int count;
+    private final long size;
+    private final Set<String> peers;
+    private IndexSegment(Path path, Set<String> peers) throws IOException {
+        this.path = path;
+        this.peers = peers;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment " + path + " is larger than 2 GB");
+            }
+            this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Invalid segment file " + path);
+        }
+        this.count = buf.getInt(4);
+    }
+    static IndexSegment write(Path path, SortedMap<Integer, List<RfcRecord>> entries) throws IOException {
+        Set<String> peers = new HashSet<>();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + entries.size() * SLOT_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(entries.size());
+            long offset = header.capacity();
+            List<ByteBuffer> blocks = new ArrayList<>(entries.size());
+            for (Map.Entry<Integer, List<RfcRecord>> e : entries.entrySet()) {
+                ByteBuffer block = encodeBlock(e.getValue(), peers);
+                header.putInt(e.getKey());
+                header.putLong(offset);
+                offset += block.remaining();
+                blocks.add(block);
+            }
+            header.flip();
+            writeFully(ch, header);
+            for (ByteBuffer block : blocks) {
+                writeFully(ch, block);
+            }
+        }
+        return new IndexSegment(path, peers);
+    }
+    static IndexSegment merge(Path path, List<IndexSegment> inputs, IntPredicate skip, boolean dropTombstones) throws IOException {
+        int total = 0;
+        for (IndexSegment seg : inputs) {
+            total += seg.count;
+        }
+        int[] numbers = new int[total];
+        int[] sources = new int[total];
+        int[] slots = new int[total];
+        int[] cursors = new int[inputs.size()];
+        int n = 0;
+        while (true) {
+            int best = -1;
+            int bestNumber = 0;
+            for (int s = inputs.size() - 1; s >= 0; s--) {
+                if (cursors[s] < inputs.get(s).count) {
+                    int num = inputs.get(s).numberAt(cursors[s]);
+                    if (best == -1 || num < bestNumber) {
+                        best = s;
+                        bestNumber = num;
+                    }
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            for (int s = 0; s < inputs.size(); s++) {
+                if (s != best && cursors[s] < inputs.get(s).count && inputs.get(s).numberAt(cursors[s]) == bestNumber) {
+                    cursors[s]++;
+                }
+            }
+            if (!skip.test(bestNumber) && !(dropTombstones && inputs.get(best).isTombstone(cursors[best]))) {
+                numbers[n] = bestNumber;
+                sources[n] = best;
+                slots[n] = cursors[best];
+                n++;
+            }
+            cursors[best]++;
+        }
+        Set<String> peers = new HashSet<>();
+        for (IndexSegment seg : inputs) {
+            peers.addAll(seg.peers);
+        }
+        List<FileChannel> channels = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (IndexSegment seg : inputs) {
+                channels.add(FileChannel.open(seg.path, StandardOpenOption.READ));
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + n * SLOT_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(n);
+            long offset = header.capacity();
+            for (int i = 0; i < n; i++) {
+                IndexSegment seg = inputs.get(sources[i]);
+                header.putInt(numbers[i]);
+                header.putLong(offset);
+                offset += seg.blockEnd(slots[i]) - seg.blockStart(slots[i]);
+            }
+            header.flip();
+            writeFully(out, header);
+            for (int i = 0; i < n; i++) {
+                IndexSegment seg = inputs.get(sources[i]);
+                long start = seg.blockStart(slots[i]);
+                long len = seg.blockEnd(slots[i]) - start;
+                FileChannel in = channels.get(sources[i]);
+                while (len > 0) {
+                    long moved = in.transferTo(start, len, out);
+                    start += moved;
+                    len -= moved;
+                }
+            }
+        } finally {
+            for (FileChannel ch : channels) {
+                ch.close();
+            }
+        }
+        return new IndexSegment(path, peers);
+    }
+    int count() {
+        return count;
+    }
+    long size() {
+        return size;
+    }
+    int find(int rfcNumber) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int num = numberAt(mid);
+            if (num < rfcNumber) {
+                lo = mid + 1;
+            } else if (num > rfcNumber) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    int numberAt(int slot) {
+        return buf.getInt(HEADER_BYTES + slot * SLOT_BYTES);
+    }
+    boolean isTombstone(int slot) {
+        return buf.getInt((int) blockStart(slot)) == 0;
+    }
+    List<RfcRecord> recordsAt(int slot) {
+        int rfcNumber = numberAt(slot);
+        ByteBuffer block = buf.duplicate();
+        block.position((int) blockStart(slot));
+        int holders = block.getInt();
+        List<RfcRecord> records = new ArrayList<>(holders);
+        for (int i = 0; i < holders; i++) {
+            int port = block.getInt();
+            String host = readString(block);
+            String title = readString(block);
+            records.add(new RfcRecord(rfcNumber, title, host, port));
+        }
+        return records;
+    }
+    boolean mayContainPeer(String host, int uploadPort) {
+        if (uploadPort != -1) {
+            return peers.contains(host + "\t" + uploadPort);
+        }
+        for (String key : peers) {
+            if (key.startsWith(host + "\t")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[IndexSegment] Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+    private long blockStart(int slot) {
+        return buf.getLong(HEADER_BYTES + slot * SLOT_BYTES + 4);
+    }
+    private long blockEnd(int slot) {
+        return slot + 1 < count ? blockStart(slot + 1) : size;
+    }
+    private static ByteBuffer encodeBlock(List<RfcRecord> records, Set<String> peers) {
+        int len = 4;
+        List<byte[]> strings = new ArrayList<>(records.size() * 2);
+        for (RfcRecord r : records) {
+            byte[] host = r.getHost().getBytes(StandardCharsets.UTF_8);
+            byte[] title = r.getTitle().getBytes(StandardCharsets.UTF_8);
+            strings.add(host);
+            strings.add(title);
+            len += 12 + host.length + title.length;
+            peers.add(r.getHost() + "\t" + r.getUploadPort());
+        }
+        ByteBuffer block = ByteBuffer.allocate(len);
+        block.putInt(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            block.putInt(records.get(i).getUploadPort());
+            block.putInt(strings.get(2 * i).length);
+            block.put(strings.get(2 * i));
+            block.putInt(strings.get(2 * i + 1).length);
+            block.put(strings.get(2 * i + 1));
+        }
+        block.flip();
+        return block;
+    }
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.p2p.server;
+import org.p2p.common.TimerWheel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+public class LeaseManager {
+    private final TimerWheel timerWheel;
+    private final long leaseMillis;
+    private final RfcIndex rfcIndex;
+    private final PeerRegistry peerRegistry;
+    private final boolean bulkRemove;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Queue<Lease> expired = new ConcurrentLinkedQueue<>();
+    public LeaseManager(TimerWheel timerWheel, int leaseSeconds, RfcIndex rfcIndex, PeerRegistry peerRegistry, boolean bulkRemove) {
+        this.timerWheel = timerWheel;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.rfcIndex = rfcIndex;
+        this.peerRegistry = peerRegistry;
+        this.bulkRemove = bulkRemove;
+    }
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+    public int getLeaseSeconds() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(leaseMillis);
+    }
+    public boolean removesEntries() {
+        return bulkRemove;
+    }
+    public int activeCount() {
+        return leases.size();
+    }
+    public void grant(String host, int uploadPort, Closeable connection) {
+        String key = key(host, uploadPort);
+        Lease lease = new Lease(host, uploadPort, connection);
+        lease.timeout = timerWheel.schedule(leaseMillis, () -> check(lease));
+        Lease previous = leases.put(key, lease);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+    }
+    public boolean renew(String host, int uploadPort) {
+        Lease lease = leases.get(key(host, uploadPort));
+        if (lease == null) {
+            return false;
+        }
+        lease.expiresAt = System.currentTimeMillis() + leaseMillis;
+        return true;
+    }
+    public boolean release(String host, int uploadPort) {
+        Lease lease = leases.remove(key(host, uploadPort));
+        if (lease == null) {
+            return false;
+        }
+        lease.timeout.cancel();
+        return true;
+    }
+    private void check(Lease lease) {
+        long remaining = lease.expiresAt - System.currentTimeMillis();
+        if (remaining > 0) {
+            lease.timeout = timerWheel.schedule(remaining, () -> check(lease));
+            return;
+        }
+        if (leases.remove(key(lease.host, lease.uploadPort), lease)) {
+            expired.add(lease);
+        }
+    }
+    void sweep() {
+        if (expired.isEmpty()) {
+            return;
+        }
+        Map<String, Set<Integer>> peers = new HashMap<>();
+        int count = 0;
+        Lease lease;
+        while ((lease = expired.poll()) != null) {
+            System.out.println("[LeaseManager] Lease expired for peer " + lease.host + ":" + lease.uploadPort);
+            peers.computeIfAbsent(lease.host, k -> new HashSet<>()).add(lease.uploadPort);
+            peerRegistry.removePeer(lease.host);
+            try {
+                lease.connection.close();
+            } catch (IOException e) {
+            }
+            count++;
+        }
+        if (bulkRemove) {
+            rfcIndex.removePeers(peers);
+        }
+        System.out.println("[LeaseManager] Expired " + count + " peer lease(s)");
+    }
+    private static String key(String host, int uploadPort) {
+        return host + ":" + uploadPort;
+    }
+    private final class Lease {
+        private final String host;
+        private final int uploadPort;
+        private final Closeable connection;
+        private volatile long expiresAt;
+        private volatile TimerWheel.Timeout timeout;
+        Lease(String host, int uploadPort, Closeable connection) {
+            this.host = host;
+            this.uploadPort = uploadPort;
+            this.connection = connection;
+            this.expiresAt = System.currentTimeMillis() + leaseMillis;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+public class PeerHoldings implements IndexListener {
+    private final Map<String, Set<Integer>> byPeer = new ConcurrentHashMap<>();
+    public void seed(List<RfcRecord> records) {
+        for (RfcRecord record : records) {
+            rfcAdded(record);
+        }
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        byPeer.computeIfAbsent(key(record.getHost(), record.getUploadPort()), k -> ConcurrentHashMap.newKeySet())
+                .add(record.getRfcNumber());
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        byPeer.computeIfPresent(key(record.getHost(), record.getUploadPort()), (k, held) -> {
+            held.remove(record.getRfcNumber());
+            return held.isEmpty() ? null : held;
+        });
+    }
+    public int[] numbersHeldBy(String host, int uploadPort) {
+        Set<Integer> held = byPeer.get(key(host, uploadPort));
+        if (held == null) {
+            return new int[0];
+        }
+        int[] numbers = held.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(numbers);
+        return numbers;
+    }
+    public int peerCount() {
+        return byPeer.size();
+    }
+    private static String key(String host, int uploadPort) {
+        return host + ":" + uploadPort;
+    }
+}
@@ -0,0 +1,90 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+public class PeerLoadTracker {
+    private static final double HANDOUT_DECAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final double ACTIVE_UPLOAD_WEIGHT = 4.0;
+    private static final long REPORT_TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final double IDLE_SCORE = 0.01;
+    private final Map<String, Load> loads = new ConcurrentHashMap<>();
+    private final AtomicInteger rotation = new AtomicInteger();
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::evictIdle, 60, 60, TimeUnit.SECONDS);
+    }
+    public void report(String host, int uploadPort, int activeUploads) {
+        loadOf(host, uploadPort).report(activeUploads, System.nanoTime());
+    }
+    public List<RfcRecord> order(List<RfcRecord> records) {
+        int n = records.size();
+        if (n == 0) {
+            return records;
+        }
+        long now = System.nanoTime();
+        int offset = Math.floorMod(rotation.getAndIncrement(), n);
+        List<Ranked> ranked = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RfcRecord r = records.get((offset + i) % n);
+            Load load = loads.get(key(r.getHost(), r.getUploadPort()));
+            ranked.add(new Ranked(r, load == null ? 0 : load.score(now)));
+        }
+        ranked.sort(Comparator.comparingDouble(rr -> rr.score));
+        List<RfcRecord> ordered = new ArrayList<>(n);
+        for (Ranked rr : ranked) {
+            ordered.add(rr.record);
+        }
+        RfcRecord first = ordered.get(0);
+        loadOf(first.getHost(), first.getUploadPort()).handedOut(now);
+        return ordered;
+    }
+    public int trackedPeers() {
+        return loads.size();
+    }
+    void evictIdle() {
+        long now = System.nanoTime();
+        loads.values().removeIf(load -> load.score(now) < IDLE_SCORE);
+    }
+    private Load loadOf(String host, int uploadPort) {
+        return loads.computeIfAbsent(key(host, uploadPort), k -> new Load());
+    }
+    private static String key(String host, int uploadPort) {
+        return host + ":" + uploadPort;
+    }
+    private static class Ranked {
+        private final RfcRecord record;
+        private final double score;
+        Ranked(RfcRecord record, double score) {
+            this.record = record;
+            this.score = score;
+        }
+    }
+    private static class Load {
+        private double handouts;
+        private long handoutsAt;
+        private int activeUploads;
+        private long reportedAt;
+        private boolean reported;
+        synchronized void handedOut(long now) {
+            handouts = decayed(now) + 1;
+            handoutsAt = now;
+        }
+        synchronized void report(int activeUploads, long now) {
+            this.activeUploads = activeUploads;
+            this.reportedAt = now;
+            this.reported = true;
+        }
+        synchronized double score(long now) {
+            double uploads = reported && now - reportedAt < REPORT_TTL_NANOS ? activeUploads * ACTIVE_UPLOAD_WEIGHT : 0;
+            return uploads + decayed(now);
+        }
+        private double decayed(long now) {
+            return handouts == 0 ? 0 : handouts * Math.exp(-(now - handoutsAt) / HANDOUT_DECAY_NANOS);
+        }
+    }
+}
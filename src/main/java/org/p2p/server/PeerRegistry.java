@@ -13,6 +13,9 @@ public class PeerRegistry {
     public void removePeer(String host) {
         peers.remove(host);
     }
+    public int size() {
+        return peers.size();
+    }
     public Map<String, PeerInfo> snapshot() {
         return Map.copyOf(peers);
     }
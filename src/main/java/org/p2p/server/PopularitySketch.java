@@ -0,0 +1,104 @@
+package org.p2p.server;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+public class PopularitySketch {
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+    private final int width;
+    private final AtomicIntegerArray counters;
+    private final int candidateLimit;
+    private final Map<Integer, Integer> candidates = new ConcurrentHashMap<>();
+    private volatile int admitThreshold;
+    public PopularitySketch(int width, int candidateLimit) {
+        this.width = Integer.highestOneBit(Math.max(16, width) - 1) << 1;
+        this.counters = new AtomicIntegerArray(DEPTH * this.width);
+        this.candidateLimit = candidateLimit;
+    }
+    public int record(int key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(slot(d, key)));
+        }
+        Integer known = candidates.get(key);
+        if (known != null) {
+            if (estimate > known) {
+                candidates.replace(key, known, estimate);
+            }
+        } else if (estimate >= admitThreshold) {
+            admit(key, estimate);
+        }
+        return estimate;
+    }
+    public int estimate(int key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            estimate = Math.min(estimate, counters.get(slot(d, key)));
+        }
+        return estimate;
+    }
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, v -> v >>> 1);
+        }
+        synchronized (this) {
+            for (Iterator<Map.Entry<Integer, Integer>> it = candidates.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, Integer> e = it.next();
+                int halved = e.getValue() >>> 1;
+                if (halved == 0) {
+                    it.remove();
+                } else {
+                    e.setValue(halved);
+                }
+            }
+            admitThreshold = candidates.size() < candidateLimit ? 0 : minimum();
+        }
+    }
+    public List<Integer> top() {
+        List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : candidates.entrySet()) {
+            ranked.add(Map.entry(e.getKey(), e.getValue()));
+        }
+        ranked.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        List<Integer> keys = new ArrayList<>(ranked.size());
+        for (Map.Entry<Integer, Integer> e : ranked) {
+            keys.add(e.getKey());
+        }
+        return keys;
+    }
+    public int candidateCount() {
+        return candidates.size();
+    }
+    private synchronized void admit(int key, int estimate) {
+        if (candidates.put(key, estimate) != null || candidates.size() <= candidateLimit) {
+            return;
+        }
+        int coldest = key;
+        int coldestEstimate = estimate;
+        for (Map.Entry<Integer, Integer> e : candidates.entrySet()) {
+            if (e.getValue() < coldestEstimate) {
+                coldest = e.getKey();
+                coldestEstimate = e.getValue();
+            }
+        }
+        candidates.remove(coldest);
+        admitThreshold = minimum() + 1;
+    }
+    private int minimum() {
+        int min = Integer.MAX_VALUE;
+        for (int v : candidates.values()) {
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+    private int slot(int row, int key) {
+        int h = (key ^ SEEDS[row]) * 0x9E3779B1;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return row * width + (h & (width - 1));
+    }
+}
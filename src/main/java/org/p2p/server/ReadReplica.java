@@ -0,0 +1,68 @@
+package org.p2p.server;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+public class ReadReplica implements Runnable {
+    private final String primaryHost;
+    private final int primaryPort;
+    private final int localPort;
+    private final RfcIndex rfcIndex;
+    private final long maxStalenessMillis;
+    private volatile long lastHeardMillis = 0;
+    private volatile boolean synced = false;
+    public ReadReplica(String primaryHost, int primaryPort, int localPort, RfcIndex rfcIndex, long maxStalenessMillis) {
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.localPort = localPort;
+        this.rfcIndex = rfcIndex;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+    public boolean isFresh() {
+        return synced && System.currentTimeMillis() - lastHeardMillis <= maxStalenessMillis;
+    }
+    public String getPrimary() {
+        return primaryHost + ":" + primaryPort;
+    }
+    @Override
+    public void run() {
+        long backoffMillis = 500;
+        while (true) {
+            try (Socket socket = new Socket(primaryHost, primaryPort)) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                out.write("REPLICA P2P-CI/1.0\r\n");
+                out.write("Host: " + InetAddress.getLocalHost().getHostName() + "\r\n");
+                out.write("Port: " + localPort + "\r\n");
+                out.write("\r\n");
+                out.flush();
+                String statusLine = in.readLine();
+                if (statusLine == null || !statusLine.startsWith("P2P-CI/1.0 200")) {
+                    System.err.println("[ReadReplica] Primary " + getPrimary() + " refused replication: " + statusLine);
+                } else {
+                    in.readLine();
+                    backoffMillis = 500;
+                    System.out.println("[ReadReplica] Streaming index updates from primary " + getPrimary());
+                    ReplicationFeed.ingest("primary " + getPrimary(), in, rfcIndex, rfc -> true,
+                            () -> lastHeardMillis = System.currentTimeMillis(),
+                            () -> {
+                                synced = true;
+                                System.out.println("[ReadReplica] In sync with primary " + getPrimary());
+                            });
+                }
+            } catch (IOException e) {
+                System.err.println("[ReadReplica] Lost primary " + getPrimary() + ": " + e.getMessage());
+            }
+            synced = false;
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoffMillis = Math.min(backoffMillis * 2, 10_000);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+public class ReplicaPublisher implements IndexListener {
+    private final RfcIndex rfcIndex;
+    private final List<ReplicationFeed> feeds = new CopyOnWriteArrayList<>();
+    public ReplicaPublisher(RfcIndex rfcIndex) {
+        this.rfcIndex = rfcIndex;
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        if (feeds.isEmpty()) {
+            return;
+        }
+        String line = ReplicationFeed.addLine(record);
+        for (ReplicationFeed feed : feeds) {
+            feed.enqueue(line);
+        }
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        if (feeds.isEmpty()) {
+            return;
+        }
+        String line = ReplicationFeed.delLine(record);
+        for (ReplicationFeed feed : feeds) {
+            feed.enqueue(line);
+        }
+    }
+    public int replicaCount() {
+        return feeds.size();
+    }
+    public void serve(String replicaName, BufferedWriter out) throws IOException {
+        ReplicationFeed feed = new ReplicationFeed("replica " + replicaName);
+        feeds.add(feed);
+        System.out.println("[ReplicaPublisher] Read replica " + replicaName + " subscribed (" + feeds.size() + " active)");
+        try {
+            feed.pump(out, () -> rfcIndex.collect(null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            feeds.remove(feed);
+            System.out.println("[ReplicaPublisher] Read replica " + replicaName + " unsubscribed (" + feeds.size() + " active)");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+class ReplicationFeed {
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final long PING_INTERVAL_MILLIS = 1000;
+    private final String name;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean resync = true;
+    ReplicationFeed(String name) {
+        this.name = name;
+    }
+    void enqueue(String line) {
+        if (!queue.offer(line)) {
+            queue.clear();
+            resync = true;
+        }
+    }
+    void pump(BufferedWriter out, Supplier<List<RfcRecord>> snapshot) throws IOException, InterruptedException {
+        resync = true;
+        while (true) {
+            if (resync) {
+                resync = false;
+                List<RfcRecord> records = snapshot.get();
+                out.write("RESET\r\n");
+                for (RfcRecord r : records) {
+                    out.write(addLine(r));
+                    out.write("\r\n");
+                }
+                out.write("SYNCED\r\n");
+                out.flush();
+                System.out.println("[Replication] Sent " + records.size() + " entries to " + name + " for resync");
+            }
+            String line = queue.poll(PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (line == null) {
+                out.write("PING\r\n");
+                out.flush();
+                continue;
+            }
+            out.write(line);
+            out.write("\r\n");
+            if (queue.isEmpty()) {
+                out.flush();
+            }
+        }
+    }
+    static void ingest(String source, BufferedReader in, RfcIndex rfcIndex, IntPredicate resetScope,
+                       Runnable onHeard, Runnable onSynced) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (onHeard != null) {
+                onHeard.run();
+            }
+            String[] parts = line.split(" ", 5);
+            try {
+                switch (parts[0]) {
+                    case "RESET": {
+                        int removed = rfcIndex.removeRfcsWhere(resetScope);
+                        System.out.println("[Replication] Resync from " + source + ": dropped " + removed + " replicated entries");
+                        break;
+                    }
+                    case "ADD":
+                        if (parts.length == 5) {
+                            rfcIndex.addRfc(Integer.parseInt(parts[1]), parts[4], parts[3], Integer.parseInt(parts[2]));
+                        }
+                        break;
+                    case "DEL":
+                        if (parts.length >= 4) {
+                            rfcIndex.removeRfc(Integer.parseInt(parts[1]), parts[3], Integer.parseInt(parts[2]));
+                        }
+                        break;
+                    case "SYNCED":
+                        if (onSynced != null) {
+                            onSynced.run();
+                        }
+                        break;
+                    case "PING":
+                        break;
+                    default:
+                        System.err.println("[Replication] Unknown replication line from " + source + ": " + line);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("[Replication] Malformed replication line from " + source + ": " + line);
+            }
+        }
+    }
+    static String addLine(RfcRecord r) {
+        return "ADD " + r.getRfcNumber() + " " + r.getUploadPort() + " " + r.getHost() + " " + r.getTitle();
+    }
+    static String delLine(RfcRecord r) {
+        return "DEL " + r.getRfcNumber() + " " + r.getUploadPort() + " " + r.getHost();
+    }
+}
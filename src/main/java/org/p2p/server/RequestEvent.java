@@ -0,0 +1,62 @@
+package org.p2p.server;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+@Name("org.p2p.server.Request")
+@Label("P2P-CI Request")
+@Category({"P2P-CI", "Server"})
+@StackTrace(false)
+class RequestEvent extends Event {
+    @Label("Method")
+    String method;
+    @Label("Peer Address")
+    String peerAddress;
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseNanos;
+    @Label("Dispatch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long dispatchNanos;
+    @Label("Respond Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long respondNanos;
+    private transient long phaseStart;
+    void started(String method, String peerAddress) {
+        if (isEnabled()) {
+            this.method = method;
+            this.peerAddress = peerAddress;
+            this.phaseStart = System.nanoTime();
+            begin();
+        }
+    }
+    void parsed() {
+        if (isEnabled()) {
+            long now = System.nanoTime();
+            parseNanos = now - phaseStart;
+            phaseStart = now;
+        }
+    }
+    void dispatched() {
+        if (isEnabled()) {
+            long now = System.nanoTime();
+            dispatchNanos = now - phaseStart;
+            phaseStart = now;
+        }
+    }
+    void finished() {
+        if (isEnabled()) {
+            long now = System.nanoTime();
+            if (parseNanos == 0) {
+                parseNanos = now - phaseStart;
+            } else if (dispatchNanos == 0) {
+                dispatchNanos = now - phaseStart;
+            } else {
+                respondNanos = now - phaseStart;
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.p2p.server;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.locks.ReentrantLock;
+class ResponseWriter extends BufferedWriter {
+    private final ReentrantLock owner = new ReentrantLock();
+    ResponseWriter(Writer out) {
+        super(out);
+    }
+    boolean tryBegin() {
+        return owner.tryLock();
+    }
+    void end() throws IOException {
+        if (!owner.isHeldByCurrentThread()) {
+            return;
+        }
+        try {
+            super.flush();
+        } finally {
+            owner.unlock();
+        }
+    }
+    private void begin() {
+        if (!owner.isHeldByCurrentThread()) {
+            owner.lock();
+        }
+    }
+    @Override
+    public void write(int c) throws IOException {
+        begin();
+        super.write(c);
+    }
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        begin();
+        super.write(cbuf, off, len);
+    }
+    @Override
+    public void write(String s, int off, int len) throws IOException {
+        begin();
+        super.write(s, off, len);
+    }
+    @Override
+    public void flush() throws IOException {
+        begin();
+        super.flush();
+    }
+}
@@ -0,0 +1,45 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+public class RestoreReconciler {
+    private final RfcIndex rfcIndex;
+    private final Map<String, RfcRecord> unconfirmed = new ConcurrentHashMap<>();
+    public RestoreReconciler(RfcIndex rfcIndex) {
+        this.rfcIndex = rfcIndex;
+    }
+    public void track(Collection<RfcRecord> restored) {
+        for (RfcRecord rec : restored) {
+            unconfirmed.put(key(rec.getRfcNumber(), rec.getHost(), rec.getUploadPort()), rec);
+        }
+    }
+    public boolean confirm(int rfcNumber, String host, int uploadPort) {
+        return !unconfirmed.isEmpty() && unconfirmed.remove(key(rfcNumber, host, uploadPort)) != null;
+    }
+    public int pendingCount() {
+        return unconfirmed.size();
+    }
+    public void scheduleExpiry(ScheduledExecutorService scheduler, int graceSeconds) {
+        if (unconfirmed.isEmpty()) {
+            return;
+        }
+        System.out.println("[Reconciler] " + unconfirmed.size() + " restored RFC entries awaiting re-registration for " + graceSeconds + "s");
+        scheduler.schedule(this::expire, graceSeconds, TimeUnit.SECONDS);
+    }
+    void expire() {
+        int dropped = 0;
+        for (Iterator<RfcRecord> it = unconfirmed.values().iterator(); it.hasNext(); ) {
+            RfcRecord rec = it.next();
+            it.remove();
+            if (rfcIndex.removeRfc(rec.getRfcNumber(), rec.getHost(), rec.getUploadPort())) {
+                dropped++;
+            }
+        }
+        System.out.println("[Reconciler] Grace period over: dropped " + dropped + " restored RFC entries that were not re-registered");
+    }
+    private static String key(int rfcNumber, String host, int uploadPort) {
+        return rfcNumber + "\t" + host + "\t" + uploadPort;
+    }
+}
@@ -1,80 +1,244 @@
 package org.p2p.server;
+import org.p2p.common.RfcRanges;
 import org.p2p.common.RfcRecord;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
 public class RfcIndex {
-    
-    private final Map<Integer, List<RfcRecord>> index = new ConcurrentHashMap<>();
-    public synchronized void addRfc(int rfcNumber, String title, String host, int uploadPort) {
-        List<RfcRecord> list = index.computeIfAbsent(rfcNumber, k -> new ArrayList<>());
-        
-        boolean alreadyThere = list.stream()
-                .anyMatch(r -> r.getHost().equals(host) && r.getUploadPort() == uploadPort);
-        if (!alreadyThere) {
-            list.add(new RfcRecord(rfcNumber, title, host, uploadPort));
-            System.out.println("[RfcIndex] Added RFC " + rfcNumber + " for host " + host + ":" + uploadPort + " (Total peers with this RFC: " + list.size() + ")");
-        } else {
-            System.out.println("[RfcIndex] RFC " + rfcNumber + " already registered for host " + host + ":" + uploadPort);
+
+    private static final int POINT_LOOKUP_LIMIT = 4096;
+    private static final int DEMAND_SKETCH_WIDTH = 1 << 14;
+    private static final int HOT_CANDIDATES = 256;
+    private final RfcIndexShard[] shards;
+    private final List<IndexListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService fanOut;
+    private final ChangeLog changeLog;
+    private final PopularitySketch demand = new PopularitySketch(DEMAND_SKETCH_WIDTH, HOT_CANDIDATES);
+    public RfcIndex() {
+        this(1, false, null, 0);
+    }
+    public RfcIndex(int shardCount, boolean singleWriterShards, SegmentStore[] coldStores, int maxHotRfcs) {
+        this(shardCount, singleWriterShards, coldStores, maxHotRfcs, 100_000);
+    }
+    public RfcIndex(int shardCount, boolean singleWriterShards, SegmentStore[] coldStores, int maxHotRfcs, int changeLogSize) {
+        this.changeLog = new ChangeLog(changeLogSize);
+        listeners.add(changeLog);
+        this.shards = new RfcIndexShard[shardCount];
+        int maxHotPerShard = Math.max(1, maxHotRfcs / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            SegmentStore coldStore = coldStores != null ? coldStores[i] : null;
+            shards[i] = new RfcIndexShard(i, listeners, coldStore, maxHotPerShard, singleWriterShards);
+        }
+        this.fanOut = shardCount > 1
+                ? Executors.newFixedThreadPool(Math.min(shardCount, Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread t = new Thread(r, "RfcIndexFanOut");
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
+    }
+    public void addListener(IndexListener listener) {
+        listeners.add(listener);
+    }
+    public long version() {
+        return changeLog.version();
+    }
+    public List<ChangeLog.Change> changesSince(long version) {
+        return changeLog.since(version);
+    }
+    public void recordDemand(int rfcNumber) {
+        demand.record(rfcNumber);
+    }
+    public int demandOf(int rfcNumber) {
+        return demand.estimate(rfcNumber);
+    }
+    public void decayDemand() {
+        demand.decay();
+    }
+    public int hotCandidateCount() {
+        return demand.candidateCount();
+    }
+    public Map<Integer, List<RfcRecord>> hotUnderReplicated(int requestsPerHolder) {
+        Map<Integer, List<RfcRecord>> hot = new LinkedHashMap<>();
+        for (int rfcNumber : demand.top()) {
+            List<RfcRecord> holders = lookup(rfcNumber);
+            if (!holders.isEmpty() && demand.estimate(rfcNumber) >= (long) requestsPerHolder * holders.size()) {
+                hot.put(rfcNumber, holders);
+            }
+        }
+        return hot;
+    }
+    public int shardCount() {
+        return shards.length;
+    }
+    public long entryCount() {
+        long total = 0;
+        for (RfcIndexShard shard : shards) {
+            total += shard.entryCount();
+        }
+        return total;
+    }
+    public long hotRfcCount() {
+        long total = 0;
+        for (RfcIndexShard shard : shards) {
+            total += shard.hotRfcCount();
+        }
+        return total;
+    }
+    public long segmentCount() {
+        long total = 0;
+        for (RfcIndexShard shard : shards) {
+            total += shard.segmentCount();
+        }
+        return total;
+    }
+    public void addRfc(int rfcNumber, String title, String host, int uploadPort) {
+        shardFor(rfcNumber).addRfc(rfcNumber, title, host, uploadPort);
+    }
+    public List<RfcRecord> lookup(int rfcNumber) {
+        return shardFor(rfcNumber).lookup(rfcNumber);
+    }
+    public List<RfcRecord> lookupAll(RfcRanges rfcNumbers) {
+        if (rfcNumbers.size() > POINT_LOOKUP_LIMIT) {
+            List<RfcRecord> found = collect(rfcNumbers::contains);
+            found.sort(Comparator.comparingInt(RfcRecord::getRfcNumber));
+            return found;
+        }
+        int[][] keys = new int[shards.length][];
+        int[] counts = new int[shards.length];
+        rfcNumbers.forEach(rfcNumber -> {
+            int s = shardIndex(rfcNumber);
+            if (keys[s] == null) {
+                keys[s] = new int[16];
+            } else if (counts[s] == keys[s].length) {
+                keys[s] = Arrays.copyOf(keys[s], counts[s] * 2);
+            }
+            keys[s][counts[s]++] = rfcNumber;
+        });
+        List<RfcRecord> found = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            if (counts[s] > 0) {
+                shards[s].lookupAll(keys[s], counts[s], found);
+            }
         }
+        found.sort(Comparator.comparingInt(RfcRecord::getRfcNumber));
+        return found;
     }
-    public synchronized List<RfcRecord> lookup(int rfcNumber) {
-        return index.containsKey(rfcNumber)
-                ? List.copyOf(index.get(rfcNumber))
-                : List.of();
+    public boolean removeRfc(int rfcNumber, String host, int uploadPort) {
+        return shardFor(rfcNumber).removeRfc(rfcNumber, host, uploadPort);
     }
-    public synchronized List<RfcRecord> listAll() {
+    public void restore(Collection<RfcRecord> records) {
+        List<List<RfcRecord>> perShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            perShard.add(new ArrayList<>());
+        }
+        for (RfcRecord rec : records) {
+            perShard.get(shardIndex(rec.getRfcNumber())).add(rec);
+        }
+        fanOut(shard -> {
+            shard.restore(perShard.get(shard.id()));
+            return null;
+        });
+        System.out.println("[RfcIndex] Restored " + records.size() + " RFC entries across " + shards.length + " shard(s)");
+    }
+    public List<RfcRecord> listAll() {
         List<RfcRecord> all = new ArrayList<>();
-        for (List<RfcRecord> l : index.values()) {
-            all.addAll(l);
+        for (List<RfcRecord> part : fanOut(shard -> {
+            List<RfcRecord> records = new ArrayList<>();
+            shard.collect(null, records);
+            return records;
+        })) {
+            all.addAll(part);
         }
-        System.out.println("[RfcIndex] LIST ALL request: returning " + all.size() + " RFC entries across " + index.size() + " RFC numbers");
+        System.out.println("[RfcIndex] LIST ALL request: returning " + all.size() + " RFC entries across " + shards.length + " shard(s)");
         for (RfcRecord rec : all) {
             System.out.println("[RfcIndex]   RFC " + rec.getRfcNumber() + " at " + rec.getHost() + ":" + rec.getUploadPort());
         }
         return List.copyOf(all);
     }
-    
-    public synchronized void removeHost(String host) {
+    public List<RfcRecord> collect(IntPredicate rfcFilter) {
+        List<RfcRecord> all = new ArrayList<>();
+        for (List<RfcRecord> part : fanOut(shard -> {
+            List<RfcRecord> records = new ArrayList<>();
+            shard.collect(rfcFilter, records);
+            return records;
+        })) {
+            all.addAll(part);
+        }
+        return all;
+    }
+    public int removeRfcsWhere(IntPredicate rfcFilter) {
+        int totalRemoved = 0;
+        for (int removed : fanOut(shard -> shard.removeWhere(rfcFilter))) {
+            totalRemoved += removed;
+        }
+        return totalRemoved;
+    }
+
+    public void removeHost(String host) {
         System.out.println("[RfcIndex] WARNING: removeHost(hostname) called - this removes ALL peers with hostname: " + host);
         System.out.println("[RfcIndex] Use removePeer(hostname, port) instead to remove specific peer");
-        removePeer(host, -1); 
+        removePeer(host, -1);
     }
-    public synchronized void removePeer(String host, int uploadPort) {
+    public void removePeer(String host, int uploadPort) {
         if (uploadPort == -1) {
-            
+
             System.out.println("[RfcIndex] Removing all RFCs for hostname: " + host + " (all ports)");
         } else {
             System.out.println("[RfcIndex] Removing all RFCs for peer: " + host + ":" + uploadPort);
         }
         int totalRemoved = 0;
-        
-        for (Map.Entry<Integer, List<RfcRecord>> entry : index.entrySet()) {
-            int rfcNumber = entry.getKey();
-            List<RfcRecord> list = entry.getValue();
-            int sizeBefore = list.size();
-            list.removeIf(r -> {
-                boolean matches;
-                if (uploadPort == -1) {
-                    
-                    matches = r.getHost().equals(host);
-                } else {
-                    
-                    matches = r.getHost().equals(host) && r.getUploadPort() == uploadPort;
-                }
-                if (matches) {
-                    System.out.println("[RfcIndex]   Removing RFC " + rfcNumber + " from " + r.getHost() + ":" + r.getUploadPort());
-                }
-                return matches;
-            });
-            int sizeAfter = list.size();
-            int removed = sizeBefore - sizeAfter;
-            totalRemoved += removed;
-            if (removed > 0) {
-                System.out.println("[RfcIndex]   RFC " + rfcNumber + ": " + removed + " entry(ies) removed, " + sizeAfter + " remaining");
+        for (List<RfcRecord> removed : fanOut(shard -> shard.removePeer(host, uploadPort))) {
+            totalRemoved += removed.size();
+        }
+        System.out.println("[RfcIndex] Cleanup complete: " + totalRemoved + " RFC entries removed");
+    }
+    public int removePeers(Map<String, Set<Integer>> peers) {
+        if (peers.isEmpty()) {
+            return 0;
+        }
+        int totalRemoved = 0;
+        for (Map<String, List<RfcRecord>> removed : fanOut(shard -> shard.removePeers(peers))) {
+            for (List<RfcRecord> records : removed.values()) {
+                totalRemoved += records.size();
+            }
+        }
+        System.out.println("[RfcIndex] Bulk removal of " + peers.size() + " host(s): " + totalRemoved + " RFC entries removed");
+        return totalRemoved;
+    }
+    public void spillColdEntries() {
+        fanOut(shard -> {
+            shard.spillColdEntries();
+            return null;
+        });
+    }
+    private <T> List<T> fanOut(Function<RfcIndexShard, T> op) {
+        if (fanOut == null) {
+            List<T> results = new ArrayList<>(shards.length);
+            for (RfcIndexShard shard : shards) {
+                results.add(op.apply(shard));
             }
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (RfcIndexShard shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> op.apply(shard), fanOut));
         }
-        int emptyLists = (int) index.values().stream().filter(List::isEmpty).count();
-        index.values().removeIf(List::isEmpty);
-        System.out.println("[RfcIndex] Cleanup complete: " + totalRemoved + " RFC entries removed, " + emptyLists + " empty RFC numbers removed");
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+    private RfcIndexShard shardFor(int rfcNumber) {
+        return shards[shardIndex(rfcNumber)];
+    }
+    private int shardIndex(int rfcNumber) {
+        int h = rfcNumber * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
     }
 }
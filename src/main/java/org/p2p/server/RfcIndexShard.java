@@ -0,0 +1,414 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+class RfcIndexShard {
+    private final int id;
+    private final Map<Integer, List<RfcRecord>> index;
+    private final List<IndexListener> listeners;
+    private final SegmentStore coldStore;
+    private final int maxHotRfcs;
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final ExecutorService writer;
+    private volatile int entries;
+    RfcIndexShard(int id, List<IndexListener> listeners, SegmentStore coldStore, int maxHotRfcs, boolean singleWriter) {
+        this.id = id;
+        this.listeners = listeners;
+        this.coldStore = coldStore;
+        this.maxHotRfcs = maxHotRfcs;
+        ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        this.writeLock = rw.writeLock();
+        this.readLock = rw.readLock();
+        this.index = coldStore != null ? new LinkedHashMap<>() : new HashMap<>();
+        this.writer = singleWriter
+                ? Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "RfcIndexShard-" + id);
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
+    }
+    int id() {
+        return id;
+    }
+    int entryCount() {
+        return entries;
+    }
+    int hotRfcCount() {
+        IndexLockEvent event = lock(readLock, "hotRfcCount");
+        try {
+            return index.size();
+        } finally {
+            unlock(readLock, event);
+        }
+    }
+    int segmentCount() {
+        return coldStore == null ? 0 : coldStore.segmentCount();
+    }
+    void addRfc(int rfcNumber, String title, String host, int uploadPort) {
+        write("addRfc", () -> {
+            List<RfcRecord> list = hotList(rfcNumber, true);
+            boolean alreadyThere = list.stream()
+                    .anyMatch(r -> r.getHost().equals(host) && r.getUploadPort() == uploadPort);
+            if (!alreadyThere) {
+                RfcRecord record = new RfcRecord(rfcNumber, title, host, uploadPort);
+                list.add(record);
+                entries++;
+                for (IndexListener listener : listeners) {
+                    listener.rfcAdded(record);
+                }
+                System.out.println("[RfcIndex] Added RFC " + rfcNumber + " for host " + host + ":" + uploadPort + " (Total peers with this RFC: " + list.size() + ")");
+            } else {
+                System.out.println("[RfcIndex] RFC " + rfcNumber + " already registered for host " + host + ":" + uploadPort);
+            }
+            return null;
+        });
+    }
+    List<RfcRecord> lookup(int rfcNumber) {
+        IndexLockEvent event = lock(readLock, "lookup");
+        try {
+            List<RfcRecord> list = liveList(rfcNumber);
+            return list != null
+                    ? List.copyOf(list)
+                    : List.of();
+        } finally {
+            unlock(readLock, event);
+        }
+    }
+    void lookupAll(int[] rfcNumbers, int count, List<RfcRecord> found) {
+        IndexLockEvent event = lock(readLock, "lookupAll");
+        try {
+            for (int i = 0; i < count; i++) {
+                List<RfcRecord> list = liveList(rfcNumbers[i]);
+                if (list != null) {
+                    found.addAll(list);
+                }
+            }
+        } finally {
+            unlock(readLock, event);
+        }
+    }
+    boolean removeRfc(int rfcNumber, String host, int uploadPort) {
+        return write("removeRfc", () -> {
+            List<RfcRecord> list = hotList(rfcNumber, false);
+            if (list == null) {
+                return false;
+            }
+            RfcRecord removed = null;
+            for (Iterator<RfcRecord> it = list.iterator(); it.hasNext(); ) {
+                RfcRecord r = it.next();
+                if (r.getHost().equals(host) && r.getUploadPort() == uploadPort) {
+                    it.remove();
+                    removed = r;
+                    break;
+                }
+            }
+            if (list.isEmpty()) {
+                index.remove(rfcNumber);
+            }
+            if (removed == null) {
+                return false;
+            }
+            entries--;
+            for (IndexListener listener : listeners) {
+                listener.rfcRemoved(removed);
+            }
+            System.out.println("[RfcIndex] Removed RFC " + rfcNumber + " for host " + host + ":" + uploadPort);
+            return true;
+        });
+    }
+    void restore(Collection<RfcRecord> records) {
+        write("restore", () -> {
+            for (RfcRecord rec : records) {
+                List<RfcRecord> list = hotList(rec.getRfcNumber(), true);
+                boolean alreadyThere = list.stream()
+                        .anyMatch(r -> r.getHost().equals(rec.getHost()) && r.getUploadPort() == rec.getUploadPort());
+                if (!alreadyThere) {
+                    list.add(rec);
+                    entries++;
+                }
+                if (coldStore != null && index.size() > maxHotRfcs) {
+                    spillEldest();
+                }
+            }
+            return null;
+        });
+    }
+    void collect(IntPredicate filter, List<RfcRecord> all) {
+        IndexLockEvent event = lock(readLock, "collect");
+        try {
+            for (Map.Entry<Integer, List<RfcRecord>> entry : index.entrySet()) {
+                if (filter == null || filter.test(entry.getKey())) {
+                    all.addAll(entry.getValue());
+                }
+            }
+            if (coldStore != null) {
+                coldStore.forEachLive((rfcNumber, records) -> {
+                    if (filter == null || filter.test(rfcNumber)) {
+                        all.addAll(records);
+                    }
+                });
+            }
+        } finally {
+            unlock(readLock, event);
+        }
+    }
+    int removeWhere(IntPredicate filter) {
+        return write("removeWhere", () -> {
+            int[] removedCount = new int[1];
+            if (coldStore != null) {
+                SortedMap<Integer, List<RfcRecord>> tombstones = new TreeMap<>();
+                coldStore.forEachLive((rfcNumber, records) -> {
+                    if (filter.test(rfcNumber)) {
+                        tombstones.put(rfcNumber, List.of());
+                        removedCount[0] += records.size();
+                        for (RfcRecord removed : records) {
+                            for (IndexListener listener : listeners) {
+                                listener.rfcRemoved(removed);
+                            }
+                        }
+                    }
+                });
+                overwriteCold(tombstones);
+            }
+            List<RfcRecord> removedRecords = new ArrayList<>();
+            for (Iterator<Map.Entry<Integer, List<RfcRecord>>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, List<RfcRecord>> entry = it.next();
+                if (filter.test(entry.getKey())) {
+                    removedRecords.addAll(entry.getValue());
+                    it.remove();
+                }
+            }
+            removedCount[0] += removedRecords.size();
+            entries -= removedCount[0];
+            for (RfcRecord removed : removedRecords) {
+                for (IndexListener listener : listeners) {
+                    listener.rfcRemoved(removed);
+                }
+            }
+            return removedCount[0];
+        });
+    }
+    List<RfcRecord> removePeer(String host, int uploadPort) {
+        return write("removePeer", () -> {
+            List<RfcRecord> removedRecords = new ArrayList<>();
+            if (coldStore != null) {
+                SortedMap<Integer, List<RfcRecord>> survivors = new TreeMap<>();
+                for (int rfcNumber : coldStore.numbersHeldBy(host, uploadPort)) {
+                    List<RfcRecord> kept = new ArrayList<>();
+                    for (RfcRecord r : coldStore.get(rfcNumber)) {
+                        if (r.getHost().equals(host) && (uploadPort == -1 || r.getUploadPort() == uploadPort)) {
+                            removedRecords.add(r);
+                            System.out.println("[RfcIndex]   Removing RFC " + rfcNumber + " from " + r.getHost() + ":" + r.getUploadPort());
+                        } else {
+                            kept.add(r);
+                        }
+                    }
+                    survivors.put(rfcNumber, kept);
+                }
+                overwriteCold(survivors);
+            }
+            for (Iterator<Map.Entry<Integer, List<RfcRecord>>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, List<RfcRecord>> entry = it.next();
+                int rfcNumber = entry.getKey();
+                List<RfcRecord> list = entry.getValue();
+                int sizeBefore = list.size();
+                list.removeIf(r -> {
+                    boolean matches = r.getHost().equals(host) && (uploadPort == -1 || r.getUploadPort() == uploadPort);
+                    if (matches) {
+                        removedRecords.add(r);
+                        System.out.println("[RfcIndex]   Removing RFC " + rfcNumber + " from " + r.getHost() + ":" + r.getUploadPort());
+                    }
+                    return matches;
+                });
+                int removed = sizeBefore - list.size();
+                if (removed > 0) {
+                    System.out.println("[RfcIndex]   RFC " + rfcNumber + ": " + removed + " entry(ies) removed, " + list.size() + " remaining");
+                }
+                if (list.isEmpty()) {
+                    it.remove();
+                }
+            }
+            entries -= removedRecords.size();
+            if (!removedRecords.isEmpty()) {
+                for (IndexListener listener : listeners) {
+                    listener.peerRemoved(host, uploadPort, removedRecords);
+                }
+            }
+            return removedRecords;
+        });
+    }
+    Map<String, List<RfcRecord>> removePeers(Map<String, Set<Integer>> peers) {
+        return write("removePeers", () -> {
+            Map<String, List<RfcRecord>> removedByPeer = new HashMap<>();
+            int removedCount = 0;
+            if (coldStore != null) {
+                Set<Integer> held = new TreeSet<>();
+                for (Map.Entry<String, Set<Integer>> peer : peers.entrySet()) {
+                    for (int uploadPort : peer.getValue()) {
+                        held.addAll(coldStore.numbersHeldBy(peer.getKey(), uploadPort));
+                    }
+                }
+                SortedMap<Integer, List<RfcRecord>> survivors = new TreeMap<>();
+                for (int rfcNumber : held) {
+                    List<RfcRecord> kept = new ArrayList<>();
+                    for (RfcRecord r : coldStore.get(rfcNumber)) {
+                        Set<Integer> ports = peers.get(r.getHost());
+                        if (ports != null && ports.contains(r.getUploadPort())) {
+                            removedByPeer.computeIfAbsent(r.getHost() + ":" + r.getUploadPort(), k -> new ArrayList<>()).add(r);
+                            removedCount++;
+                        } else {
+                            kept.add(r);
+                        }
+                    }
+                    survivors.put(rfcNumber, kept);
+                }
+                overwriteCold(survivors);
+            }
+            for (Iterator<Map.Entry<Integer, List<RfcRecord>>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                List<RfcRecord> list = it.next().getValue();
+                for (Iterator<RfcRecord> records = list.iterator(); records.hasNext(); ) {
+                    RfcRecord r = records.next();
+                    Set<Integer> ports = peers.get(r.getHost());
+                    if (ports != null && ports.contains(r.getUploadPort())) {
+                        records.remove();
+                        removedByPeer.computeIfAbsent(r.getHost() + ":" + r.getUploadPort(), k -> new ArrayList<>()).add(r);
+                        removedCount++;
+                    }
+                }
+                if (list.isEmpty()) {
+                    it.remove();
+                }
+            }
+            entries -= removedCount;
+            for (List<RfcRecord> removed : removedByPeer.values()) {
+                RfcRecord first = removed.get(0);
+                for (IndexListener listener : listeners) {
+                    listener.peerRemoved(first.getHost(), first.getUploadPort(), removed);
+                }
+            }
+            return removedByPeer;
+        });
+    }
+    void spillColdEntries() {
+        if (coldStore == null) {
+            return;
+        }
+        write("spillColdEntries", () -> {
+            if (index.size() > maxHotRfcs) {
+                spillEldest();
+            }
+            return null;
+        });
+    }
+    private void spillEldest() {
+        int target = maxHotRfcs - maxHotRfcs / 4;
+        SortedMap<Integer, List<RfcRecord>> batch = new TreeMap<>();
+        Iterator<Map.Entry<Integer, List<RfcRecord>>> it = index.entrySet().iterator();
+        while (it.hasNext() && index.size() - batch.size() > target) {
+            Map.Entry<Integer, List<RfcRecord>> eldest = it.next();
+            batch.put(eldest.getKey(), eldest.getValue());
+        }
+        try {
+            coldStore.spill(batch);
+            index.keySet().removeAll(batch.keySet());
+        } catch (IOException e) {
+            System.err.println("[RfcIndex] Shard " + id + " failed to spill cold entries: " + e.getMessage());
+        }
+    }
+    private void overwriteCold(SortedMap<Integer, List<RfcRecord>> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        try {
+            coldStore.spill(replacements);
+        } catch (IOException e) {
+            System.err.println("[RfcIndex] Shard " + id + " failed to write cold removals, keeping them in memory: " + e.getMessage());
+            for (Map.Entry<Integer, List<RfcRecord>> entry : replacements.entrySet()) {
+                coldStore.hide(entry.getKey());
+                if (!entry.getValue().isEmpty()) {
+                    index.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+    private <T> T write(String operation, Supplier<T> op) {
+        if (writer == null) {
+            return underWriteLock(operation, op);
+        }
+        Future<T> result = writer.submit(() -> underWriteLock(operation, op));
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    private <T> T underWriteLock(String operation, Supplier<T> op) {
+        IndexLockEvent event = lock(writeLock, operation);
+        try {
+            return op.get();
+        } finally {
+            unlock(writeLock, event);
+        }
+    }
+    private IndexLockEvent lock(Lock lock, String operation) {
+        IndexLockEvent event = new IndexLockEvent();
+        event.waiting(id, operation, lock == writeLock);
+        lock.lock();
+        event.acquired();
+        return event;
+    }
+    private void unlock(Lock lock, IndexLockEvent event) {
+        lock.unlock();
+        event.released();
+    }
+    private List<RfcRecord> liveList(int rfcNumber) {
+        List<RfcRecord> list = index.get(rfcNumber);
+        if (list == null && coldStore != null) {
+            list = coldStore.get(rfcNumber);
+        }
+        return list;
+    }
+    private List<RfcRecord> hotList(int rfcNumber, boolean create) {
+        List<RfcRecord> list = coldStore != null ? index.remove(rfcNumber) : index.get(rfcNumber);
+        if (list != null && coldStore != null) {
+            index.put(rfcNumber, list);
+        }
+        if (list == null && coldStore != null) {
+            List<RfcRecord> cold = coldStore.take(rfcNumber);
+            if (cold != null) {
+                list = new ArrayList<>(cold);
+                index.put(rfcNumber, list);
+            }
+        }
+        if (list == null && create) {
+            list = new ArrayList<>();
+            index.put(rfcNumber, list);
+        }
+        return list;
+    }
+}
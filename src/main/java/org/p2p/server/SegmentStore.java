@@ -0,0 +1,209 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+public class SegmentStore {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final long MAX_SEGMENT_BYTES = 512L * 1024 * 1024;
+    private static final int TIER_RATIO = 4;
+    private final Path dir;
+    private final int compactionThreshold;
+    private final long maxSegmentBytes;
+    private final Set<Integer> shadowed = ConcurrentHashMap.newKeySet();
+    private volatile List<IndexSegment> segments = List.of();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SegmentCompactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private long nextGeneration = 1;
+    private boolean compacting = false;
+    public SegmentStore(File directory, int compactionThreshold) throws IOException {
+        this(directory, compactionThreshold, MAX_SEGMENT_BYTES);
+    }
+    public SegmentStore(File directory, int compactionThreshold, long maxSegmentBytes) throws IOException {
+        this.dir = directory.toPath();
+        this.compactionThreshold = Math.max(2, compactionThreshold);
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, Integer.MAX_VALUE);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                 .forEach(p -> p.toFile().delete());
+        }
+    }
+    public List<RfcRecord> get(int rfcNumber) {
+        if (shadowed.contains(rfcNumber)) {
+            return null;
+        }
+        List<IndexSegment> current = segments;
+        for (int i = current.size() - 1; i >= 0; i--) {
+            IndexSegment seg = current.get(i);
+            int slot = seg.find(rfcNumber);
+            if (slot >= 0) {
+                return seg.isTombstone(slot) ? null : seg.recordsAt(slot);
+            }
+        }
+        return null;
+    }
+    public synchronized List<RfcRecord> take(int rfcNumber) {
+        List<RfcRecord> records = get(rfcNumber);
+        if (records != null) {
+            shadowed.add(rfcNumber);
+        }
+        return records;
+    }
+    public synchronized void hide(int rfcNumber) {
+        shadowed.add(rfcNumber);
+    }
+    public synchronized void spill(SortedMap<Integer, List<RfcRecord>> entries) throws IOException {
+        IndexSegment seg = IndexSegment.write(segmentPath(nextGeneration++), entries);
+        List<IndexSegment> next = new ArrayList<>(segments);
+        next.add(seg);
+        segments = next;
+        shadowed.removeAll(entries.keySet());
+        System.out.println("[SegmentStore] Spilled " + entries.size() + " cold RFC numbers to segment (" + segments.size() + " segments)");
+        scheduleCompaction();
+    }
+    public synchronized Set<Integer> numbersHeldBy(String host, int uploadPort) {
+        Set<Integer> numbers = new HashSet<>();
+        for (IndexSegment seg : segments) {
+            if (!seg.mayContainPeer(host, uploadPort)) {
+                continue;
+            }
+            for (int slot = 0; slot < seg.count(); slot++) {
+                int rfcNumber = seg.numberAt(slot);
+                if (numbers.contains(rfcNumber) || shadowed.contains(rfcNumber)) {
+                    continue;
+                }
+                List<RfcRecord> live = get(rfcNumber);
+                if (live != null && live.stream().anyMatch(r -> r.getHost().equals(host)
+                        && (uploadPort == -1 || r.getUploadPort() == uploadPort))) {
+                    numbers.add(rfcNumber);
+                }
+            }
+        }
+        return numbers;
+    }
+    public synchronized void forEachLive(BiConsumer<Integer, List<RfcRecord>> consumer) {
+        Set<Integer> seen = new HashSet<>(shadowed);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            IndexSegment seg = segments.get(i);
+            for (int slot = 0; slot < seg.count(); slot++) {
+                int rfcNumber = seg.numberAt(slot);
+                if (seen.add(rfcNumber) && !seg.isTombstone(slot)) {
+                    consumer.accept(rfcNumber, seg.recordsAt(slot));
+                }
+            }
+        }
+    }
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+    public synchronized long largestSegmentBytes() {
+        long largest = 0;
+        for (IndexSegment seg : segments) {
+            largest = Math.max(largest, seg.size());
+        }
+        return largest;
+    }
+    synchronized void awaitCompaction() throws InterruptedException {
+        while (compacting) {
+            wait();
+        }
+    }
+    private synchronized void scheduleCompaction() {
+        if (!compacting && compactionRun() != null) {
+            compacting = true;
+            compactor.submit(this::compact);
+        }
+    }
+    private int[] compactionRun() {
+        int end = segments.size();
+        while (end > 0) {
+            int start = end;
+            long bytes = 0;
+            long smallest = Long.MAX_VALUE;
+            while (start > 0) {
+                long size = segments.get(start - 1).size();
+                if (bytes + size > maxSegmentBytes || (bytes > 0 && size > TIER_RATIO * smallest)
+                        || (bytes > 0 && smallest > TIER_RATIO * size)) {
+                    break;
+                }
+                bytes += size;
+                smallest = Math.min(smallest, size);
+                start--;
+            }
+            if (end - start >= compactionThreshold) {
+                return new int[] { start, end };
+            }
+            end = start == end ? end - 1 : start;
+        }
+        return null;
+    }
+    private void compact() {
+        List<IndexSegment> inputs;
+        Set<Integer> shadowSnapshot;
+        boolean oldest;
+        long generation;
+        synchronized (this) {
+            int[] run = compactionRun();
+            if (run == null) {
+                compacting = false;
+                notifyAll();
+                return;
+            }
+            inputs = new ArrayList<>(segments.subList(run[0], run[1]));
+            oldest = run[0] == 0;
+            shadowSnapshot = new HashSet<>(shadowed);
+            generation = nextGeneration++;
+        }
+        boolean merged = false;
+        try {
+            IndexSegment output = IndexSegment.merge(segmentPath(generation), inputs, shadowSnapshot::contains, oldest);
+            synchronized (this) {
+                List<IndexSegment> next = new ArrayList<>(segments);
+                int start = next.indexOf(inputs.get(0));
+                next.subList(start, start + inputs.size()).clear();
+                next.add(start, output);
+                segments = next;
+                for (Integer rfcNumber : shadowSnapshot) {
+                    boolean elsewhere = false;
+                    for (int i = 0; i < next.size() && !elsewhere; i++) {
+                        elsewhere = i != start && next.get(i).find(rfcNumber) >= 0;
+                    }
+                    if (!elsewhere) {
+                        shadowed.remove(rfcNumber);
+                    }
+                }
+                System.out.println("[SegmentStore] Compacted " + inputs.size() + " segments into one with " + output.count()
+                        + " RFC numbers (" + segments.size() + " segments)");
+            }
+            for (IndexSegment seg : inputs) {
+                seg.delete();
+            }
+            merged = true;
+        } catch (IOException e) {
+            System.err.println("[SegmentStore] Compaction failed: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+                if (merged) {
+                    scheduleCompaction();
+                }
+            }
+        }
+    }
+    private Path segmentPath(long generation) {
+        return dir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,346 @@
+package org.p2p.server;
+import org.p2p.common.ClusterTopology;
+import java.io.File;
+public class ServerConfig {
+    private final int port;
+    private final File dataDirectory;
+    private final int snapshotIntervalSeconds;
+    private final int walFlushMillis;
+    private final int reconcileGraceSeconds;
+    private final int maxHotRfcs;
+    private final File segmentDirectory;
+    private final int compactionThreshold;
+    private final int indexShards;
+    private final boolean shardWriters;
+    private final ClusterTopology cluster;
+    private final int nodeId;
+    private final String replicaOfHost;
+    private final int replicaOfPort;
+    private final int maxStalenessMillis;
+    private final int statsPort;
+    private final int leaseSeconds;
+    private final int idleTimeoutMillis;
+    private final int headerTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final int maxConnections;
+    private final int acceptQueue;
+    private final int rateLimit;
+    private final int rateBurst;
+    private final int changeLogSize;
+    private final int hotHalfLifeSeconds;
+    private final int hotRequestsPerHolder;
+    private final boolean allowReplicas;
+    private final int queueTimeoutMillis;
+    public ServerConfig(int port, File dataDirectory, int snapshotIntervalSeconds, int walFlushMillis, int reconcileGraceSeconds,
+                        int maxHotRfcs, File segmentDirectory, int compactionThreshold, int indexShards, boolean shardWriters,
+                        ClusterTopology cluster, int nodeId, String replicaOfHost, int replicaOfPort, int maxStalenessMillis,
+                        int statsPort, int leaseSeconds, int idleTimeoutMillis, int headerTimeoutMillis,
+                        int requestTimeoutMillis, int maxConnections, int acceptQueue, int rateLimit, int rateBurst,
+                        int changeLogSize, int hotHalfLifeSeconds, int hotRequestsPerHolder, boolean allowReplicas,
+                        int queueTimeoutMillis) {
+        this.port = port;
+        this.dataDirectory = dataDirectory;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        this.walFlushMillis = walFlushMillis;
+        this.reconcileGraceSeconds = reconcileGraceSeconds;
+        this.maxHotRfcs = maxHotRfcs;
+        this.segmentDirectory = segmentDirectory;
+        this.compactionThreshold = compactionThreshold;
+        this.indexShards = indexShards;
+        this.shardWriters = shardWriters;
+        this.cluster = cluster;
+        this.nodeId = nodeId;
+        this.replicaOfHost = replicaOfHost;
+        this.replicaOfPort = replicaOfPort;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.statsPort = statsPort;
+        this.leaseSeconds = leaseSeconds;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.maxConnections = maxConnections;
+        this.acceptQueue = acceptQueue;
+        this.rateLimit = rateLimit;
+        this.rateBurst = rateBurst;
+        this.changeLogSize = changeLogSize;
+        this.hotHalfLifeSeconds = hotHalfLifeSeconds;
+        this.hotRequestsPerHolder = hotRequestsPerHolder;
+        this.allowReplicas = allowReplicas;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+    public int getPort() {
+        return port;
+    }
+    public File getDataDirectory() {
+        return dataDirectory;
+    }
+    public boolean isPersistenceEnabled() {
+        return dataDirectory != null;
+    }
+    public int getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+    public int getWalFlushMillis() {
+        return walFlushMillis;
+    }
+    public int getReconcileGraceSeconds() {
+        return reconcileGraceSeconds;
+    }
+    public boolean isTieringEnabled() {
+        return maxHotRfcs > 0;
+    }
+    public int getMaxHotRfcs() {
+        return maxHotRfcs;
+    }
+    public File getSegmentDirectory() {
+        return segmentDirectory;
+    }
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+    public int getIndexShards() {
+        return indexShards;
+    }
+    public boolean isShardWriters() {
+        return shardWriters;
+    }
+    public boolean isClustered() {
+        return cluster != null;
+    }
+    public ClusterTopology getCluster() {
+        return cluster;
+    }
+    public int getNodeId() {
+        return nodeId;
+    }
+    public boolean isReadReplica() {
+        return replicaOfHost != null;
+    }
+    public String getReplicaOfHost() {
+        return replicaOfHost;
+    }
+    public int getReplicaOfPort() {
+        return replicaOfPort;
+    }
+    public int getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+    public int getStatsPort() {
+        return statsPort;
+    }
+    public boolean isLeasingEnabled() {
+        return leaseSeconds > 0;
+    }
+    public int getLeaseSeconds() {
+        return leaseSeconds;
+    }
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    public int getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    public int getAcceptQueue() {
+        return acceptQueue;
+    }
+    public boolean isRateLimited() {
+        return rateLimit > 0;
+    }
+    public int getRateLimit() {
+        return rateLimit;
+    }
+    public int getRateBurst() {
+        return rateBurst;
+    }
+    public int getChangeLogSize() {
+        return changeLogSize;
+    }
+    public int getHotHalfLifeSeconds() {
+        return hotHalfLifeSeconds;
+    }
+    public int getHotRequestsPerHolder() {
+        return hotRequestsPerHolder;
+    }
+    public boolean isAllowReplicas() {
+        return allowReplicas;
+    }
+    public int getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+    public static ServerConfig fromArgs(String[] args) {
+        int port = -1;
+        File dataDir = null;
+        int snapshotInterval = 60;
+        int walFlushMillis = 1000;
+        int reconcileGrace = 120;
+        int maxHotRfcs = 0;
+        File segmentDir = null;
+        int compactionThreshold = 8;
+        int indexShards = Runtime.getRuntime().availableProcessors();
+        boolean shardWriters = false;
+        String clusterSpec = null;
+        int nodeId = 0;
+        int replicationFactor = 2;
+        String replicaOf = null;
+        int maxStalenessMillis = 5000;
+        int statsPort = 0;
+        int leaseSeconds = 90;
+        int idleTimeoutMillis = -1;
+        int headerTimeoutMillis = 10_000;
+        int requestTimeoutMillis = 30_000;
+        int maxConnections = 1024;
+        int acceptQueue = 64;
+        int rateLimit = 0;
+        int rateBurst = -1;
+        int changeLogSize = 100_000;
+        int hotHalfLifeSeconds = 60;
+        int hotRequestsPerHolder = 20;
+        boolean allowReplicas = false;
+        int queueTimeoutMillis = 5000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    if (i + 1 < args.length) port = Integer.parseInt(args[++i]);
+                    break;
+                case "--dataDir":
+                    if (i + 1 < args.length) dataDir = new File(args[++i]);
+                    break;
+                case "--snapshotInterval":
+                    if (i + 1 < args.length) snapshotInterval = Integer.parseInt(args[++i]);
+                    break;
+                case "--walFlushMillis":
+                    if (i + 1 < args.length) walFlushMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--reconcileGrace":
+                    if (i + 1 < args.length) reconcileGrace = Integer.parseInt(args[++i]);
+                    break;
+                case "--maxHotRfcs":
+                    if (i + 1 < args.length) maxHotRfcs = Integer.parseInt(args[++i]);
+                    break;
+                case "--segmentDir":
+                    if (i + 1 < args.length) segmentDir = new File(args[++i]);
+                    break;
+                case "--compactionThreshold":
+                    if (i + 1 < args.length) compactionThreshold = Integer.parseInt(args[++i]);
+                    break;
+                case "--indexShards":
+                    if (i + 1 < args.length) indexShards = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--shardWriters":
+                    shardWriters = true;
+                    break;
+                case "--cluster":
+                    if (i + 1 < args.length) clusterSpec = args[++i];
+                    break;
+                case "--nodeId":
+                    if (i + 1 < args.length) nodeId = Integer.parseInt(args[++i]);
+                    break;
+                case "--replicationFactor":
+                    if (i + 1 < args.length) replicationFactor = Integer.parseInt(args[++i]);
+                    break;
+                case "--replicaOf":
+                    if (i + 1 < args.length) replicaOf = args[++i];
+                    break;
+                case "--maxStalenessMillis":
+                    if (i + 1 < args.length) maxStalenessMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--statsPort":
+                    if (i + 1 < args.length) statsPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--leaseSeconds":
+                    if (i + 1 < args.length) leaseSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--idleTimeoutMillis":
+                    if (i + 1 < args.length) idleTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--headerTimeoutMillis":
+                    if (i + 1 < args.length) headerTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--requestTimeoutMillis":
+                    if (i + 1 < args.length) requestTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--maxConnections":
+                    if (i + 1 < args.length) maxConnections = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--acceptQueue":
+                    if (i + 1 < args.length) acceptQueue = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--rateLimit":
+                    if (i + 1 < args.length) rateLimit = Integer.parseInt(args[++i]);
+                    break;
+                case "--rateBurst":
+                    if (i + 1 < args.length) rateBurst = Integer.parseInt(args[++i]);
+                    break;
+                case "--changeLogSize":
+                    if (i + 1 < args.length) changeLogSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--hotHalfLifeSeconds":
+                    if (i + 1 < args.length) hotHalfLifeSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--hotRequestsPerHolder":
+                    if (i + 1 < args.length) hotRequestsPerHolder = Integer.parseInt(args[++i]);
+                    break;
+                case "--allowReplicas":
+                    allowReplicas = true;
+                    break;
+                case "--queueTimeoutMillis":
+                    if (i + 1 < args.length) queueTimeoutMillis = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+            }
+        }
+        ClusterTopology cluster = null;
+        if (clusterSpec != null) {
+            cluster = ClusterTopology.parse(clusterSpec, replicationFactor);
+            if (nodeId < 0 || nodeId >= cluster.size()) {
+                throw new IllegalArgumentException("--nodeId must be between 0 and " + (cluster.size() - 1));
+            }
+            if (port == -1) {
+                port = cluster.portOf(nodeId);
+            }
+        }
+        String replicaOfHost = null;
+        int replicaOfPort = -1;
+        if (replicaOf != null) {
+            if (cluster != null) {
+                throw new IllegalArgumentException("--replicaOf cannot be combined with --cluster");
+            }
+            int colon = replicaOf.lastIndexOf(':');
+            if (colon <= 0 || colon == replicaOf.length() - 1) {
+                throw new IllegalArgumentException("Invalid --replicaOf (expected host:port): " + replicaOf);
+            }
+            replicaOfHost = replicaOf.substring(0, colon);
+            replicaOfPort = Integer.parseInt(replicaOf.substring(colon + 1));
+        }
+        if (idleTimeoutMillis < 0) {
+            idleTimeoutMillis = leaseSeconds > 0 && replicaOf == null ? 300_000 : 0;
+        }
+        if (rateBurst <= 0) {
+            rateBurst = Math.max(1, rateLimit * 2);
+        }
+        if (port == -1) {
+            port = ServerMain.SERVER_PORT;
+        }
+        if (dataDir != null && !dataDir.exists()) {
+            dataDir.mkdirs();
+        }
+        if (segmentDir == null) {
+            segmentDir = dataDir != null
+                    ? new File(dataDir, "segments")
+                    : new File(System.getProperty("java.io.tmpdir"), "p2p-segments-" + port);
+        }
+        return new ServerConfig(port, dataDir, snapshotInterval, walFlushMillis, reconcileGrace,
+                maxHotRfcs, segmentDir, compactionThreshold, indexShards, shardWriters, cluster, nodeId,
+                replicaOfHost, replicaOfPort, maxStalenessMillis, statsPort, leaseSeconds,
+                idleTimeoutMillis, headerTimeoutMillis, requestTimeoutMillis, maxConnections, acceptQueue,
+                rateLimit, rateBurst, changeLogSize, hotHalfLifeSeconds, hotRequestsPerHolder, allowReplicas,
+                queueTimeoutMillis);
+    }
+}
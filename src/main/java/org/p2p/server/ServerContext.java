@@ -0,0 +1,126 @@
+package org.p2p.server;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.TimerWheel;
+public class ServerContext {
+    private final PeerRegistry peerRegistry;
+    private final RfcIndex rfcIndex;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final HotGrants hotGrants = new HotGrants();
+    private RestoreReconciler reconciler;
+    private ClusterReplicator replicator;
+    private ReplicaPublisher replicaPublisher;
+    private ReadReplica readReplica;
+    private TimerWheel timerWheel;
+    private LeaseManager leaseManager;
+    private AdmissionController admissionController;
+    private PeerLoadTracker loadTracker;
+    private TitleIndex titleIndex;
+    private SubscriptionManager subscriptionManager;
+    private PeerHoldings peerHoldings;
+    private int hotRequestsPerHolder = 20;
+    private int idleTimeoutMillis;
+    private int headerTimeoutMillis;
+    private int requestTimeoutMillis;
+    public ServerContext(PeerRegistry peerRegistry, RfcIndex rfcIndex) {
+        this.peerRegistry = peerRegistry;
+        this.rfcIndex = rfcIndex;
+    }
+    public PeerRegistry getPeerRegistry() {
+        return peerRegistry;
+    }
+    public RfcIndex getRfcIndex() {
+        return rfcIndex;
+    }
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    public HotGrants getHotGrants() {
+        return hotGrants;
+    }
+    public RestoreReconciler getReconciler() {
+        return reconciler;
+    }
+    public void setReconciler(RestoreReconciler reconciler) {
+        this.reconciler = reconciler;
+    }
+    public ClusterReplicator getReplicator() {
+        return replicator;
+    }
+    public void setReplicator(ClusterReplicator replicator) {
+        this.replicator = replicator;
+    }
+    public ReplicaPublisher getReplicaPublisher() {
+        return replicaPublisher;
+    }
+    public void setReplicaPublisher(ReplicaPublisher replicaPublisher) {
+        this.replicaPublisher = replicaPublisher;
+    }
+    public ReadReplica getReadReplica() {
+        return readReplica;
+    }
+    public void setReadReplica(ReadReplica readReplica) {
+        this.readReplica = readReplica;
+    }
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+    public void setTimerWheel(TimerWheel timerWheel) {
+        this.timerWheel = timerWheel;
+    }
+    public LeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+    public void setLeaseManager(LeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+    public PeerLoadTracker getLoadTracker() {
+        return loadTracker;
+    }
+    public void setLoadTracker(PeerLoadTracker loadTracker) {
+        this.loadTracker = loadTracker;
+    }
+    public TitleIndex getTitleIndex() {
+        return titleIndex;
+    }
+    public void setTitleIndex(TitleIndex titleIndex) {
+        this.titleIndex = titleIndex;
+    }
+    public SubscriptionManager getSubscriptionManager() {
+        return subscriptionManager;
+    }
+    public void setSubscriptionManager(SubscriptionManager subscriptionManager) {
+        this.subscriptionManager = subscriptionManager;
+    }
+    public PeerHoldings getPeerHoldings() {
+        return peerHoldings;
+    }
+    public void setPeerHoldings(PeerHoldings peerHoldings) {
+        this.peerHoldings = peerHoldings;
+    }
+    public int getHotRequestsPerHolder() {
+        return hotRequestsPerHolder;
+    }
+    public void setHotRequestsPerHolder(int hotRequestsPerHolder) {
+        this.hotRequestsPerHolder = hotRequestsPerHolder;
+    }
+    public void setTimeouts(int idleTimeoutMillis, int headerTimeoutMillis, int requestTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.headerTimeoutMillis = headerTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    public int getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+}
@@ -1,25 +1,236 @@
 package org.p2p.server;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.RfcRecord;
+import org.p2p.common.StatsEndpoint;
+import org.p2p.common.TimerWheel;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 public class ServerMain {
     public static final int SERVER_PORT = 7734;
+    private static final int BUSY_RETRY_AFTER_SECONDS = 2;
+    private static final long REJECT_LINGER_MILLIS = 1000;
     public static void main(String[] args) {
+        ServerConfig config = ServerConfig.fromArgs(args);
         PeerRegistry peerRegistry = new PeerRegistry();
-        RfcIndex rfcIndex = new RfcIndex();
-        try (ServerSocket serverSocket = new ServerSocket(SERVER_PORT)) {
-            System.out.println("P2P-CI Server listening on port " + SERVER_PORT);
-            ExecutorService pool = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ServerScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        SegmentStore[] coldStores = null;
+        if (config.isTieringEnabled()) {
+            coldStores = new SegmentStore[config.getIndexShards()];
+            try {
+                for (int i = 0; i < coldStores.length; i++) {
+                    coldStores[i] = new SegmentStore(new File(config.getSegmentDirectory(), "shard-" + i), config.getCompactionThreshold());
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to open segment directory " + config.getSegmentDirectory() + ": " + e.getMessage());
+                return;
+            }
+        }
+        RfcIndex rfcIndex = new RfcIndex(config.getIndexShards(), config.isShardWriters(), coldStores, config.getMaxHotRfcs(),
+                config.getChangeLogSize());
+        System.out.println("RfcIndex partitioned into " + rfcIndex.shardCount() + " shard(s)"
+                + (config.isShardWriters() ? " with single-writer mailboxes" : ""));
+        if (config.isTieringEnabled()) {
+            scheduler.scheduleWithFixedDelay(rfcIndex::spillColdEntries, 1, 1, TimeUnit.SECONDS);
+            System.out.println("Tiered index enabled: " + config.getMaxHotRfcs() + " hot RFC numbers, cold segments in "
+                    + config.getSegmentDirectory().getAbsolutePath());
+        }
+        if (config.getHotHalfLifeSeconds() > 0) {
+            scheduler.scheduleWithFixedDelay(rfcIndex::decayDemand, config.getHotHalfLifeSeconds(),
+                    config.getHotHalfLifeSeconds(), TimeUnit.SECONDS);
+        }
+        ServerContext context = new ServerContext(peerRegistry, rfcIndex);
+        context.setHotRequestsPerHolder(config.getHotRequestsPerHolder());
+        TimerWheel timerWheel = new TimerWheel("TimerWheel", 100, 512);
+        timerWheel.start();
+        context.setTimerWheel(timerWheel);
+        context.setTimeouts(config.getIdleTimeoutMillis(), config.getHeaderTimeoutMillis(), config.getRequestTimeoutMillis());
+        RestoreReconciler reconciler = null;
+        if (config.isPersistenceEnabled()) {
+            IndexJournal journal = new IndexJournal(config.getDataDirectory());
+            try {
+                List<RfcRecord> restored = journal.recover();
+                rfcIndex.restore(restored);
+                for (RfcRecord rec : restored) {
+                    peerRegistry.addPeer(rec.getHost(), rec.getUploadPort());
+                }
+                reconciler = new RestoreReconciler(rfcIndex);
+                reconciler.track(restored);
+            } catch (IOException e) {
+                System.err.println("Failed to recover index from " + config.getDataDirectory() + ": " + e.getMessage());
+                return;
+            }
+            context.setReconciler(reconciler);
+            rfcIndex.addListener(journal);
+            journal.start(scheduler, config.getWalFlushMillis(), config.getSnapshotIntervalSeconds());
+            reconciler.scheduleExpiry(scheduler, config.getReconcileGraceSeconds());
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+            System.out.println("Persistence enabled, data directory: " + config.getDataDirectory().getAbsolutePath());
+        }
+        List<RfcRecord> restored = rfcIndex.collect(null);
+        TitleIndex titleIndex = new TitleIndex();
+        titleIndex.seed(restored);
+        rfcIndex.addListener(titleIndex);
+        context.setTitleIndex(titleIndex);
+        PeerHoldings peerHoldings = new PeerHoldings();
+        peerHoldings.seed(restored);
+        rfcIndex.addListener(peerHoldings);
+        context.setPeerHoldings(peerHoldings);
+        SubscriptionManager subscriptions = new SubscriptionManager(2, timerWheel);
+        rfcIndex.addListener(subscriptions);
+        context.setSubscriptionManager(subscriptions);
+        if (config.isClustered()) {
+            ClusterReplicator replicator = new ClusterReplicator(config.getCluster(), config.getNodeId(), rfcIndex);
+            rfcIndex.addListener(replicator);
+            context.setReplicator(replicator);
+            replicator.start();
+        }
+        if (config.isAllowReplicas()) {
+            ReplicaPublisher replicaPublisher = new ReplicaPublisher(rfcIndex);
+            rfcIndex.addListener(replicaPublisher);
+            context.setReplicaPublisher(replicaPublisher);
+            context.getMetrics().gauge("replication.read_replicas", replicaPublisher::replicaCount);
+        }
+        if (config.isReadReplica()) {
+            ReadReplica readReplica = new ReadReplica(config.getReplicaOfHost(), config.getReplicaOfPort(),
+                    config.getPort(), rfcIndex, config.getMaxStalenessMillis());
+            context.setReadReplica(readReplica);
+            Thread t = new Thread(readReplica, "ReadReplica");
+            t.setDaemon(true);
+            t.start();
+            System.out.println("Read replica of " + readReplica.getPrimary() + " (max staleness "
+                    + config.getMaxStalenessMillis() + " ms)");
+        }
+        if (config.isLeasingEnabled() && !config.isReadReplica()) {
+            LeaseManager leaseManager = new LeaseManager(timerWheel, config.getLeaseSeconds(), rfcIndex, peerRegistry,
+                    !config.isClustered());
+            context.setLeaseManager(leaseManager);
+            leaseManager.start(scheduler);
+            context.getMetrics().gauge("peers.leases", leaseManager::activeCount);
+            System.out.println("Peer leases enabled: " + config.getLeaseSeconds() + "s");
+        }
+        if (config.isRateLimited()) {
+            AdmissionController admission = new AdmissionController(config.getRateLimit(), config.getRateBurst());
+            context.setAdmissionController(admission);
+            admission.start(scheduler);
+            context.getMetrics().gauge("server.rate_limited_sources", admission::trackedSources);
+            System.out.println("Rate limiting ADD/LOOKUP to " + config.getRateLimit() + "/s per source (burst "
+                    + config.getRateBurst() + ")");
+        }
+        PeerLoadTracker loadTracker = new PeerLoadTracker();
+        context.setLoadTracker(loadTracker);
+        loadTracker.start(scheduler);
+        HotGrants hotGrants = context.getHotGrants();
+        hotGrants.start(scheduler);
+        MetricsRegistry metrics = context.getMetrics();
+        metrics.gauge("peers.load_tracked", loadTracker::trackedPeers);
+        metrics.gauge("hot.outstanding_grants", hotGrants::outstanding);
+        metrics.gauge("index.title_terms", titleIndex::termCount);
+        metrics.gauge("index.demand_candidates", rfcIndex::hotCandidateCount);
+        metrics.gauge("index.holding_peers", peerHoldings::peerCount);
+        metrics.gauge("subscriptions.active", subscriptions::subscriberCount);
+        metrics.gauge("subscriptions.delivered", subscriptions::deliveredCount);
+        metrics.gauge("subscriptions.overflows", subscriptions::overflowCount);
+        metrics.gauge("index.entries", rfcIndex::entryCount);
+        metrics.gauge("index.hot_rfcs", rfcIndex::hotRfcCount);
+        metrics.gauge("index.segments", rfcIndex::segmentCount);
+        metrics.gauge("peers.registered", peerRegistry::size);
+        if (config.getStatsPort() > 0) {
+            new StatsEndpoint(config.getStatsPort(), metrics).start();
+        }
+        try (ServerSocket serverSocket = new ServerSocket(config.getPort())) {
+            System.out.println("P2P-CI Server listening on port " + config.getPort());
+            AtomicInteger handlerThreads = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(config.getMaxConnections(), config.getMaxConnections(),
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getAcceptQueue()),
+                    r -> new Thread(r, "ClientHandler-" + handlerThreads.incrementAndGet()));
+            pool.allowCoreThreadTimeOut(true);
+            metrics.gauge("server.accept_queue", () -> pool.getQueue().size());
+            System.out.println("Admitting up to " + config.getMaxConnections() + " connections ("
+                    + config.getAcceptQueue() + " queued)");
             while (true) {
                 Socket peerSocket = serverSocket.accept();
+                metrics.counter("server.connections.accepted").increment();
                 System.out.println("New peer connected: " + peerSocket.getRemoteSocketAddress());
-                ClientHandler handler = new ClientHandler(peerSocket, peerRegistry, rfcIndex);
-                pool.submit(handler);
+                QueuedConnection connection = new QueuedConnection(new ClientHandler(peerSocket, context));
+                if (config.getQueueTimeoutMillis() > 0) {
+                    connection.timeout = timerWheel.schedule(config.getQueueTimeoutMillis(), () -> {
+                        if (connection.claim()) {
+                            pool.remove(connection);
+                            metrics.counter("server.connections.queue_timeouts").increment();
+                            rejectBusy(peerSocket, timerWheel);
+                        }
+                    });
+                }
+                try {
+                    pool.execute(connection);
+                } catch (RejectedExecutionException e) {
+                    if (connection.claim()) {
+                        metrics.counter("server.connections.rejected").increment();
+                        rejectBusy(peerSocket, timerWheel);
+                    }
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+    private static final class QueuedConnection implements Runnable {
+        private final ClientHandler handler;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile TimerWheel.Timeout timeout;
+        QueuedConnection(ClientHandler handler) {
+            this.handler = handler;
+        }
+        boolean claim() {
+            if (!claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            TimerWheel.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+            return true;
+        }
+        @Override
+        public void run() {
+            if (claim()) {
+                handler.run();
+            }
+        }
+    }
+    private static void rejectBusy(Socket peerSocket, TimerWheel timerWheel) {
+        try {
+            OutputStream out = peerSocket.getOutputStream();
+            out.write(("P2P-CI/1.0 503 Service Unavailable\r\n"
+                    + "Retry-After: " + BUSY_RETRY_AFTER_SECONDS + "\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            peerSocket.shutdownOutput();
+        } catch (IOException e) {
+        }
+        timerWheel.schedule(REJECT_LINGER_MILLIS, () -> {
+            try {
+                peerSocket.close();
+            } catch (IOException e) {
+            }
+        });
+    }
 }
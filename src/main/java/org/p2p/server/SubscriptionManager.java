@@ -0,0 +1,168 @@
+package org.p2p.server;
+import org.p2p.common.RfcRanges;
+import org.p2p.common.RfcRecord;
+import org.p2p.common.TimerWheel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+public class SubscriptionManager implements IndexListener {
+    private static final int MAX_PENDING = 10_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 5000;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService delivery;
+    private final TimerWheel timerWheel;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    public SubscriptionManager(int deliveryThreads) {
+        this(deliveryThreads, null);
+    }
+    public SubscriptionManager(int deliveryThreads, TimerWheel timerWheel) {
+        this.timerWheel = timerWheel;
+        AtomicInteger threads = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(deliveryThreads, r -> {
+            Thread t = new Thread(r, "NotifyDelivery-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    Subscriber subscriber(String name, ResponseWriter out, Closeable connection) {
+        return new Subscriber(name, out, connection);
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        publish(record.getRfcNumber(), "NOTIFY ADD RFC " + record.getRfcNumber() + " " + record.getHost() + " "
+                + record.getUploadPort() + " " + record.getTitle());
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        publish(record.getRfcNumber(), "NOTIFY DEL RFC " + record.getRfcNumber() + " " + record.getHost() + " "
+                + record.getUploadPort());
+    }
+    private void publish(int rfcNumber, String line) {
+        for (Subscriber s : subscribers) {
+            if (s.ranges.contains(rfcNumber)) {
+                s.enqueue(line);
+            }
+        }
+    }
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+    public long deliveredCount() {
+        return delivered.sum();
+    }
+    public long overflowCount() {
+        return overflows.sum();
+    }
+    public class Subscriber {
+        private final String name;
+        private final ResponseWriter out;
+        private final Closeable connection;
+        private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile RfcRanges ranges = RfcRanges.NONE;
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+        private Subscriber(String name, ResponseWriter out, Closeable connection) {
+            this.name = name;
+            this.out = out;
+            this.connection = connection;
+        }
+        public synchronized RfcRanges add(RfcRanges more) {
+            boolean wasEmpty = ranges.isEmpty();
+            ranges = ranges.union(more);
+            if (wasEmpty && !ranges.isEmpty()) {
+                subscribers.add(this);
+            }
+            return ranges;
+        }
+        public synchronized RfcRanges remove(RfcRanges fewer) {
+            ranges = ranges.minus(fewer);
+            if (ranges.isEmpty()) {
+                subscribers.remove(this);
+            }
+            return ranges;
+        }
+        public void close() {
+            closed = true;
+            subscribers.remove(this);
+            pending.clear();
+        }
+        private void enqueue(String line) {
+            if (closed) {
+                return;
+            }
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                pendingCount.decrementAndGet();
+                if (!overflowed) {
+                    overflowed = true;
+                    overflows.increment();
+                    System.err.println("[Subscriptions] " + name + " fell behind, sending RESYNC");
+                }
+            } else {
+                pending.add(line);
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                delivery.execute(this::drain);
+            }
+        }
+        void deliverPending() {
+            if ((!pending.isEmpty() || overflowed) && !closed && scheduled.compareAndSet(false, true)) {
+                drain();
+            }
+        }
+        private void drain() {
+            boolean wrote = false;
+            try {
+                if (out.tryBegin()) {
+                    wrote = true;
+                    TimerWheel.Timeout timeout = timerWheel != null
+                            ? timerWheel.schedule(WRITE_TIMEOUT_MILLIS, this::abort)
+                            : null;
+                    try {
+                        String line;
+                        while ((line = pending.poll()) != null) {
+                            pendingCount.decrementAndGet();
+                            out.write(line);
+                            out.write("\r\n");
+                            delivered.increment();
+                        }
+                        if (overflowed) {
+                            overflowed = false;
+                            out.write("NOTIFY RESYNC\r\n");
+                        }
+                    } finally {
+                        out.end();
+                        if (timeout != null) {
+                            timeout.cancel();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } finally {
+                scheduled.set(false);
+            }
+            if (wrote && !pending.isEmpty() && !closed && scheduled.compareAndSet(false, true)) {
+                delivery.execute(this::drain);
+            }
+        }
+        private void abort() {
+            System.err.println("[Subscriptions] " + name + " stopped reading, closing its connection");
+            close();
+            try {
+                connection.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
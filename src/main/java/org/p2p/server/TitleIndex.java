@@ -0,0 +1,314 @@
+package org.p2p.server;
+import org.p2p.common.RfcRecord;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+public class TitleIndex implements IndexListener {
+    private static final int NGRAM = 3;
+    private static final int MAX_PREFIX_TERMS = 256;
+    private static final double EXACT_WEIGHT = 3.0;
+    private static final double PREFIX_WEIGHT = 2.0;
+    private static final double INFIX_WEIGHT = 1.0;
+    private final NavigableMap<String, Map<Integer, Integer>> postings = new TreeMap<>();
+    private final Map<String, Set<String>> ngrams = new HashMap<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentLinkedQueue<Update> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong submitted = new AtomicLong();
+    private volatile long applied;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TitleIndexWriter");
+        t.setDaemon(true);
+        return t;
+    });
+    public void seed(List<RfcRecord> records) {
+        for (RfcRecord record : records) {
+            rfcAdded(record);
+        }
+    }
+    @Override
+    public void rfcAdded(RfcRecord record) {
+        submit(new Update(record, true));
+    }
+    @Override
+    public void rfcRemoved(RfcRecord record) {
+        submit(new Update(record, false));
+    }
+    private void submit(Update update) {
+        submitted.incrementAndGet();
+        pending.add(update);
+        if (draining.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+    private void drain() {
+        draining.set(false);
+        lock.writeLock().lock();
+        try {
+            Update update;
+            while ((update = pending.poll()) != null) {
+                try {
+                    if (update.added) {
+                        apply(update.record);
+                    } else {
+                        unapply(update.record);
+                    }
+                } finally {
+                    applied++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+    private void awaitApplied(long target) {
+        if (applied >= target) {
+            return;
+        }
+        synchronized (this) {
+            while (applied < target) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    private void apply(RfcRecord record) {
+        Set<String> terms = terms(record.getTitle());
+        Document doc = documents.computeIfAbsent(record.getRfcNumber(), k -> new Document());
+        doc.title = record.getTitle();
+        doc.holders++;
+        for (String term : terms) {
+            Map<Integer, Integer> posting = postings.get(term);
+            if (posting == null) {
+                posting = new HashMap<>();
+                postings.put(term, posting);
+                for (String gram : grams(term)) {
+                    ngrams.computeIfAbsent(gram, k -> new HashSet<>()).add(term);
+                }
+            }
+            posting.merge(record.getRfcNumber(), 1, Integer::sum);
+        }
+    }
+    private void unapply(RfcRecord record) {
+        Set<String> terms = terms(record.getTitle());
+        Document doc = documents.get(record.getRfcNumber());
+        if (doc == null) {
+            return;
+        }
+        if (--doc.holders == 0) {
+            documents.remove(record.getRfcNumber());
+        }
+        for (String term : terms) {
+            Map<Integer, Integer> posting = postings.get(term);
+            if (posting == null) {
+                continue;
+            }
+            if (posting.merge(record.getRfcNumber(), -1, Integer::sum) == 0) {
+                posting.remove(record.getRfcNumber());
+            }
+            if (posting.isEmpty()) {
+                postings.remove(term);
+                for (String gram : grams(term)) {
+                    Set<String> withGram = ngrams.get(gram);
+                    if (withGram != null && withGram.remove(term) && withGram.isEmpty()) {
+                        ngrams.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+    public List<Hit> search(String query, int limit) {
+        Set<String> queryTerms = terms(query);
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        awaitApplied(submitted.get());
+        lock.readLock().lock();
+        try {
+            List<List<Expansion>> expanded = new ArrayList<>(queryTerms.size());
+            for (String queryTerm : queryTerms) {
+                List<Expansion> expansions = expand(queryTerm);
+                if (expansions.isEmpty()) {
+                    return List.of();
+                }
+                expanded.add(expansions);
+            }
+            expanded.sort(Comparator.comparingLong(TitleIndex::postingTotal));
+            Map<Integer, Double> scores = new HashMap<>();
+            for (Expansion e : expanded.get(0)) {
+                for (Integer rfcNumber : e.posting.keySet()) {
+                    scores.merge(rfcNumber, e.score, Math::max);
+                }
+            }
+            for (int t = 1; t < expanded.size() && !scores.isEmpty(); t++) {
+                List<Expansion> expansions = expanded.get(t);
+                for (Iterator<Map.Entry<Integer, Double>> it = scores.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Integer, Double> candidate = it.next();
+                    double best = 0;
+                    for (Expansion e : expansions) {
+                        if (e.score > best && e.posting.containsKey(candidate.getKey())) {
+                            best = e.score;
+                        }
+                    }
+                    if (best == 0) {
+                        it.remove();
+                    } else {
+                        candidate.setValue(candidate.getValue() + best);
+                    }
+                }
+            }
+            Comparator<Hit> ranking = Comparator.comparingDouble((Hit h) -> -h.score)
+                    .thenComparingInt(h -> -h.holders)
+                    .thenComparingInt(h -> h.rfcNumber);
+            PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, ranking.reversed());
+            for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+                Document doc = documents.get(e.getKey());
+                if (doc == null) {
+                    continue;
+                }
+                top.add(new Hit(e.getKey(), doc.title, doc.holders, e.getValue()));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(ranking);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    private List<Expansion> expand(String queryTerm) {
+        List<Expansion> expansions = new ArrayList<>();
+        Map<Integer, Integer> exact = postings.get(queryTerm);
+        if (exact != null) {
+            expansions.add(new Expansion(exact, idf(exact) * EXACT_WEIGHT));
+        }
+        for (Map<Integer, Integer> posting
+                : postings.subMap(queryTerm, false, queryTerm + Character.MAX_VALUE, false).values()) {
+            if (expansions.size() > MAX_PREFIX_TERMS) {
+                break;
+            }
+            expansions.add(new Expansion(posting, idf(posting) * PREFIX_WEIGHT));
+        }
+        if (expansions.isEmpty() && queryTerm.length() >= NGRAM) {
+            for (String term : infixTerms(queryTerm)) {
+                Map<Integer, Integer> posting = postings.get(term);
+                expansions.add(new Expansion(posting, idf(posting) * INFIX_WEIGHT));
+            }
+        }
+        return expansions;
+    }
+    private Set<String> infixTerms(String queryTerm) {
+        Set<String> candidates = null;
+        for (String gram : grams(queryTerm)) {
+            Set<String> withGram = ngrams.get(gram);
+            if (withGram == null) {
+                return Set.of();
+            }
+            if (candidates == null || withGram.size() < candidates.size()) {
+                candidates = withGram;
+            }
+        }
+        Set<String> terms = new HashSet<>();
+        for (String term : candidates) {
+            if (terms.size() == MAX_PREFIX_TERMS) {
+                break;
+            }
+            if (!term.startsWith(queryTerm) && term.contains(queryTerm)) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+    private double idf(Map<Integer, Integer> posting) {
+        return Math.log(1 + (double) documents.size() / posting.size());
+    }
+    private static long postingTotal(List<Expansion> expansions) {
+        long total = 0;
+        for (Expansion e : expansions) {
+            total += e.posting.size();
+        }
+        return total;
+    }
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{Alnum}]+")) {
+            if (!token.isEmpty()) {
+                terms.add(token);
+            }
+        }
+        return terms;
+    }
+    private static List<String> grams(String term) {
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + NGRAM <= term.length(); i++) {
+            grams.add(term.substring(i, i + NGRAM));
+        }
+        return grams;
+    }
+    private static class Update {
+        private final RfcRecord record;
+        private final boolean added;
+        Update(RfcRecord record, boolean added) {
+            this.record = record;
+            this.added = added;
+        }
+    }
+    private static class Expansion {
+        private final Map<Integer, Integer> posting;
+        private final double score;
+        Expansion(Map<Integer, Integer> posting, double score) {
+            this.posting = posting;
+            this.score = score;
+        }
+    }
+    private static class Document {
+        private String title;
+        private int holders;
+    }
+    public static class Hit {
+        private final int rfcNumber;
+        private final String title;
+        private final int holders;
+        private final double score;
+        Hit(int rfcNumber, String title, int holders, double score) {
+            this.rfcNumber = rfcNumber;
+            this.title = title;
+            this.holders = holders;
+            this.score = score;
+        }
+        public int getRfcNumber() {
+            return rfcNumber;
+        }
+        public String getTitle() {
+            return title;
+        }
+        public int getHolders() {
+            return holders;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.p2p.common;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class RfcRangesTest {
+    @Test
+    void parseMergesOverlappingAndAdjacentRanges() {
+        RfcRanges ranges = RfcRanges.parse("10-20, 5, 21-25,18-19, 7");
+        assertEquals("5,7,10-25", ranges.toString());
+        assertEquals(18, ranges.size());
+        assertTrue(ranges.contains(25));
+        assertFalse(ranges.contains(6));
+        assertFalse(ranges.contains(26));
+    }
+    @Test
+    void parseRejectsInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> RfcRanges.parse("9-3"));
+        assertThrows(IllegalArgumentException.class, () -> RfcRanges.parse(" , "));
+        assertThrows(NumberFormatException.class, () -> RfcRanges.parse("x"));
+        assertSame(RfcRanges.ALL, RfcRanges.parse("all"));
+    }
+    @Test
+    void ofBuildsRunsFromSortedNumbers() {
+        assertEquals("1-3,7,9-10", RfcRanges.of(new int[] { 1, 2, 3, 7, 9, 10, 99 }, 6).toString());
+        assertSame(RfcRanges.NONE, RfcRanges.of(new int[0], 0));
+    }
+    @Test
+    void unionAndMinus() {
+        RfcRanges a = RfcRanges.parse("1-10");
+        RfcRanges b = RfcRanges.parse("4-6,9-15");
+        assertEquals("1-15", a.union(b).toString());
+        assertEquals("1-3,7-8", a.minus(b).toString());
+        assertTrue(b.minus(RfcRanges.ALL).isEmpty());
+        assertEquals("0-3,7-8,16-2147483647", RfcRanges.ALL.minus(b).toString());
+    }
+    @Test
+    void forEachVisitsEveryNumberInOrder() {
+        List<Integer> seen = new ArrayList<>();
+        RfcRanges.parse("3-4,8").forEach(seen::add);
+        assertEquals(List.of(3, 4, 8), seen);
+    }
+}
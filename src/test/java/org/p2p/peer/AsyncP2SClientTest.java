@@ -0,0 +1,133 @@
+package org.p2p.peer;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.RfcRecord;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+class AsyncP2SClientTest {
+    private static final class Stub implements AutoCloseable {
+        private final ServerSocket listener;
+        private Socket socket;
+        private BufferedReader in;
+        private OutputStream out;
+        Stub() throws IOException {
+            listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        }
+        AsyncP2SClient connect() throws IOException {
+            AsyncP2SClient client = new AsyncP2SClient("127.0.0.1", listener.getLocalPort(), "peer", 6000);
+            assertTrue(client.connect());
+            socket = listener.accept();
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+            return client;
+        }
+        String readRequest() throws IOException {
+            String requestLine = in.readLine();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+            }
+            return requestLine;
+        }
+        void reply(String response) throws IOException {
+            out.write(response.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        @Override
+        public void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+            }
+            listener.close();
+        }
+    }
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+    @Test
+    void pipelinedResponsesCompleteTheirOwnRequests() throws Exception {
+        try (Stub stub = new Stub()) {
+            AsyncP2SClient client = stub.connect();
+            CompletableFuture<List<RfcRecord>> first = client.lookupRfc(1, "P2P-CI/1.0");
+            CompletableFuture<Boolean> added = client.addRfc(2, "Two", "P2P-CI/1.0");
+            CompletableFuture<List<RfcRecord>> second = client.lookupRfc(3, "P2P-CI/1.0");
+            assertEquals(3, client.pendingCount());
+            assertEquals("LOOKUP RFC 1 P2P-CI/1.0", stub.readRequest());
+            assertEquals("ADD RFC 2 P2P-CI/1.0", stub.readRequest());
+            assertEquals("LOOKUP RFC 3 P2P-CI/1.0", stub.readRequest());
+            stub.reply("P2P-CI/1.0 200 OK\r\n\r\nRFC 1 One a 5000\r\nRFC 1 One b 5001\r\n\r\n"
+                    + "P2P-CI/1.0 200 OK\r\n\r\n"
+                    + "P2P-CI/1.0 404 Not Found\r\n\r\n");
+            List<RfcRecord> holders = await(first);
+            assertEquals(2, holders.size());
+            assertEquals("b", holders.get(1).getHost());
+            assertEquals(5001, holders.get(1).getUploadPort());
+            assertTrue(await(added));
+            assertTrue(await(second).isEmpty());
+            assertEquals(0, client.pendingCount());
+            client.close();
+        }
+    }
+    @Test
+    void busyResponseIsRetriedAfterRetryAfter() throws Exception {
+        try (Stub stub = new Stub()) {
+            AsyncP2SClient client = stub.connect();
+            CompletableFuture<Boolean> added = client.addRfc(7, "Seven", "P2P-CI/1.0");
+            assertEquals("ADD RFC 7 P2P-CI/1.0", stub.readRequest());
+            stub.reply("P2P-CI/1.0 503 Service Unavailable\r\nRetry-After: 0\r\n\r\n");
+            assertEquals("ADD RFC 7 P2P-CI/1.0", stub.readRequest());
+            assertFalse(added.isDone());
+            stub.reply("P2P-CI/1.0 200 OK\r\n\r\n");
+            assertTrue(await(added));
+            client.close();
+        }
+    }
+    @Test
+    void notifyLinesBetweenResponsesAreIgnored() throws Exception {
+        try (Stub stub = new Stub()) {
+            AsyncP2SClient client = stub.connect();
+            stub.reply("NOTIFY ADD RFC 9 Nine c 5002\r\n");
+            CompletableFuture<List<RfcRecord>> lookup = client.lookupRfc(4, "P2P-CI/1.0");
+            stub.readRequest();
+            stub.reply("NOTIFY ADD RFC 9 Nine c 5002\r\nP2P-CI/1.0 200 OK\r\n\r\nRFC 4 Four a 5000\r\n\r\n"
+                    + "NOTIFY REMOVE RFC 9 Nine c 5002\r\n");
+            List<RfcRecord> holders = await(lookup);
+            assertEquals(1, holders.size());
+            assertEquals(4, holders.get(0).getRfcNumber());
+            CompletableFuture<Boolean> added = client.addRfc(5, "Five", "P2P-CI/1.0");
+            stub.readRequest();
+            stub.reply("P2P-CI/1.0 200 OK\r\n\r\n");
+            assertTrue(await(added));
+            client.close();
+        }
+    }
+    @Test
+    void endOfStreamFailsEveryInFlightRequest() throws Exception {
+        try (Stub stub = new Stub()) {
+            AsyncP2SClient client = stub.connect();
+            CompletableFuture<List<RfcRecord>> lookup = client.lookupRfc(1, "P2P-CI/1.0");
+            CompletableFuture<Boolean> added = client.addRfc(2, "Two", "P2P-CI/1.0");
+            stub.readRequest();
+            stub.readRequest();
+            stub.reply("P2P-CI/1.0 200 OK\r\n\r\nRFC 1 One a 5000\r\n");
+            stub.socket.close();
+            ExecutionException failed = assertThrows(ExecutionException.class, () -> await(lookup));
+            assertInstanceOf(IOException.class, failed.getCause());
+            failed = assertThrows(ExecutionException.class, () -> await(added));
+            assertInstanceOf(IOException.class, failed.getCause());
+            assertFalse(client.isConnected());
+            assertEquals(0, client.pendingCount());
+            assertThrows(ExecutionException.class, () -> await(client.listAll("P2P-CI/1.0")));
+        }
+    }
+}
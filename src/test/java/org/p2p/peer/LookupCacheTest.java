@@ -0,0 +1,29 @@
+package org.p2p.peer;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.RfcRecord;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class LookupCacheTest {
+    @Test
+    void hitsRotateTheFirstHolder() {
+        LookupCache cache = new LookupCache(60, 60, 16);
+        cache.put(1, List.of(new RfcRecord(1, "One", "a", 1), new RfcRecord(1, "One", "b", 2),
+                new RfcRecord(1, "One", "c", 3)));
+        assertEquals("a", cache.get(1).get(0).getHost());
+        assertEquals("b", cache.get(1).get(0).getHost());
+        assertEquals("c", cache.get(1).get(0).getHost());
+        assertEquals("a", cache.get(1).get(0).getHost());
+        assertEquals(3, cache.get(1).size());
+    }
+    @Test
+    void invalidatedHolderIsNotServedAgain() {
+        LookupCache cache = new LookupCache(60, 60, 16);
+        cache.put(1, List.of(new RfcRecord(1, "One", "a", 1), new RfcRecord(1, "One", "b", 2)));
+        cache.invalidateHolder(1, "a", 1);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(List.of("b"), cache.get(1).stream().map(RfcRecord::getHost).toList());
+        }
+        cache.invalidateHolder(1, "b", 2);
+        assertNull(cache.get(1));
+    }
+}
@@ -0,0 +1,141 @@
+package org.p2p.peer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.p2p.common.MetricsRegistry;
+import org.p2p.common.TimerWheel;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.junit.jupiter.api.Assertions.*;
+class NioUploadEngineTest {
+    @TempDir
+    File dir;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private String writeRfc(int number, int size) throws IOException {
+        StringBuilder body = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        Files.writeString(new File(dir, "rfc" + number + ".txt").toPath(), body);
+        return body.toString();
+    }
+    private NioUploadEngine start(TimerWheel timerWheel, int headerTimeoutMillis, UploadScheduler scheduler)
+            throws IOException {
+        NioUploadEngine engine = new NioUploadEngine(dir, "TestOS", metrics, timerWheel, headerTimeoutMillis, 0,
+                scheduler, null, 1);
+        engine.start();
+        return engine;
+    }
+    private static Socket connect(NioUploadEngine engine) throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            Socket client = new Socket("127.0.0.1", listener.socket().getLocalPort());
+            client.setSoTimeout(5000);
+            engine.accept(listener.accept());
+            return client;
+        }
+    }
+    private static String send(Socket client, String... pieces) throws Exception {
+        OutputStream out = client.getOutputStream();
+        for (int i = 0; i < pieces.length; i++) {
+            if (i > 0) {
+                Thread.sleep(50);
+            }
+            out.write(pieces[i].getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        return new String(client.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+    @Test
+    void servesAWholeFile() throws Exception {
+        String content = writeRfc(1, 300_000);
+        NioUploadEngine engine = start(null, 0, null);
+        try (Socket client = connect(engine)) {
+            String response = send(client, "GET RFC 1 P2P-CI/1.0\r\nHost: h\r\nOS: x\r\n\r\n");
+            assertTrue(response.startsWith("P2P-CI/1.0 200 OK\r\n"));
+            assertTrue(response.contains("Content-Length: 300000\r\n"));
+            assertEquals(content, body(response));
+        } finally {
+            engine.shutdown();
+        }
+        assertEquals(1, metrics.counter("peer.upload.served").sum());
+    }
+    @Test
+    void headersSplitAcrossReadsAreReassembled() throws Exception {
+        String content = writeRfc(2, 1000);
+        NioUploadEngine engine = start(null, 0, null);
+        try (Socket client = connect(engine)) {
+            String response = send(client, "GET RFC 2 P2", "P-CI/1.0\r\nHost: h\r", "\nOS: x\r\n", "\r\n");
+            assertTrue(response.startsWith("P2P-CI/1.0 200 OK\r\n"));
+            assertEquals(content, body(response));
+        } finally {
+            engine.shutdown();
+        }
+    }
+    @Test
+    void answersBusyWhenNoSlotOrQueueIsFree() throws Exception {
+        writeRfc(3, 1000);
+        UploadScheduler scheduler = new UploadScheduler(1, 0, 1000, 0);
+        assertNotNull(scheduler.offer("other", null));
+        NioUploadEngine engine = start(null, 0, scheduler);
+        try (Socket client = connect(engine)) {
+            String response = send(client, "GET RFC 3 P2P-CI/1.0\r\nHost: h\r\nOS: x\r\n\r\n");
+            assertTrue(response.startsWith("P2P-CI/1.0 503 Service Unavailable\r\n"));
+            assertTrue(response.contains("Retry-After: 1\r\n"));
+            assertEquals("", body(response));
+        } finally {
+            engine.shutdown();
+        }
+        assertEquals(1, scheduler.activeCount());
+        assertEquals(1, metrics.counter("peer.upload.rejected").sum());
+    }
+    @Test
+    void queuedRequestIsPacedOnceItsSlotIsGranted() throws Exception {
+        String content = writeRfc(4, 3 * 64 * 1024);
+        UploadScheduler scheduler = new UploadScheduler(1, 1, 100, 512);
+        assertNotNull(scheduler.offer("other", null));
+        NioUploadEngine engine = start(null, 0, scheduler);
+        try (Socket client = connect(engine)) {
+            client.getOutputStream().write("GET RFC 4 P2P-CI/1.0\r\nHost: h\r\nOS: x\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (scheduler.queuedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, scheduler.queuedCount());
+            scheduler.release();
+            String response = send(client);
+            assertTrue(response.startsWith("P2P-CI/1.0 200 OK\r\n"));
+            assertEquals(content, body(response));
+        } finally {
+            engine.shutdown();
+        }
+        assertEquals(0, scheduler.activeCount());
+        assertEquals(0, metrics.counter("peer.upload.rejected").sum());
+    }
+    @Test
+    void closesAConnectionWhoseHeadersNeverFinish() throws Exception {
+        writeRfc(5, 1000);
+        TimerWheel timerWheel = new TimerWheel("TestWheel", 10, 64);
+        timerWheel.start();
+        NioUploadEngine engine = start(timerWheel, 200, null);
+        try (Socket client = connect(engine)) {
+            long start = System.nanoTime();
+            String response = send(client, "GET RFC 5 P2P-CI/1.0\r\nHost: h\r\n");
+            assertEquals("", response);
+            assertTrue(System.nanoTime() - start >= 150_000_000L);
+        } finally {
+            engine.shutdown();
+            timerWheel.stop();
+        }
+        assertEquals(1, metrics.counter("peer.upload.timeouts.header").sum());
+    }
+}
@@ -0,0 +1,60 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.RfcRecord;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class ChangeLogTest {
+    private static RfcRecord record(int rfc, String host) {
+        return new RfcRecord(rfc, "Title " + rfc, host, 5000);
+    }
+    @Test
+    void sinceReturnsOnlyTheLatestChangePerEntry() {
+        ChangeLog log = new ChangeLog(16);
+        long start = log.version();
+        log.rfcAdded(record(1, "a"));
+        log.rfcAdded(record(2, "a"));
+        log.rfcRemoved(record(1, "a"));
+        List<ChangeLog.Change> changes = log.since(start);
+        assertEquals(2, changes.size());
+        assertEquals(2, changes.get(0).getRecord().getRfcNumber());
+        assertTrue(changes.get(0).isAdded());
+        assertEquals(1, changes.get(1).getRecord().getRfcNumber());
+        assertFalse(changes.get(1).isAdded());
+    }
+    @Test
+    void sinceCurrentVersionIsEmpty() {
+        ChangeLog log = new ChangeLog(4);
+        log.rfcAdded(record(1, "a"));
+        assertTrue(log.since(log.version()).isEmpty());
+    }
+    @Test
+    void versionsOutsideTheRingAreRejected() {
+        ChangeLog log = new ChangeLog(4);
+        long start = log.version();
+        for (int i = 0; i < 6; i++) {
+            log.rfcAdded(record(i, "a"));
+        }
+        assertNull(log.since(start));
+        assertNull(log.since(log.version() + 1));
+        assertEquals(4, log.since(log.oldestVersion()).size());
+    }
+    @Test
+    void concurrentAppendsAreAllVisible() throws Exception {
+        ChangeLog log = new ChangeLog(100_000);
+        long start = log.version();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            String host = "h" + t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    log.rfcAdded(record(i, host));
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(40_000, log.since(start).size());
+    }
+}
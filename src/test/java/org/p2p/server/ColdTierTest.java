@@ -0,0 +1,63 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.p2p.common.RfcRanges;
+import org.p2p.common.RfcRecord;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.*;
+class ColdTierTest {
+    @TempDir
+    File dir;
+    private RfcIndex index(int maxHotRfcs) throws Exception {
+        return new RfcIndex(1, false, new SegmentStore[] { new SegmentStore(dir, 4) }, maxHotRfcs);
+    }
+    @Test
+    void lookupOfAColdNumberDoesNotPromoteIt() throws Exception {
+        RfcIndex rfcIndex = index(10);
+        for (int rfc = 1; rfc <= 40; rfc++) {
+            rfcIndex.addRfc(rfc, "Title " + rfc, "a", 1);
+        }
+        rfcIndex.spillColdEntries();
+        long hot = rfcIndex.hotRfcCount();
+        assertEquals("a", rfcIndex.lookup(1).get(0).getHost());
+        assertEquals(40, rfcIndex.lookupAll(RfcRanges.parse("1-40")).size());
+        assertEquals(hot, rfcIndex.hotRfcCount());
+    }
+    @Test
+    void bulkRemovalsStayOnDisk() throws Exception {
+        RfcIndex rfcIndex = index(10);
+        for (int rfc = 1; rfc <= 40; rfc++) {
+            rfcIndex.addRfc(rfc, "Title " + rfc, "a", 1);
+            rfcIndex.addRfc(rfc, "Title " + rfc, "b", 2);
+        }
+        rfcIndex.spillColdEntries();
+        long hot = rfcIndex.hotRfcCount();
+        rfcIndex.removePeer("a", 1);
+        assertEquals(hot, rfcIndex.hotRfcCount());
+        assertEquals(Set.of("b"), rfcIndex.lookup(1).stream().map(RfcRecord::getHost).collect(Collectors.toSet()));
+        assertEquals(40, rfcIndex.removeRfcsWhere(rfc -> rfc <= 40));
+        assertTrue(rfcIndex.hotRfcCount() <= hot);
+        assertTrue(rfcIndex.collect(null).isEmpty());
+        assertTrue(rfcIndex.lookup(1).isEmpty());
+        assertEquals(0, rfcIndex.entryCount());
+    }
+    @Test
+    void restoreSpillsAsItGoes() throws Exception {
+        RfcIndex rfcIndex = index(10);
+        List<RfcRecord> records = new ArrayList<>();
+        for (int rfc = 1; rfc <= 100; rfc++) {
+            records.add(new RfcRecord(rfc, "Title " + rfc, "a", 1));
+        }
+        for (int rfc = 1; rfc <= 100; rfc++) {
+            records.add(new RfcRecord(rfc, "Title " + rfc, "b", 2));
+        }
+        rfcIndex.restore(records);
+        assertTrue(rfcIndex.hotRfcCount() <= 10);
+        assertEquals(200, rfcIndex.entryCount());
+        assertEquals(2, rfcIndex.lookup(3).size());
+    }
+}
@@ -0,0 +1,19 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.RfcRecord;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class HotGrantsTest {
+    @Test
+    void handsOutOnlyTheMissingHolders() {
+        HotGrants grants = new HotGrants();
+        List<RfcRecord> holders = List.of(new RfcRecord(7, "Title", "a", 1));
+        assertTrue(grants.tryGrant(7, "b", 2, holders, 2));
+        assertTrue(grants.tryGrant(7, "c", 3, holders, 2));
+        assertFalse(grants.tryGrant(7, "d", 4, holders, 2));
+        assertTrue(grants.tryGrant(7, "b", 2, holders, 2));
+        List<RfcRecord> grown = List.of(new RfcRecord(7, "Title", "a", 1), new RfcRecord(7, "Title", "b", 2));
+        assertTrue(grants.tryGrant(7, "d", 4, grown, 2));
+        assertEquals(2, grants.outstanding());
+    }
+}
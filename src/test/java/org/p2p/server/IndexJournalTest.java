@@ -0,0 +1,100 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.p2p.common.RfcRecord;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.*;
+class IndexJournalTest {
+    @TempDir
+    File dir;
+    private static RfcRecord record(int rfc, String host, int port) {
+        return new RfcRecord(rfc, "Title " + rfc, host, port);
+    }
+    private static Set<String> keys(List<RfcRecord> records) {
+        return records.stream().map(r -> r.getRfcNumber() + "@" + r.getHost() + ":" + r.getUploadPort())
+                .collect(Collectors.toSet());
+    }
+    private List<RfcRecord> reopen() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        List<RfcRecord> recovered = journal.recover();
+        journal.close();
+        return recovered;
+    }
+    @Test
+    void replaysAddsAndRemoves() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        journal.recover();
+        journal.rfcAdded(record(1, "a", 1));
+        journal.rfcAdded(record(2, "a", 1));
+        journal.rfcAdded(record(2, "b", 2));
+        journal.rfcRemoved(record(2, "a", 1));
+        journal.close();
+        assertEquals(Set.of("1@a:1", "2@b:2"), keys(reopen()));
+    }
+    @Test
+    void peerRemovalInterleavedWithReAddKeepsTheLiveEntry() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        journal.recover();
+        RfcRecord inShardA = record(1, "p", 9000);
+        RfcRecord inShardB = record(2, "p", 9000);
+        journal.rfcAdded(inShardA);
+        journal.rfcAdded(inShardB);
+        journal.peerRemoved("p", 9000, List.of(inShardB));
+        journal.rfcAdded(inShardB);
+        journal.peerRemoved("p", 9000, List.of(inShardA));
+        journal.close();
+        assertEquals(Set.of("2@p:9000"), keys(reopen()));
+    }
+    @Test
+    void snapshotPlusNewerWalRecoversTheSameState() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        journal.recover();
+        journal.rfcAdded(record(1, "a", 1));
+        journal.rfcAdded(record(2, "a", 1));
+        journal.compact();
+        journal.rfcRemoved(record(1, "a", 1));
+        journal.rfcAdded(record(3, "c", 3));
+        journal.close();
+        assertTrue(new File(dir, "index.snapshot").isFile());
+        assertEquals(Set.of("2@a:1", "3@c:3"), keys(reopen()));
+    }
+    @Test
+    void truncatedTailIsIgnored() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        journal.recover();
+        journal.rfcAdded(record(1, "a", 1));
+        journal.rfcAdded(record(2, "a", 1));
+        journal.close();
+        File wal = dir.listFiles((d, name) -> name.startsWith("wal-"))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(wal, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertEquals(Set.of("1@a:1"), keys(reopen()));
+    }
+    @Test
+    void queuedAppendsFromManyThreadsAreWrittenOnFlush() throws Exception {
+        IndexJournal journal = new IndexJournal(dir);
+        journal.recover();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            String host = "h" + t;
+            writers[t] = new Thread(() -> {
+                for (int rfc = 0; rfc < 500; rfc++) {
+                    journal.rfcAdded(record(rfc, host, 1));
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        journal.flush();
+        journal.compact();
+        journal.close();
+        assertEquals(2000, reopen().size());
+    }
+}
@@ -0,0 +1,52 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class PopularitySketchTest {
+    @Test
+    void estimateNeverUndercounts() {
+        PopularitySketch sketch = new PopularitySketch(64, 8);
+        for (int key = 0; key < 500; key++) {
+            for (int i = 0; i < key % 7; i++) {
+                sketch.record(key);
+            }
+        }
+        for (int key = 0; key < 500; key++) {
+            assertTrue(sketch.estimate(key) >= key % 7);
+        }
+    }
+    @Test
+    void topKeepsTheHottestKeysWithinTheLimit() {
+        PopularitySketch sketch = new PopularitySketch(1 << 12, 3);
+        for (int key = 1; key <= 10; key++) {
+            for (int i = 0; i < key * 10; i++) {
+                sketch.record(key);
+            }
+        }
+        assertEquals(3, sketch.candidateCount());
+        assertEquals(List.of(10, 9, 8), sketch.top());
+    }
+    @Test
+    void decayHalvesCountsAndDropsColdCandidates() {
+        PopularitySketch sketch = new PopularitySketch(1 << 12, 8);
+        for (int i = 0; i < 40; i++) {
+            sketch.record(7);
+        }
+        sketch.record(8);
+        sketch.decay();
+        assertEquals(20, sketch.estimate(7));
+        assertEquals(0, sketch.estimate(8));
+        assertEquals(List.of(7), sketch.top());
+    }
+    @Test
+    void knownCandidatesKeepTheirRankCurrent() {
+        PopularitySketch sketch = new PopularitySketch(1 << 12, 4);
+        sketch.record(1);
+        sketch.record(2);
+        for (int i = 0; i < 5; i++) {
+            sketch.record(2);
+        }
+        assertEquals(List.of(2, 1), sketch.top());
+        assertEquals(2, sketch.candidateCount());
+    }
+}
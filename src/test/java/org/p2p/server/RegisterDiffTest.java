@@ -0,0 +1,68 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.ClusterTopology;
+import org.p2p.common.RfcRecord;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.util.Set;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.*;
+class RegisterDiffTest {
+    private static String register(ServerContext context, String have) throws Exception {
+        StringWriter response = new StringWriter();
+        BufferedWriter out = new BufferedWriter(response);
+        new ClientHandler(new Socket(), context).handleRegister(new BufferedReader(new StringReader(
+                "Host: p\r\nPort: 9000\r\nHave: " + have + "\r\n\r\n")), out, "127.0.0.1");
+        out.flush();
+        return response.toString();
+    }
+    private static ServerContext context(RfcIndex rfcIndex) {
+        ServerContext context = new ServerContext(new PeerRegistry(), rfcIndex);
+        PeerHoldings holdings = new PeerHoldings();
+        rfcIndex.addListener(holdings);
+        context.setPeerHoldings(holdings);
+        return context;
+    }
+    private static Set<Integer> heldBy(RfcIndex rfcIndex, String host) {
+        return rfcIndex.collect(null).stream().filter(r -> r.getHost().equals(host))
+                .map(RfcRecord::getRfcNumber).collect(Collectors.toSet());
+    }
+    @Test
+    void keepsListedRemovesStaleAndReportsMissing() throws Exception {
+        RfcIndex rfcIndex = new RfcIndex();
+        ServerContext context = context(rfcIndex);
+        for (int rfc = 1; rfc <= 5; rfc++) {
+            rfcIndex.addRfc(rfc, "Title " + rfc, "p", 9000);
+        }
+        String response = register(context, "1-3,7-8");
+        assertTrue(response.startsWith("P2P-CI/1.0 200 OK\r\n"));
+        assertTrue(response.contains("Held: 3\r\n"));
+        assertTrue(response.contains("Missing: 7-8\r\n"));
+        assertTrue(response.contains("Removed: 2\r\n"));
+        assertEquals(Set.of(1, 2, 3), heldBy(rfcIndex, "p"));
+    }
+    @Test
+    void clusteredNodeKeepsReplicaCopiesOfOtherOwners() throws Exception {
+        RfcIndex rfcIndex = new RfcIndex();
+        ServerContext context = context(rfcIndex);
+        ClusterTopology topology = ClusterTopology.parse("localhost:7001,localhost:7002", 2);
+        context.setReplicator(new ClusterReplicator(topology, 0, rfcIndex));
+        int owned = -1;
+        int replica = -1;
+        for (int rfc = 1; owned < 0 || replica < 0; rfc++) {
+            if (topology.ownerOf(rfc) == 0) {
+                owned = owned < 0 ? rfc : owned;
+            } else {
+                replica = replica < 0 ? rfc : replica;
+            }
+        }
+        rfcIndex.addRfc(owned, "Owned", "p", 9000);
+        rfcIndex.addRfc(replica, "Replica", "p", 9000);
+        String response = register(context, "NONE");
+        assertTrue(response.contains("Removed: 1\r\n"));
+        assertEquals(Set.of(replica), heldBy(rfcIndex, "p"));
+    }
+}
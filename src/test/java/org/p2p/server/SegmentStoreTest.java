@@ -0,0 +1,74 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.p2p.common.RfcRecord;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import static org.junit.jupiter.api.Assertions.*;
+class SegmentStoreTest {
+    @TempDir
+    File dir;
+    private static SortedMap<Integer, List<RfcRecord>> batch(int from, int to, String host) {
+        SortedMap<Integer, List<RfcRecord>> entries = new TreeMap<>();
+        for (int rfc = from; rfc < to; rfc++) {
+            entries.put(rfc, List.of(new RfcRecord(rfc, "Title " + rfc, host, 5000)));
+        }
+        return entries;
+    }
+    @Test
+    void compactionKeepsSegmentsUnderTheCap() throws Exception {
+        long cap = 64 * 1024;
+        SegmentStore store = new SegmentStore(dir, 4, cap);
+        for (int i = 0; i < 40; i++) {
+            store.spill(batch(i * 100, i * 100 + 100, "h" + i));
+            store.awaitCompaction();
+        }
+        assertTrue(store.segmentCount() < 40);
+        assertTrue(store.largestSegmentBytes() <= cap);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("h" + i, store.get(i * 100 + 7).get(0).getHost());
+        }
+    }
+    @Test
+    void newerSpillWinsAfterCompaction() throws Exception {
+        SegmentStore store = new SegmentStore(dir, 2);
+        store.spill(batch(0, 10, "old"));
+        store.spill(batch(5, 10, "new"));
+        store.awaitCompaction();
+        assertEquals(1, store.segmentCount());
+        assertEquals("old", store.get(3).get(0).getHost());
+        assertEquals("new", store.get(7).get(0).getHost());
+    }
+    @Test
+    void takenNumbersStayHiddenAcrossCompaction() throws Exception {
+        SegmentStore store = new SegmentStore(dir, 2);
+        store.spill(batch(0, 10, "a"));
+        assertNotNull(store.take(4));
+        store.spill(batch(10, 20, "b"));
+        store.awaitCompaction();
+        assertNull(store.get(4));
+        assertNotNull(store.get(5));
+        assertNotNull(store.get(15));
+    }
+    @Test
+    void tombstoneHidesOlderEntriesAndIsDroppedWithThem() throws Exception {
+        SegmentStore store = new SegmentStore(dir, 2);
+        store.spill(batch(0, 10, "a"));
+        SortedMap<Integer, List<RfcRecord>> tombstones = new TreeMap<>();
+        for (int rfc = 0; rfc < 8; rfc++) {
+            tombstones.put(rfc, List.of());
+        }
+        store.spill(tombstones);
+        assertNull(store.get(4));
+        store.awaitCompaction();
+        assertEquals(1, store.segmentCount());
+        assertNull(store.get(4));
+        assertNotNull(store.get(8));
+        List<Integer> live = new ArrayList<>();
+        store.forEachLive((rfc, records) -> live.add(rfc));
+        assertEquals(List.of(8, 9), live);
+    }
+}
@@ -0,0 +1,31 @@
+package org.p2p.server;
+import org.junit.jupiter.api.Test;
+import org.p2p.common.RfcRecord;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+class TitleIndexTest {
+    @Test
+    void searchSeesEveryUpdateSubmittedBeforeIt() {
+        TitleIndex index = new TitleIndex();
+        for (int rfc = 0; rfc < 1000; rfc++) {
+            index.rfcAdded(new RfcRecord(rfc, "Transport Layer " + rfc, "a", 5000));
+        }
+        assertEquals(20, index.search("transport", 20).size());
+        for (int rfc = 0; rfc < 1000; rfc++) {
+            index.rfcRemoved(new RfcRecord(rfc, "Transport Layer " + rfc, "a", 5000));
+        }
+        assertTrue(index.search("transport", 20).isEmpty());
+    }
+    @Test
+    void holdersAreCountedPerRfc() {
+        TitleIndex index = new TitleIndex();
+        index.rfcAdded(new RfcRecord(2616, "Hypertext Transfer Protocol", "a", 5000));
+        index.rfcAdded(new RfcRecord(2616, "Hypertext Transfer Protocol", "b", 5000));
+        index.rfcAdded(new RfcRecord(793, "Transmission Control Protocol", "a", 5000));
+        List<TitleIndex.Hit> hits = index.search("proto", 10);
+        assertEquals(2, hits.size());
+        assertEquals(2616, hits.get(0).getRfcNumber());
+        assertEquals(2, hits.get(0).getHolders());
+        assertEquals(List.of(), index.search("hyper transmission", 10));
+    }
+}